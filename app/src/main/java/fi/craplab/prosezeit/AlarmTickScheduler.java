@@ -0,0 +1,83 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import fi.craplab.prosezeit.core.TickScheduler;
+
+/**
+ * {@link TickScheduler} arming exact one-shot {@link AlarmManager} alarms that send a broadcast.
+ */
+public class AlarmTickScheduler implements TickScheduler {
+    private static final String TAG = AlarmTickScheduler.class.getSimpleName();
+
+    /** Intent extra holding the minute boundary the alarm was armed for */
+    public static final String EXTRA_BOUNDARY = "tick_boundary";
+
+    private final Context context;
+    /** Broadcast intent, re-used for every alarm with only the boundary extra changing */
+    private final Intent intent;
+
+    /**
+     * Creates a new {@code AlarmTickScheduler} sending the given broadcast {@link Intent}.
+     *
+     * @param context Calling context
+     * @param intent Broadcast intent to send when the alarm goes off
+     */
+    public AlarmTickScheduler(Context context, Intent intent) {
+        this.context = context.getApplicationContext();
+        this.intent = new Intent(intent);
+    }
+
+    @Override
+    public void schedule(long triggerAtMillis, long boundary) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager == null) {
+            return;
+        }
+
+        // the intent is copied into the pending intent, so it's safe to change it afterwards
+        intent.putExtra(EXTRA_BOUNDARY, boundary);
+        PendingIntent alarmIntent = PendingIntent.getBroadcast(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "setting alarm to " + triggerAtMillis + " for boundary " + boundary);
+        }
+        alarmManager.setExact(AlarmManager.RTC, triggerAtMillis, alarmIntent);
+    }
+
+    @Override
+    public void cancel() {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager != null) {
+            alarmManager.cancel(PendingIntent.getBroadcast(context, 0, intent, 0));
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import android.appwidget.AppWidgetManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.ContextCompat;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.widget.RemoteViews;
+
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+
+import fi.craplab.prosezeit.core.metrics.TickMetrics;
+import fi.craplab.prosezeit.core.render.FrameCache;
+
+/**
+ * Optional render mode drawing the widget content into bitmaps, shown in the widget's image view
+ * instead of its text views.
+ * <p>
+ * With text views, the launcher lays out the parsed quote texts on its own main thread at every
+ * update. Here, the quote is laid out and drawn like the text views would show it, with the
+ * {@link TextFitter}'s text size, on the {@link DatabaseLoader}'s executor, and the launcher only
+ * gets the finished frame. The frames of the upcoming quotes are drawn ahead of time along with
+ * the prefetch of their texts, so a tick usually only has to push a frame that's ready already.
+ * The frames are cached and pooled by a {@link FrameCache}, so the bitmaps are reused from one
+ * minute to the next instead of allocated every time.
+ * <p>
+ * Each frame is sent through the binder along with the widget update, so frames larger than
+ * {@value #MAX_FRAME_BYTES} bytes are drawn scaled down and stretched back by the image view.
+ */
+public class BitmapRenderer {
+    private static final String TAG = BitmapRenderer.class.getSimpleName();
+
+    private static final String PREFS_NAME = "render_settings";
+    private static final String PREF_BITMAP_RENDERING = "bitmap_rendering";
+
+    /** Largest frame size in bytes, well below the binder's 1MB transaction buffer */
+    private static final int MAX_FRAME_BYTES = 512 * 1024;
+    private static final int BYTES_PER_PIXEL = 4;
+    /** Number of cached frames, the upcoming quotes and the current one for a few widget sizes */
+    private static final int MAX_FRAMES = 16;
+    /** Number of pooled bitmaps */
+    private static final int MAX_POOLED = 4;
+    /** Quote origin text color, as set in the widget layout */
+    private static final int ORIGIN_COLOR = 0xff333333;
+
+    private static BitmapRenderer instance;
+
+    private final SharedPreferences preferences;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final FrameCache<Bitmap> frames = new FrameCache<>(MAX_FRAMES, MAX_POOLED,
+            new FrameCache.Allocator<Bitmap>() {
+                @Override
+                public Bitmap allocate(int width, int height) {
+                    return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                }
+
+                @Override
+                public void dispose(Bitmap frame) {
+                    frame.recycle();
+                }
+            }, TickMetrics.getInstance());
+    /** Recently used size buckets, filled by {@link #isPrefetched(long)} */
+    private final int[] recentBuckets = new int[TextFitter.MAX_BUCKETS];
+    private boolean enabled;
+
+    /**
+     * Creates the {@code BitmapRenderer} instance with the given {@link Context}.
+     *
+     * @param context Application context
+     */
+    private BitmapRenderer(Context context) {
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        enabled = preferences.getBoolean(PREF_BITMAP_RENDERING, false);
+    }
+
+    /**
+     * Retrieve the {@code BitmapRenderer} singleton instance. If no instance exists yet, it will
+     * be created first.
+     *
+     * @param context Calling context
+     * @return {@code BitmapRenderer} instance
+     */
+    public static synchronized BitmapRenderer getInstance(Context context) {
+        if (instance == null) {
+            instance = new BitmapRenderer(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Check whether the widgets are rendered as bitmaps.
+     *
+     * @return {@code true} if bitmap rendering is enabled
+     */
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables bitmap rendering. Disabling it releases all frames and pooled bitmaps.
+     *
+     * @param enabled {@code true} to render the widgets as bitmaps
+     */
+    public void setEnabled(boolean enabled) {
+        synchronized (this) {
+            this.enabled = enabled;
+            preferences.edit().putBoolean(PREF_BITMAP_RENDERING, enabled).apply();
+        }
+        if (!enabled) {
+            frames.clear(true);
+        }
+    }
+
+    /**
+     * Drops all frames, e.g. when the quote ids change their meaning with another corpus. The
+     * pooled bitmaps are kept for the next frames.
+     */
+    public void clear() {
+        frames.clear(false);
+    }
+
+    /**
+     * Get the {@link FrameCache} flags of a frame with the given display state.
+     *
+     * @param fresh {@code true} if the quote is from the current minute
+     * @param originVisible {@code true} if the quote's origin is shown
+     * @return Frame flags
+     */
+    public static int getFrameFlags(boolean fresh, boolean originVisible) {
+        return (fresh ? FrameCache.FLAG_FRESH : 0) | (originVisible ? FrameCache.FLAG_ORIGIN : 0);
+    }
+
+    /**
+     * Draws the given quote's frames missing for any of the given size buckets in the background,
+     * and runs the given task on the main thread once they're done. Nothing is drawn if all
+     * frames are there already, or if the executor is busy, in which case the caller is expected
+     * to push the frames right away, having them drawn in place.
+     *
+     * @param context Calling context
+     * @param quoteId Quote id
+     * @param texts Parsed texts of the quote
+     * @param flags Frame flags
+     * @param buckets Size buckets of the widgets, {@link TextFitter#NO_BUCKET} ones are skipped
+     * @param count Number of size buckets
+     * @param onReady Task to run on the main thread once the frames are drawn
+     * @return {@code true} if frames are drawn in the background
+     */
+    public boolean requestFrames(final Context context, final long quoteId,
+                                 final QuoteTextCache.Entry texts, final int flags, int[] buckets,
+                                 int count, final Runnable onReady) {
+        boolean missing = false;
+        for (int i = 0; i < count && !missing; i++) {
+            missing = buckets[i] != TextFitter.NO_BUCKET && !frames.contains(quoteId, buckets[i], flags);
+        }
+        if (!missing) {
+            return false;
+        }
+
+        final int[] pending = Arrays.copyOf(buckets, count);
+        try {
+            DatabaseLoader.getInstance().getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int bucket : pending) {
+                        if (bucket != TextFitter.NO_BUCKET && !frames.contains(quoteId, bucket, flags)) {
+                            draw(context, quoteId, texts, bucket, flags);
+                        }
+                    }
+                    mainHandler.post(onReady);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Drawing frames in place, executor busy");
+            return false;
+        }
+    }
+
+    /**
+     * Sets the given quote's frame on the given views and sends them to the given widgets. The
+     * frame is drawn in place if it's not ready. The frame can't be dropped and drawn over while
+     * the update is sent, as the cache is locked until then.
+     *
+     * @param context Calling context
+     * @param appWidgetManager Widget manager to update with
+     * @param appWidgetIds Widget ids to update
+     * @param views Views to set the frame on
+     * @param quoteId Quote id
+     * @param texts Parsed texts of the quote
+     * @param bucket Size bucket of the widgets
+     * @param flags Frame flags
+     */
+    public void push(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds,
+                     RemoteViews views, long quoteId, QuoteTextCache.Entry texts, int bucket,
+                     int flags) {
+        synchronized (frames) {
+            Bitmap frame = frames.get(quoteId, bucket, flags);
+            if (frame == null) {
+                frame = draw(context, quoteId, texts, bucket, flags);
+            }
+            views.setImageViewBitmap(R.id.quote_image, frame);
+            appWidgetManager.updateAppWidget(appWidgetIds, views);
+        }
+    }
+
+    /**
+     * Draws the frames of a fresh quote for all recently used size buckets ahead of time.
+     *
+     * @param context Calling context
+     * @param quoteId Quote id
+     * @param texts Parsed texts of the quote
+     */
+    public void prefetch(Context context, long quoteId, QuoteTextCache.Entry texts) {
+        int[] pending = new int[TextFitter.MAX_BUCKETS];
+        int count = TextFitter.getInstance().getRecentBuckets(pending);
+        for (int i = 0; i < count; i++) {
+            if (!frames.contains(quoteId, pending[i], FrameCache.FLAG_FRESH)) {
+                draw(context, quoteId, texts, pending[i], FrameCache.FLAG_FRESH);
+            }
+        }
+    }
+
+    /**
+     * Check whether the frames of the quote with the given id are drawn ahead of time for all
+     * recently used size buckets, or bitmap rendering is disabled.
+     *
+     * @param quoteId Quote id
+     * @return {@code true} if there are no frames to draw ahead of time
+     */
+    public synchronized boolean isPrefetched(long quoteId) {
+        if (!enabled) {
+            return true;
+        }
+
+        int count = TextFitter.getInstance().getRecentBuckets(recentBuckets);
+        for (int i = 0; i < count; i++) {
+            if (!frames.contains(quoteId, recentBuckets[i], FrameCache.FLAG_FRESH)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Draws and caches the given quote's frame for the given size bucket, laid out like the
+     * widget layout's text views: the quote text centered with the fitted text size, and the
+     * origin below it, aligned to the end. Frames above {@link #MAX_FRAME_BYTES} are scaled down.
+     *
+     * @param context Calling context
+     * @param quoteId Quote id
+     * @param texts Parsed texts of the quote
+     * @param bucket Size bucket
+     * @param flags Frame flags
+     * @return Drawn frame
+     */
+    private Bitmap draw(Context context, long quoteId, QuoteTextCache.Entry texts, int bucket,
+                        int flags) {
+        long start = System.nanoTime();
+        Resources resources = context.getResources();
+        DisplayMetrics metrics = resources.getDisplayMetrics();
+        TextFitter fitter = TextFitter.getInstance();
+        int textSize = fitter.getTextSize(context, quoteId, texts, bucket);
+
+        float width = TextFitter.getBucketWidth(bucket) * metrics.density;
+        float height = TextFitter.getBucketHeight(bucket) * metrics.density;
+        float scale = Math.min(1f, (float) Math.sqrt(MAX_FRAME_BYTES / (width * height * BYTES_PER_PIXEL)));
+        int frameWidth = Math.max(1, (int) (width * scale));
+        int frameHeight = Math.max(1, (int) (height * scale));
+
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTypeface(fitter.getQuoteTypeface());
+        paint.setTextSize(textSize * metrics.scaledDensity);
+        paint.setColor(ContextCompat.getColor(context, (flags & FrameCache.FLAG_FRESH) != 0
+                ? R.color.freshQuote : R.color.oldQuote));
+        int textWidth = (int) (width - 2 * resources.getDimension(R.dimen.widget_quote_margin));
+        Layout text = TextFitter.layout(texts.text, paint, Math.max(1, textWidth));
+
+        Bitmap frame = frames.acquire(frameWidth, frameHeight);
+        frame.eraseColor(Color.TRANSPARENT);
+        Canvas canvas = new Canvas(frame);
+        canvas.scale(scale, scale);
+
+        // the text view wraps its text and is centered in the widget
+        float textTop = (height - text.getHeight()) / 2;
+        canvas.save();
+        canvas.translate((width - getMaxLineWidth(text)) / 2, textTop);
+        text.draw(canvas);
+        canvas.restore();
+
+        if ((flags & FrameCache.FLAG_ORIGIN) != 0) {
+            paint.setTypeface(fitter.getOriginTypeface());
+            paint.setTextSize(resources.getDimension(R.dimen.widget_origin_text_size));
+            paint.setColor(ORIGIN_COLOR);
+            float marginEnd = resources.getDimension(R.dimen.widget_origin_margin_end);
+            int originWidth = (int) (width - resources.getDimension(R.dimen.widget_origin_margin_start)
+                    - marginEnd);
+            if (originWidth > 0) {
+                Layout origin = TextFitter.layout(texts.origin, paint, originWidth);
+                canvas.translate(width - marginEnd - getMaxLineWidth(origin), textTop
+                        + text.getHeight() + resources.getDimension(R.dimen.widget_origin_margin_top));
+                origin.draw(canvas);
+            }
+        }
+
+        frames.put(quoteId, bucket, flags, frame, frameWidth, frameHeight);
+        TickMetrics.getInstance().record(TickMetrics.FRAME_RENDER, (System.nanoTime() - start) / 1000);
+        return frame;
+    }
+
+    /**
+     * Get the width of the given layout's longest line, i.e. the width of a text view wrapping
+     * the layout's text.
+     *
+     * @param layout Text layout
+     * @return Longest line width in pixels
+     */
+    private static float getMaxLineWidth(Layout layout) {
+        float max = 0;
+        for (int line = 0; line < layout.getLineCount(); line++) {
+            max = Math.max(max, layout.getLineWidth(line));
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapRenderer{" +
+                "enabled=" + isEnabled() +
+                ", frames=" + frames +
+                '}';
+    }
+}
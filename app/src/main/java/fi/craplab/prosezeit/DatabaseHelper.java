@@ -24,51 +24,40 @@
 package fi.craplab.prosezeit;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 /**
- * Helper class to handle the Database creation, updating and copying the original asset data.
+ * Helper class to handle the shard databases of a {@link ShardedQuoteSource}, and copying them
+ * from the original asset data. The built-in quotes aren't a database, but the memory-mapped
+ * {@link fi.craplab.prosezeit.core.QuotePack}.
  */
 public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String TAG = DatabaseHelper.class.getSimpleName();
 
-    private static final int DB_VERSION = 1;
-    private static final String DB_NAME = "quotes.db";
-
-    private static DatabaseHelper instance;
-
-    /**
-     * Create the {@code DatabaseHandler} instance with the given {@link Context}.
-     *
-     * @param context Calling context
-     */
-    private DatabaseHelper(Context context) {
-        super(context, DB_NAME, null, DB_VERSION);
-    }
+    /** Version of the shards of a sharded corpus, which are never upgraded */
+    private static final int SHARD_VERSION = 1;
 
     /**
-     * Retrieve the {@code DatabaseHelper} singleton instance. If no instance exists yet, it will
-     * be created first.
+     * Create a {@code DatabaseHelper} for the given database file, e.g. a shard of a
+     * {@link ShardedQuoteSource}, which has one helper per shard.
      *
      * @param context Calling context
-     * @return {@code DatabaseHelper} instance
+     * @param name Database file name
      */
-    public static DatabaseHelper getInstance(Context context) {
-        if (instance == null) {
-            Log.d(TAG, "db helper create new instance");
-            instance = new DatabaseHelper(context);
-        }
-
-        Log.d(TAG, "db helper get instance: " + instance);
-        return instance;
+    DatabaseHelper(Context context, String name) {
+        super(context, name, null, SHARD_VERSION);
     }
 
     @Override
@@ -77,46 +66,116 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-        // do nothing yet
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // shards are never upgraded, a new corpus version comes with new shards
     }
 
     /**
-     * Creates the application's internal database file from the pre-populated assets file shipped
-     * with the app itself. If the internal database already exists, nothing happens.
+     * Installs the given pre-populated database asset as the given internal database file. If the
+     * internal database already exists, nothing happens.
+     * <p>
+     * Uncompressed assets are copied straight from the APK's file descriptor into a temporary
+     * file with a channel transfer, which is only renamed to its final name once it's completely
+     * written. A failed copy therefore never leaves a truncated database behind. As this is file
+     * I/O, it must not be called from the main thread.
      *
      * @param context Calling context
+     * @param assetName Database asset path
+     * @param dbName Internal database file name
+     * @return {@code true} if the internal database exists, {@code false} if creating it failed
      */
-    public static void createDatabaseFromAsset(Context context) {
-        String dbPath = context.getApplicationInfo().dataDir + "/databases/";
-        File dbFile = new File(dbPath + DB_NAME);
+    public static synchronized boolean installAsset(Context context, String assetName, String dbName) {
+        File dbFile = context.getDatabasePath(dbName);
 
-        Log.d(TAG, "create db, file " + dbFile.getAbsolutePath() + " exists: " + dbFile.exists());
-        if (!dbFile.exists()) {
-            // open database to create the file, and close it before copying the file
-            getInstance(context).getReadableDatabase();
-            getInstance(context).close();
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "create db, file " + dbFile.getAbsolutePath()
+                    + " exists: " + dbFile.exists());
+        }
+        if (dbFile.exists()) {
+            return true;
+        }
 
-            // copy original assets db file to app's database folder
-            try {
-                InputStream input = context.getAssets().open(DB_NAME);
-                OutputStream output = new FileOutputStream(dbFile);
+        long start = SystemClock.elapsedRealtime();
+        File dbDir = dbFile.getParentFile();
+        File tmpFile = new File(dbDir, dbName + ".tmp");
 
-                byte[] mBuffer = new byte[1024];
-                int length;
+        try {
+            if (!dbDir.isDirectory() && !dbDir.mkdirs()) {
+                throw new IOException("Can't create database directory " + dbDir);
+            }
 
-                while ((length = input.read(mBuffer)) > 0) {
-                    output.write(mBuffer, 0, length);
-                }
+            copyAsset(context, assetName, tmpFile);
 
-                output.flush();
-                output.close();
-                input.close();
+            if (!tmpFile.renameTo(dbFile)) {
+                throw new IOException("Can't rename " + tmpFile + " to " + dbFile);
+            }
 
-                Log.i(TAG, "Database created");
-            } catch (IOException e) {
-                Log.e(TAG, "Creating database failed", e);
+            Log.i(TAG, "Database " + dbName + " created in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Creating database " + dbName + " failed", e);
+            if (tmpFile.exists() && !tmpFile.delete()) {
+                Log.w(TAG, "Can't delete " + tmpFile);
             }
+            return false;
+        }
+    }
+
+    /**
+     * Copies the given asset file into the given target file and syncs it to disk. Uncompressed
+     * assets are transferred directly from the APK's file descriptor, compressed ones fall back
+     * to a regular stream copy.
+     *
+     * @param context Calling context
+     * @param assetName Asset file name
+     * @param target Target file, overwritten if it exists
+     * @throws IOException If reading the asset or writing the target failed
+     */
+    private static void copyAsset(Context context, String assetName, File target) throws IOException {
+        try (FileOutputStream output = new FileOutputStream(target)) {
+            FileChannel outputChannel = output.getChannel();
+
+            AssetFileDescriptor descriptor = null;
+            try {
+                descriptor = context.getAssets().openFd(assetName);
+            } catch (FileNotFoundException e) {
+                // the shards are compressed in the APK, only the quote pack is stored as is
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "Asset " + assetName + " is compressed, using a stream copy");
+                }
+            }
+
+            if (descriptor != null) {
+                try (FileInputStream input = descriptor.createInputStream()) {
+                    FileChannel inputChannel = input.getChannel();
+                    long offset = descriptor.getStartOffset();
+                    long length = descriptor.getLength();
+                    long position = 0;
+
+                    while (position < length) {
+                        long transferred = inputChannel.transferTo(offset + position,
+                                length - position, outputChannel);
+                        if (transferred <= 0) {
+                            throw new IOException("Asset " + assetName + " ended early");
+                        }
+                        position += transferred;
+                    }
+                } finally {
+                    descriptor.close();
+                }
+            } else {
+                try (InputStream input = context.getAssets().open(assetName)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int length;
+                    while ((length = input.read(buffer)) > 0) {
+                        output.write(buffer, 0, length);
+                    }
+                }
+            }
+
+            output.flush();
+            output.getFD().sync();
         }
     }
 }
@@ -0,0 +1,306 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import fi.craplab.prosezeit.core.PackQuoteSource;
+import fi.craplab.prosezeit.core.QuotePack;
+import fi.craplab.prosezeit.core.QuoteSchedule;
+import fi.craplab.prosezeit.core.metrics.TickMetrics;
+
+/**
+ * Single-flight loader for the quote data, either the selected {@link ShardedQuoteSource} or the
+ * built-in quotes' mapped {@link QuotePack}.
+ * <p>
+ * A burst of broadcasts (multiple widget instances, boot, config changes, ...) can request the
+ * database several times before the first load finished. Instead of stacking up one load per
+ * request, all concurrent callers share the same in-flight load, and each {@link Listener} is
+ * notified only once when it is done. The loading itself, including installing the database from
+ * the app's assets on first use, happens on a dedicated single-thread executor with a bounded
+ * queue.
+ */
+public class DatabaseLoader {
+    private static final String TAG = DatabaseLoader.class.getSimpleName();
+
+    /** Maximum number of tasks waiting for the loader thread */
+    private static final int QUEUE_SIZE = 8;
+    /** Time the idle loader thread is kept alive, in seconds */
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    /** Quote database installed by versions that read the built-in quotes from SQLite */
+    private static final String LEGACY_DB_NAME = "quotes.db";
+
+    /**
+     * Listener interface to get notified once the database is loaded.
+     */
+    public interface Listener {
+        /**
+         * Called on the main thread when the database is fully loaded and available through the
+         * {@link QuoteRepository}. Passes the application {@link Context} back to the calling
+         * party. Widgets and Context, you know...
+         *
+         * @param context Application context
+         */
+        void onDatabaseLoaded(Context context);
+    }
+
+    private static DatabaseLoader instance;
+
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /** Shares the current load between all concurrent callers */
+    private final SingleFlight<Listener> flight;
+
+    /**
+     * Creates the {@code DatabaseLoader} instance and its executor.
+     */
+    private DatabaseLoader() {
+        executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, TAG);
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        flight = new SingleFlight<>(executor);
+    }
+
+    /**
+     * Retrieve the {@code DatabaseLoader} singleton instance. If no instance exists yet, it will
+     * be created first.
+     *
+     * @return {@code DatabaseLoader} instance
+     */
+    public static synchronized DatabaseLoader getInstance() {
+        if (instance == null) {
+            instance = new DatabaseLoader();
+        }
+        return instance;
+    }
+
+    /**
+     * Loads the database in the background, unless a load is already in progress, in which case
+     * the caller joins the pending one. The given {@link Listener} is notified once the load is
+     * done, no matter how often it was registered in the meantime. A loaded database only gets
+     * the current day's {@link QuoteSchedule} prepared, if it's missing, e.g. when the day changed
+     * while the ticks were suspended. If the database is already loaded and the day is planned,
+     * nothing happens and the listener is not called. If the loader queue is full, the
+     * load is dropped along with its listeners, and the returned {@link Future} is cancelled.
+     *
+     * @param context Calling context
+     * @param listener Callback listener, may be {@code null}
+     * @return {@link Future} of the shared load
+     */
+    public synchronized Future<?> load(Context context, Listener listener) {
+        final Context appContext = context.getApplicationContext();
+        final QuoteRepository repository = QuoteRepository.getInstance(appContext);
+
+        final int today = QuoteSchedule.getDay(System.currentTimeMillis());
+        if (!flight.isPending() && repository.isLoaded() && repository.hasSchedule(today)) {
+            FutureTask<Void> done = new FutureTask<>(new Runnable() {
+                @Override
+                public void run() {
+                    // already loaded, nothing to do
+                }
+            }, null);
+            done.run();
+            return done;
+        }
+
+        if (flight.isPending()) {
+            Log.d(TAG, "joining pending load");
+        }
+
+        Future<?> load = flight.start(listener, new SingleFlight.Work<Listener>() {
+            @Override
+            public boolean run() {
+                long start = SystemClock.elapsedRealtime();
+                if (!repository.isLoaded() && !open(appContext, repository)) {
+                    return false;
+                }
+                // plan the day, unless it was already stored by a previous process
+                if (repository.prepareSchedule(today) == null) {
+                    return false;
+                }
+                Log.i(TAG, "Database loaded in " + (SystemClock.elapsedRealtime() - start) + "ms");
+                return true;
+            }
+
+            @Override
+            public void onFinished(List<Listener> listeners, boolean success) {
+                onLoadFinished(appContext, listeners, success);
+            }
+        });
+
+        if (load.isCancelled()) {
+            // the executor is saturated, the listeners were dropped and the next request retries
+            Log.w(TAG, "loader queue full, database load rejected");
+        }
+        return load;
+    }
+
+    /**
+     * Opens the quote data and hands it to the {@link QuoteRepository}. Runs on the loader
+     * thread.
+     *
+     * @param appContext Application context
+     * @param repository Quote repository to set the source of
+     * @return {@code true} if the quote data was opened
+     */
+    private static boolean open(Context appContext, QuoteRepository repository) {
+        long start = SystemClock.elapsedRealtime();
+        ShardedQuoteSource sharded = openCorpus(appContext, repository.getCorpus());
+        QuotePack pack = sharded == null ? openPack(appContext) : null;
+        if (sharded != null) {
+            repository.setSource(sharded);
+        } else if (pack != null) {
+            repository.setSource(new PackQuoteSource<>(pack, Quote.PACK_FACTORY));
+        } else {
+            return false;
+        }
+        if (appContext.deleteDatabase(LEGACY_DB_NAME)) {
+            Log.i(TAG, "Deleted quote database left by a previous version");
+        }
+        TickMetrics.getInstance().record(TickMetrics.DB_OPEN,
+                (SystemClock.elapsedRealtime() - start) * 1000);
+        return true;
+    }
+
+    /**
+     * Opens the given sharded corpus, if one is selected and it's available, along with the
+     * shard of the current hour.
+     *
+     * @param context Calling context
+     * @param corpus Selected corpus name, {@code null} for the built-in one
+     * @return Sharded quote source, or {@code null} to use the built-in quote collection
+     */
+    private static ShardedQuoteSource openCorpus(Context context, String corpus) {
+        if (corpus == null) {
+            return null;
+        }
+
+        ShardedQuoteSource sharded;
+        try {
+            sharded = ShardedQuoteSource.open(context, corpus);
+        } catch (IOException e) {
+            Log.w(TAG, "Corpus " + corpus + " not available, using built-in quotes", e);
+            return null;
+        }
+
+        // the first lookup happens on the main thread, so its shard must be open already
+        if (!sharded.openShard(QuoteSchedule.getMinuteOfDay(System.currentTimeMillis()))) {
+            Log.w(TAG, "Corpus " + corpus + " shard not available, using built-in quotes");
+            sharded.close();
+            return null;
+        }
+        return sharded;
+    }
+
+    /**
+     * Maps the {@link QuotePack} from the app's assets, if it's available. The asset is stored
+     * uncompressed, so the mapping points directly into the APK file, without copying it anywhere
+     * first.
+     *
+     * @param context Calling context
+     * @return Mapped quote pack, or {@code null} if it can't be read
+     */
+    private static QuotePack openPack(Context context) {
+        try (AssetFileDescriptor descriptor = context.getAssets().openFd(QuotePack.PACK_NAME);
+             FileInputStream input = descriptor.createInputStream()) {
+            QuotePack pack = new QuotePack(input.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength()));
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "mapped " + descriptor.getLength() + " bytes");
+            }
+            return pack;
+        } catch (IOException e) {
+            Log.e(TAG, "Quote pack not available", e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the executor the database is loaded on, to run other background work related to the
+     * quote data serialized with the database load.
+     *
+     * @return Loader executor
+     */
+    ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Called from the loader thread when the load is done, after the pending load was cleared so
+     * a later call can start a new one. Dispatches each waiting listener once on the main thread.
+     * If the load failed, the listeners are dropped without being called.
+     *
+     * @param context Application context
+     * @param listeners Listeners that waited for the load
+     * @param loaded {@code true} if the database was loaded successfully
+     */
+    private void onLoadFinished(final Context context, List<Listener> listeners, boolean loaded) {
+        final Listener[] waiting = listeners.toArray(new Listener[listeners.size()]);
+
+        if (!loaded) {
+            Log.e(TAG, "loading database failed");
+            return;
+        }
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "load finished, notifying " + waiting.length + " listeners");
+                }
+                for (Listener listener : waiting) {
+                    listener.onDatabaseLoaded(context);
+                }
+            }
+        });
+    }
+}
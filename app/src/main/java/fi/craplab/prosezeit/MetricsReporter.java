@@ -0,0 +1,175 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.RejectedExecutionException;
+
+import fi.craplab.prosezeit.core.metrics.TickMetrics;
+
+/**
+ * Writes the process' {@link TickMetrics} to files, off the main thread.
+ * <p>
+ * The recorded samples are appended to a small log file in the app's files directory every few
+ * hundred samples, and on request, a JSON report of all counters and timers is written next to
+ * it, in the app's external files directory if available, so it can be pulled without root.
+ * Both run on the {@link DatabaseLoader}'s executor.
+ */
+public class MetricsReporter {
+    private static final String TAG = MetricsReporter.class.getSimpleName();
+
+    private static final String LOG_FILE = "metrics.log";
+    private static final String REPORT_FILE = "metrics.json";
+    /** Size at which the log file is moved aside for a new one */
+    private static final long MAX_LOG_BYTES = 64 * 1024;
+
+    private static MetricsReporter instance;
+
+    private final Context context;
+    private final TickMetrics metrics = TickMetrics.getInstance();
+    /** Whether the flush task is queued already */
+    private boolean flushPending;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (MetricsReporter.this) {
+                flushPending = false;
+            }
+            flush();
+        }
+    };
+
+    /**
+     * Creates the {@code MetricsReporter} instance with the given {@link Context}.
+     *
+     * @param context Calling context
+     */
+    private MetricsReporter(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Retrieve the {@code MetricsReporter} singleton instance. If no instance exists yet, it will
+     * be created first.
+     *
+     * @param context Calling context
+     * @return {@code MetricsReporter} instance
+     */
+    public static synchronized MetricsReporter getInstance(Context context) {
+        if (instance == null) {
+            instance = new MetricsReporter(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Flushes the recorded samples to the log file in the background, if enough of them were
+     * recorded since the last flush. Cheap enough to be called on every tick.
+     */
+    public void flushIfDue() {
+        if (!metrics.isFlushDue()) {
+            return;
+        }
+
+        synchronized (this) {
+            if (flushPending) {
+                return;
+            }
+            flushPending = true;
+        }
+        execute(flushTask);
+    }
+
+    /**
+     * Flushes the recorded samples and writes the metrics report in the background.
+     */
+    public void dump() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                writeReport();
+            }
+        });
+    }
+
+    /**
+     * Runs the given task on the {@link DatabaseLoader}'s executor.
+     *
+     * @param task Task to run
+     */
+    private void execute(Runnable task) {
+        try {
+            DatabaseLoader.getInstance().getExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                flushPending = false;
+            }
+            Log.w(TAG, "Skipping metrics, executor busy");
+        }
+    }
+
+    /**
+     * Appends the samples recorded since the last flush to the log file.
+     */
+    private void flush() {
+        try {
+            int count = metrics.flush(new File(context.getFilesDir(), LOG_FILE), MAX_LOG_BYTES);
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "flushed " + count + " samples");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Flushing metrics failed", e);
+        }
+    }
+
+    /**
+     * Writes the metrics report to the report file, and to the log.
+     */
+    private void writeReport() {
+        File dir = context.getExternalFilesDir(null);
+        File file = new File(dir != null ? dir : context.getFilesDir(), REPORT_FILE);
+
+        try {
+            StringWriter report = new StringWriter();
+            metrics.writeReport(report);
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                    Charset.forName("UTF-8"))) {
+                out.write(report.toString());
+            }
+            Log.i(TAG, "Metrics written to " + file + "\n" + report);
+        } catch (IOException e) {
+            Log.w(TAG, "Writing metrics report failed", e);
+        }
+    }
+}
@@ -23,73 +23,140 @@
  */
 package fi.craplab.prosezeit;
 
-import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.support.v4.content.ContextCompat;
-import android.text.Html;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
-import android.view.View;
 import android.widget.RemoteViews;
 
-import java.util.Calendar;
+import java.util.Arrays;
+
+import fi.craplab.prosezeit.core.Clock;
+import fi.craplab.prosezeit.core.MinuteTicker;
+import fi.craplab.prosezeit.core.QuoteIndex;
+import fi.craplab.prosezeit.core.QuoteSchedule;
+import fi.craplab.prosezeit.core.metrics.TickMetrics;
 
 /**
  * ProseZeit Widget itself.
  * Does all the widgety things.
  */
-public class ProseZeitWidget extends AppWidgetProvider implements DatabaseLoaderTask.Listener {
+public class ProseZeitWidget extends AppWidgetProvider {
     private static final String TAG = ProseZeitWidget.class.getSimpleName();
 
     private static final String ALARM_ACTION = "alaaaAaAAaarm";
     private static final String CLICK_ACTION = "clickediclick";
-    private SQLiteDatabase database;
-    private AlarmManager alarmManager;
-    private PendingIntent alarmIntent;
-    private Quote lastShownQuote;
+    /**
+     * Writes the {@link TickMetrics} report, handled in debug builds only. Send it explicitly to
+     * the widget, e.g. {@code adb shell am broadcast -a fi.craplab.prosezeit.DUMP_METRICS
+     * -n fi.craplab.prosezeit/.ProseZeitWidget}
+     */
+    private static final String DUMP_METRICS_ACTION = "fi.craplab.prosezeit.DUMP_METRICS";
+    /**
+     * Selects the corpus given in {@link #EXTRA_CORPUS}, or the built-in one without it, handled
+     * in debug builds only until there's a settings screen for it. Sent like
+     * {@link #DUMP_METRICS_ACTION}.
+     */
+    private static final String SELECT_CORPUS_ACTION = "fi.craplab.prosezeit.SELECT_CORPUS";
+    private static final String EXTRA_CORPUS = "corpus";
+    /**
+     * Switches the {@link BitmapRenderer} mode on or off as given in {@link #EXTRA_ENABLED}, handled
+     * in debug builds only until there's a settings screen for it. Sent like
+     * {@link #DUMP_METRICS_ACTION}.
+     */
+    private static final String SET_BITMAP_RENDERING_ACTION = "fi.craplab.prosezeit.SET_BITMAP_RENDERING";
+    private static final String EXTRA_ENABLED = "enabled";
+
+    /**
+     * Shared {@link DatabaseLoader} callback. Widget instances are created per broadcast, so a
+     * single static listener makes sure the loader calls back only once per load, no matter how
+     * many broadcasts requested it.
+     */
+    private static final DatabaseLoader.Listener LOADER_LISTENER = new DatabaseLoader.Listener() {
+        @Override
+        public void onDatabaseLoaded(Context context) {
+            setFirstQuote(context);
+            getTicker(context).start();
+        }
+    };
+
+    /** Minute tick scheduling, kept for the lifetime of the process */
+    private static MinuteTicker ticker;
+    /**
+     * {@link SystemClock#elapsedRealtime()} of the widget update that had no quote to show yet,
+     * e.g. when the first widget was added, {@code 0} if there's none waiting for its first quote
+     */
+    private static long firstQuoteRequested;
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         super.onUpdate(context, appWidgetManager, appWidgetIds);
 
-        Log.d(TAG, "onUpdated, context " + context  +" db is " + database);
+        QuoteRepository repository = QuoteRepository.getInstance(context);
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "onUpdated, context " + context  +" db loaded " + repository.isLoaded());
+        }
 
-        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.prose_zeit_widget);
+        // whatever these widgets showed before, they get a full update next
+        WidgetRenderer.getInstance().forget(appWidgetIds);
 
-        Intent intent = new Intent(context, ProseZeitWidget.class);
-        intent.setAction(CLICK_ACTION);
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(context,0, intent, 0);
-        views.setOnClickPendingIntent(R.id.widget_layout, pendingIntent);
+        Quote lastShownQuote = repository.getLastShownQuote();
+        if (lastShownQuote != null) {
+            setQuoteView(context, lastShownQuote,
+                    QuoteSchedule.getMinuteOfDay(System.currentTimeMillis()));
+        } else {
+            RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.prose_zeit_widget);
+            views.setOnClickPendingIntent(R.id.widget_layout, getClickIntent(context));
+            appWidgetManager.updateAppWidget(appWidgetIds, views);
+        }
 
-        for (int appWidgetId : appWidgetIds) {
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+        if (!repository.isLoaded()) {
+            if (lastShownQuote == null && firstQuoteRequested == 0) {
+                firstQuoteRequested = SystemClock.elapsedRealtime();
+            }
+            DatabaseLoader.getInstance().load(context, LOADER_LISTENER);
         }
+    }
 
-        if (database == null) {
-            new DatabaseLoaderTask(this).execute(context);
+    @Override
+    public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager,
+                                          int appWidgetId, Bundle newOptions) {
+        super.onAppWidgetOptionsChanged(context, appWidgetManager, appWidgetId, newOptions);
+
+        // the widget got resized, fit the quote to its new size
+        WidgetRenderer.getInstance().forget(new int[] {appWidgetId});
+        Quote lastShownQuote = QuoteRepository.getInstance(context).getLastShownQuote();
+        if (lastShownQuote != null) {
+            setQuoteView(context, lastShownQuote,
+                    QuoteSchedule.getMinuteOfDay(System.currentTimeMillis()));
         }
     }
 
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        WidgetRenderer.getInstance().forget(appWidgetIds);
+        super.onDeleted(context, appWidgetIds);
+    }
+
     @Override
     public void onEnabled(Context context) {
         Log.d(TAG, "onEnabled");
-        DatabaseHelper.createDatabaseFromAsset(context);
+        // the database is installed from the assets off the main thread by the DatabaseLoader
         super.onEnabled(context);
     }
 
     @Override
     public void onDisabled(Context context) {
         Log.d(TAG, "onDisabled");
-        DatabaseHelper.getInstance(context).close();
-        if (alarmManager != null && alarmIntent != null) {
-            alarmManager.cancel(alarmIntent);
-        }
+        QuoteRepository.getInstance(context).close();
+        getTicker(context).stop();
         super.onDisabled(context);
     }
 
@@ -101,196 +168,304 @@ public class ProseZeitWidget extends AppWidgetProvider implements DatabaseLoader
         if (action != null) {
             switch (action) {
                 case ALARM_ACTION:
-                    setQuote(context);
+                    long boundary = intent.getLongExtra(AlarmTickScheduler.EXTRA_BOUNDARY, 0);
+                    recordLateness(boundary);
+                    if (isInteractive(context)) {
+                        setQuote(context, getTicker(context).onTick(boundary));
+                    } else {
+                        // nobody sees the widget, wait for the screen to turn on instead
+                        getTicker(context).suspend();
+                    }
+                    MetricsReporter.getInstance(context).flushIfDue();
+                    break;
+                case Intent.ACTION_SCREEN_OFF:
+                    // the screen receiver outlives the last widget, which stopped the ticks
+                    if (hasWidgets(context)) {
+                        getTicker(context).suspend();
+                    }
+                    break;
+                case Intent.ACTION_SCREEN_ON:
+                case Intent.ACTION_USER_PRESENT:
+                    MinuteTicker minuteTicker = getTicker(context);
+                    if (minuteTicker.isSuspended()) {
+                        // catch up on the current minute, and tick every minute again
+                        setQuote(context, minuteTicker.resume());
+                    }
+                    break;
+                case Intent.ACTION_TIMEZONE_CHANGED:
+                    QuoteSchedule.updateTimeZone();
+                    restartTicks(context);
+                    break;
+                case Intent.ACTION_TIME_CHANGED:
+                    restartTicks(context);
                     break;
                 case CLICK_ACTION:
                     setQuoteClicked(context);
                     break;
+                case SELECT_CORPUS_ACTION:
+                    if (BuildConfig.DEBUG) {
+                        selectCorpus(context, intent.getStringExtra(EXTRA_CORPUS));
+                    }
+                    break;
+                case SET_BITMAP_RENDERING_ACTION:
+                    if (BuildConfig.DEBUG) {
+                        setBitmapRendering(context, intent.getBooleanExtra(EXTRA_ENABLED, true));
+                    }
+                    break;
+                case DUMP_METRICS_ACTION:
+                    if (BuildConfig.DEBUG) {
+                        MetricsReporter.getInstance(context).dump();
+                    }
+                    break;
             }
         }
     }
 
     /**
-     * Displays the given {@link Quote}. If the given {@code lastUpdate} is not the current minute
-     * of the day, the quote is displayed a bit lighter to indicate that the displayed time is not
-     * the actual current one. If the {@code lastUpdate} is the current time, the new quote is
-     * displayed and the quote's origin is hidden.
+     * Re-arms the minute ticks for the new time after the system time or time zone changed, as
+     * the minute boundaries moved, and shows the quote of the new time. Does nothing without any
+     * widgets, as the time change broadcasts are received through the manifest even after
+     * {@link #onDisabled(Context)} stopped the ticks.
      *
      * @param context Calling context
-     * @param quote The quote data
-     * @param lastUpdate Minute of the day the last quote was displayed, If this is older than the
-     *                   current minute of the day, it means there was no quote for the current
-     *                   time, and the previous quote is to be re-used
      */
-    private static void setQuoteView(Context context, Quote quote, int lastUpdate) {
-        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.prose_zeit_widget);
+    private static void restartTicks(Context context) {
+        if (hasWidgets(context)) {
+            setQuote(context, getTicker(context).start());
+        }
+    }
+
+    /**
+     * Switches to the given corpus, and loads its quotes if it's a different one than before.
+     *
+     * @param context Calling context
+     * @param corpus Sharded corpus name, {@code null} for the built-in quote collection
+     */
+    private static void selectCorpus(Context context, String corpus) {
+        if (corpus != null && !Arrays.asList(ShardedQuoteSource.getCorpora(context)).contains(corpus)) {
+            Log.w(TAG, "No such corpus: " + corpus);
+            return;
+        }
+
+        if (QuoteRepository.getInstance(context).selectCorpus(corpus)) {
+            DatabaseLoader.getInstance().load(context, LOADER_LISTENER);
+        }
+    }
+
+    /**
+     * Switches the bitmap render mode on or off, and renders all widgets again in the new mode.
+     *
+     * @param context Calling context
+     * @param enabled {@code true} to render the widgets as bitmaps
+     */
+    private static void setBitmapRendering(Context context, boolean enabled) {
+        BitmapRenderer.getInstance(context).setEnabled(enabled);
+        WidgetRenderer.getInstance().forgetAll();
+        setQuote(context, System.currentTimeMillis());
+    }
+
+    /**
+     * Check whether the device is interactive, i.e. the screen is on and the widget can be seen.
+     *
+     * @param context Calling context
+     * @return {@code true} if the device is interactive, or its state is unknown
+     */
+    private static boolean isInteractive(Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        return powerManager == null || powerManager.isInteractive();
+    }
 
-        views.setTextViewText(R.id.quote_text, Html.fromHtml(quote.text));
-        views.setTextViewText(R.id.quote_origin, Html.fromHtml(quote.getOrigin(context)));
+    /**
+     * Records how late the minute tick armed for the given boundary fired, or counts it as early
+     * tick if it fired before.
+     *
+     * @param boundary Minute boundary the tick was armed for, {@code 0} if unknown
+     */
+    private static void recordLateness(long boundary) {
+        if (boundary <= 0) {
+            return;
+        }
 
-        if (lastUpdate < getMinuteOfDay()) {
-            views.setTextColor(R.id.quote_text, ContextCompat.getColor(context, R.color.oldQuote));
+        long lateness = System.currentTimeMillis() - boundary;
+        if (lateness < 0) {
+            TickMetrics.getInstance().increment(TickMetrics.EARLY_ALARMS);
         } else {
-            views.setViewVisibility(R.id.quote_origin, View.INVISIBLE);
-            views.setTextColor(R.id.quote_text, ContextCompat.getColor(context, R.color.freshQuote));
+            TickMetrics.getInstance().record(TickMetrics.ALARM_LATENESS, lateness * 1000);
         }
+    }
 
-        updateViews(context, views);
+    /**
+     * Displays the given {@link Quote}. If the quote's minute is not the given minute of the day,
+     * the quote is displayed a bit lighter to indicate that the displayed time is not the actual
+     * current one. If the quote is for the given minute, the new quote is displayed and the
+     * quote's origin is hidden.
+     *
+     * @param context Calling context
+     * @param quote The quote data
+     * @param minuteOfDay Minute of the day the quote is displayed for. If this differs from the
+     *                    quote's minute, it means there was no quote for the current time, and
+     *                    one from the nearest earlier minute is shown instead
+     */
+    private static void setQuoteView(Context context, Quote quote, int minuteOfDay) {
+        QuoteTextCache.Entry texts = QuoteRepository.getInstance(context).getQuoteText(quote);
+        WidgetRenderer.getInstance().render(context, quote, texts, quote.minute == minuteOfDay);
     }
 
     /**
      * Update the view when the widget was clicked. Clicking the widget will reveal the quote's
-     * origin by displaying the book name and its author.
+     * origin by displaying the book name and its author. Only the origin's visibility is sent
+     * to the launcher, the rest of the widget stays as it is.
      *
      * @param context Calling context
      */
     private static void setQuoteClicked(Context context) {
-        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.prose_zeit_widget);
-        views.setViewVisibility(R.id.quote_origin, View.VISIBLE);
-
-        updateViews(context, views);
+        WidgetRenderer.getInstance().revealOrigin(context);
     }
 
     /**
-     * Update all the views with whatever new content and behavior was added to it.
+     * Get the {@link PendingIntent} sending the {@link #CLICK_ACTION} broadcast when the widget
+     * is clicked.
      *
      * @param context Calling context
-     * @param views The views to update
+     * @return Click broadcast intent
      */
-    public static void updateViews(Context context, RemoteViews views) {
-        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
-        ComponentName componentName = new ComponentName(context.getPackageName(), ProseZeitWidget.class.getName());
-        int[] widgetIds = appWidgetManager.getAppWidgetIds(componentName);
-
-        for (int appWidgetId : widgetIds) {
-            appWidgetManager.updateAppWidget(appWidgetId, views);
-        }
+    static PendingIntent getClickIntent(Context context) {
+        Intent intent = new Intent(context, ProseZeitWidget.class);
+        intent.setAction(CLICK_ACTION);
+        return PendingIntent.getBroadcast(context, 0, intent, 0);
     }
 
     /**
      * Get and display the first quote after the widget was opened / the database was loaded.
-     * If now quote was found for the current time (happens, there are a few gaps in the data set),
-     * the last time available is looked up instead.
+     * The quote is taken from the day's {@link QuoteSchedule}, which already covers the gaps in
+     * the data set with the quote of the nearest earlier time available. If a widget was waiting
+     * for its first quote, the time since its update is recorded as
+     * {@link TickMetrics#FIRST_QUOTE}.
      *
      * @param context Calling context
      */
-    private void setFirstQuote(Context context) {
-        Quote firstQuote;
-        int minuteOfDay = getMinuteOfDay();
-        int retries = 20;
-
-        do {
-            firstQuote = getQuote(context, minuteOfDay--);
-        } while (firstQuote == null && retries-- > 0);
-
-        if (firstQuote != null) {
-            lastShownQuote = firstQuote;
-            setQuoteView(context, firstQuote, firstQuote.minute);
-        } else {
-            Log.e(TAG, "Couldn't find a quote to show");
+    private static void setFirstQuote(Context context) {
+        showScheduledQuote(context, QuoteRepository.getInstance(context), System.currentTimeMillis());
+
+        if (firstQuoteRequested != 0) {
+            long latency = SystemClock.elapsedRealtime() - firstQuoteRequested;
+            firstQuoteRequested = 0;
+            TickMetrics.getInstance().record(TickMetrics.FIRST_QUOTE, latency * 1000);
+            Log.i(TAG, "First quote shown " + latency + "ms after the widget update");
         }
     }
 
     /**
-     * Get and display the current time's quote.
-     * If on quote was found, the last found quote is used instead. If no last found quote exists,
-     * the {@link DatabaseLoaderTask} is executed to make sure we have access to the data in the
-     * first place (Widget life cycle and all..). Once loaded, the {@link DatabaseLoaderTask}'s
-     * callbacks are taking care to display a quote by calling {@link #setFirstQuote(Context)}.
+     * Get and display the quote for the given time.
+     * If the database isn't loaded (i.e. the process was restarted), the last shown quote's
+     * snapshot is displayed right away, and the {@link DatabaseLoader} is started to get access
+     * to the data in the first place (Widget life cycle and all..). Once loaded, the
+     * {@link #LOADER_LISTENER} callback is taking care to display a quote by calling
+     * {@link #setFirstQuote(Context)}.
      *
      * @param context Calling context
+     * @param time Time to display the quote for
      */
-    private void setQuote(Context context) {
-        int minuteOfDay = getMinuteOfDay();
-        Quote quote = getQuote(context, minuteOfDay);
+    private static void setQuote(Context context, long time) {
+        QuoteRepository repository = QuoteRepository.getInstance(context);
 
-        if (quote != null) {
-            lastShownQuote = quote;
-            setQuoteView(context, quote, minuteOfDay);
-        } else {
-            Log.d(TAG, "No quote for minute " + minuteOfDay);
+        if (!repository.isLoaded()) {
+            Quote lastShownQuote = repository.getLastShownQuote();
             if (lastShownQuote != null) {
-                setQuoteView(context, lastShownQuote, lastShownQuote.minute);
-            } else {
-                new DatabaseLoaderTask(this).execute(context);
+                setQuoteView(context, lastShownQuote, QuoteSchedule.getMinuteOfDay(time));
             }
+            DatabaseLoader.getInstance().load(context, LOADER_LISTENER);
+            return;
         }
-    }
 
-    /**
-     * Get the current minute of the day.
-     *
-     * @return Current time's minute of the day
-     */
-    private static int getMinuteOfDay() {
-        return Calendar.getInstance().get(Calendar.HOUR_OF_DAY) * 60
-                + Calendar.getInstance().get(Calendar.MINUTE);
+        showScheduledQuote(context, repository, time);
     }
 
     /**
-     * Get a quote representing the given minute of the day from the database, if one exists.
-     * If multiple quotes exists for the same time, a random one is returned. If none exists,
-     * {@code null} is returned. If the {@link #database} object is {@code null}, the
-     * {@link DatabaseLoaderTask} is executed and {@code null} is returned here.
+     * Look up the given time's minute in its day's {@link QuoteSchedule} and display its quote. The
+     * next day's schedule is planned ahead in the background, so a day change is only a lookup
+     * as well. If the day's schedule isn't prepared, e.g. because the ticks were suspended over
+     * midnight, the {@link DatabaseLoader} plans it, and the {@link #LOADER_LISTENER} callback
+     * shows the quote once it's done. If the scheduled quote
+     * is the one already shown, e.g. during a gap in the data set, it's re-used without fetching
+     * it from the database again. Afterwards, the texts of the next scheduled quotes are
+     * prefetched in the background.
      *
      * @param context Calling context
-     * @param minuteOfDay Minute of the day to look a quote for
-     * @return {@link Quote} object filled with the retrieved database entry if a quote matching
-     *         the given minute of the day was found, {@code null} otherwise.
+     * @param repository Loaded quote repository
+     * @param time Time to display the quote for
      */
-    private Quote getQuote(Context context, int minuteOfDay) {
-        if (database == null) {
-            new DatabaseLoaderTask(this).execute(context);
-            return null;
+    private static void showScheduledQuote(Context context, QuoteRepository repository, long time) {
+        long start = System.nanoTime();
+        int day = QuoteSchedule.getDay(time);
+        int minuteOfDay = QuoteSchedule.getMinuteOfDay(time);
+        QuoteSchedule schedule = repository.getSchedule(day);
+        if (schedule == null) {
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "schedule for day " + day + " not prepared yet");
+            }
+            DatabaseLoader.getInstance().load(context, LOADER_LISTENER);
+            return;
         }
 
-        Cursor cursor = database.rawQuery(
-                "SELECT * FROM quotes WHERE minute = ? ORDER BY RANDOM() LIMIT 1",
-                new String[]{String.valueOf(minuteOfDay)});
-        Quote quote = null;
+        long quoteId = schedule.getQuoteId(minuteOfDay);
 
-        if (cursor.moveToNext()) {
-            quote = new Quote(cursor);
-            Log.d(TAG, "got quote " + quote);
+        if (quoteId == QuoteIndex.NO_QUOTE) {
+            Log.e(TAG, "Couldn't find a quote to show");
+            return;
         }
-        cursor.close();
-        return quote;
-    }
 
+        Quote quote = repository.getLastShownQuote();
+        if (quote == null || quote.id != quoteId) {
+            quote = repository.getQuote(quoteId);
+        }
 
-    @Override
-    public void setDatabase(SQLiteDatabase database) {
-        this.database = database;
+        TickMetrics metrics = TickMetrics.getInstance();
+        metrics.record(TickMetrics.LOOKUP, (System.nanoTime() - start) / 1000);
+        if (quote != null) {
+            if (quote.minute != minuteOfDay) {
+                metrics.increment(TickMetrics.GAP_FALLBACKS);
+            }
+            repository.setLastShownQuote(quote);
+            setQuoteView(context, quote, minuteOfDay);
+        }
+
+        repository.prefetch(day, minuteOfDay);
     }
 
-    @Override
-    public void onDatabaseLoaded(Context context) {
-        setFirstQuote(context);
-        setupTimer(context);
+    /**
+     * Check whether any widget is placed on the home screen.
+     *
+     * @param context Calling context
+     * @return {@code true} if there is at least one widget
+     */
+    private static boolean hasWidgets(Context context) {
+        int[] ids = AppWidgetManager.getInstance(context)
+                .getAppWidgetIds(new ComponentName(context, ProseZeitWidget.class));
+        return ids != null && ids.length > 0;
     }
 
     /**
-     * Set up the {@link AlarmManager} timer to send a {@link #ALARM_ACTION} broadcast every minute.
+     * Get the {@link MinuteTicker} that arms exact {@link #ALARM_ACTION} broadcasts for every
+     * minute boundary. If none exists yet in this process, it is created first, along with a
+     * receiver for the screen state broadcasts, which can't be received through the manifest.
+     * The ticks are suspended while the screen is off, and resumed with a catch-up render once
+     * it's turned on again.
      *
      * @param context Calling context
+     * @return {@code MinuteTicker} instance
      */
-    private void setupTimer(Context context) {
-        if (alarmIntent != null) {
-            // already got an alarm, never mind
-            return;
+    private static synchronized MinuteTicker getTicker(Context context) {
+        if (ticker == null) {
+            Intent intent = new Intent(context, ProseZeitWidget.class);
+            intent.setAction(ALARM_ACTION);
+            ticker = new MinuteTicker(Clock.SYSTEM, new AlarmTickScheduler(context, intent));
+
+            IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
+            filter.addAction(Intent.ACTION_SCREEN_ON);
+            filter.addAction(Intent.ACTION_USER_PRESENT);
+            context.getApplicationContext().registerReceiver(new ProseZeitWidget(), filter);
         }
-
-        alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        Intent intent = new Intent(context, ProseZeitWidget.class);
-        intent.setAction(ALARM_ACTION);
-        alarmIntent = PendingIntent.getBroadcast(context, 0, intent, 0);
-
-        // set up calendar to the next minute
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTimeInMillis(System.currentTimeMillis() + 60000);
-        calendar.set(Calendar.SECOND, 0);
-        Log.d(TAG, "setting alarm to " + calendar);
-
-        alarmManager.setRepeating(AlarmManager.RTC, calendar.getTimeInMillis(), 60000, alarmIntent);
+        return ticker;
     }
 }
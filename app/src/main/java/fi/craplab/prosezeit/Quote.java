@@ -27,8 +27,12 @@ import android.content.Context;
 import android.database.Cursor;
 import android.provider.BaseColumns;
 
+import fi.craplab.prosezeit.core.PackQuoteSource;
+import fi.craplab.prosezeit.core.QuotePack;
+
 /**
- * Quote model, stores the data retrieved from a quote entry in the SQLite database.
+ * Quote model, stores the data retrieved from a quote entry in the SQLite database or the
+ * {@link QuotePack}.
  */
 public class Quote {
     /** Database column name for minute of the day */
@@ -40,6 +44,23 @@ public class Quote {
     /** Database column name for the quote's book origin */
     private static final String COLUMN_BOOK = "book";
 
+    /**
+     * Columns to query for {@link #Quote(Cursor, boolean)}, in the order the constructor reads
+     * them by position
+     */
+    public static final String[] PROJECTION = {
+            BaseColumns._ID, COLUMN_MINUTE, COLUMN_TEXT, COLUMN_AUTHOR, COLUMN_BOOK
+    };
+
+    /** Creates quotes from {@link QuotePack} records */
+    public static final PackQuoteSource.QuoteFactory<Quote> PACK_FACTORY =
+            new PackQuoteSource.QuoteFactory<Quote>() {
+                @Override
+                public Quote createQuote(QuotePack pack, int record) {
+                    return new Quote(pack, record);
+                }
+            };
+
     /** Quote's primary key id */
     public final long id;
     /** Quote's minute of the day value */
@@ -57,11 +78,55 @@ public class Quote {
      * @param cursor Cursor object retrieved from the SQLite database
      */
     public Quote(Cursor cursor) {
-        id = cursor.getLong(cursor.getColumnIndexOrThrow(BaseColumns._ID));
-        minute = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MINUTE));
-        text = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TEXT));
-        author = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AUTHOR));
-        book = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_BOOK));
+        this(cursor, false);
+    }
+
+    /**
+     * Creates a new {@code Quote} from the given database {@link Cursor}, optionally skipping
+     * the column lookups by name, which search through all column names every time.
+     *
+     * @param cursor Cursor object retrieved from the SQLite database
+     * @param projected {@code true} if the cursor was queried with exactly the {@link #PROJECTION}
+     *                  columns, so they can be read by position
+     */
+    public Quote(Cursor cursor, boolean projected) {
+        id = cursor.getLong(projected ? 0 : cursor.getColumnIndexOrThrow(BaseColumns._ID));
+        minute = cursor.getInt(projected ? 1 : cursor.getColumnIndexOrThrow(COLUMN_MINUTE));
+        text = cursor.getString(projected ? 2 : cursor.getColumnIndexOrThrow(COLUMN_TEXT));
+        author = cursor.getString(projected ? 3 : cursor.getColumnIndexOrThrow(COLUMN_AUTHOR));
+        book = cursor.getString(projected ? 4 : cursor.getColumnIndexOrThrow(COLUMN_BOOK));
+    }
+
+    /**
+     * Creates a new {@code Quote} from the given {@link QuotePack} record. Only this quote's
+     * strings are decoded from the pack.
+     *
+     * @param pack Quote pack to read from
+     * @param record Record number of the quote within the pack
+     */
+    public Quote(QuotePack pack, int record) {
+        id = pack.getId(record);
+        minute = pack.getMinute(record);
+        text = pack.getText(record);
+        author = pack.getAuthor(record);
+        book = pack.getBook(record);
+    }
+
+    /**
+     * Creates a new {@code Quote} from the given values.
+     *
+     * @param id Quote's primary key id
+     * @param minute Quote's minute of the day value
+     * @param text Quote's text to display
+     * @param author Quote's author information
+     * @param book Quote's book origin
+     */
+    Quote(long id, int minute, String text, String author, String book) {
+        this.id = id;
+        this.minute = minute;
+        this.text = text;
+        this.author = author;
+        this.book = book;
     }
 
     /**
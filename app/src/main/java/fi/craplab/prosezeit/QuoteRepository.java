@@ -0,0 +1,739 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fi.craplab.prosezeit.core.QuoteChangeset;
+import fi.craplab.prosezeit.core.QuoteIndex;
+import fi.craplab.prosezeit.core.QuoteRotation;
+import fi.craplab.prosezeit.core.QuoteSchedule;
+import fi.craplab.prosezeit.core.QuoteSource;
+
+/**
+ * Process-wide access to the quote data.
+ * <p>
+ * {@link android.appwidget.AppWidgetProvider} instances are created fresh for every broadcast, so
+ * anything stored in the widget itself is gone by the time the next alarm arrives. The repository
+ * instead lives as long as the process does, and owns the {@link QuoteSource}, its decoded
+ * {@link QuoteIndex}, the current day's {@link QuoteSchedule}, the parsed quote texts and the
+ * last shown quote. The last shown quote is additionally persisted as
+ * a small warm-state snapshot, so after the process got killed, the widget can render again right
+ * away without waiting for the database.
+ * <p>
+ * Besides the built-in quote collection, the user may select one of the sharded corpora shipped
+ * with the app, see {@link ShardedQuoteSource}. Quote ids are only unique within a corpus, so
+ * each corpus has its own schedule and rotation files, and switching drops everything else.
+ */
+public class QuoteRepository {
+    private static final String TAG = QuoteRepository.class.getSimpleName();
+
+    private static final String PREFS_NAME = "quote_state";
+    private static final String PREF_QUOTE_ID = "last_quote_id";
+    private static final String PREF_QUOTE_MINUTE = "last_quote_minute";
+    private static final String PREF_QUOTE_TEXT = "last_quote_text";
+    private static final String PREF_QUOTE_AUTHOR = "last_quote_author";
+    private static final String PREF_QUOTE_BOOK = "last_quote_book";
+    private static final String PREF_CORPUS = "corpus";
+    private static final String PREF_CORPUS_VERSION = "corpus_version";
+    private static final String SCHEDULE_FILE = "quotes.schedule";
+    private static final String ROTATION_FILE = "quotes.rotation";
+    /** Asset directory of the quote changesets */
+    private static final String CHANGES_DIR = "changes";
+    private static final Pattern CHANGESET_NAME = Pattern.compile("quotes-(\\d+)-(\\d+)\\.changes");
+    /** Number of upcoming minutes to prefetch the quote texts for */
+    private static final int PREFETCH_MINUTES = 5;
+
+    private static QuoteRepository instance;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    /** Selected sharded corpus, {@code null} for the built-in one */
+    private String corpus;
+    private File scheduleFile;
+    private File rotationFile;
+    private final QuoteTextCache textCache = new QuoteTextCache();
+    private QuoteSource<Quote> source;
+    private QuoteIndex index;
+    private QuoteSchedule schedule;
+    /** Schedule planned ahead for the next day, and the rotation state it leaves behind */
+    private QuoteSchedule nextSchedule;
+    private QuoteRotation nextRotation;
+    /** Rotation state to store along with the current schedule, {@code null} if it's stored */
+    private QuoteRotation unsavedRotation;
+    private final Runnable saveScheduleTask = new Runnable() {
+        @Override
+        public void run() {
+            saveSchedule();
+        }
+    };
+    private Quote lastShownQuote;
+
+    /** Day and minute to prefetch after, and whether the prefetch task is queued already */
+    private int prefetchDay;
+    private int prefetchMinute;
+    private boolean prefetchPending;
+    private final Runnable prefetchTask = new Runnable() {
+        @Override
+        public void run() {
+            runPrefetch();
+        }
+    };
+
+    /**
+     * Creates the {@code QuoteRepository} instance with the given {@link Context}.
+     *
+     * @param context Calling context
+     */
+    private QuoteRepository(Context context) {
+        this.context = context;
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        setCorpusFiles(preferences.getString(PREF_CORPUS, null));
+    }
+
+    /**
+     * Sets the selected corpus and the schedule and rotation files that go with it.
+     *
+     * @param corpus Sharded corpus name, {@code null} for the built-in one
+     */
+    private void setCorpusFiles(String corpus) {
+        String prefix = corpus != null ? corpus + "-" : "";
+        this.corpus = corpus;
+        scheduleFile = context.getDatabasePath(prefix + SCHEDULE_FILE);
+        rotationFile = context.getDatabasePath(prefix + ROTATION_FILE);
+    }
+
+    /**
+     * Get the selected corpus to load the quotes from.
+     *
+     * @return Sharded corpus name, {@code null} for the built-in quote collection
+     */
+    public synchronized String getCorpus() {
+        return corpus;
+    }
+
+    /**
+     * Selects the corpus to load the quotes from. If it differs from the current one, the quote
+     * source is closed and everything derived from it is dropped, so the next load reads from
+     * the new corpus.
+     *
+     * @param corpus Sharded corpus name, {@code null} for the built-in quote collection
+     * @return {@code true} if the corpus changed and the quotes need to be loaded again
+     */
+    public synchronized boolean selectCorpus(String corpus) {
+        if (corpus == null ? this.corpus == null : corpus.equals(this.corpus)) {
+            return false;
+        }
+
+        close();
+        setCorpusFiles(corpus);
+        schedule = null;
+        nextSchedule = null;
+        nextRotation = null;
+        unsavedRotation = null;
+        lastShownQuote = null;
+        textCache.clear();
+        TextFitter.getInstance().clear();
+        BitmapRenderer.getInstance(context).clear();
+        preferences.edit()
+                .putString(PREF_CORPUS, corpus)
+                .remove(PREF_QUOTE_ID)
+                .apply();
+        Log.i(TAG, "Selected corpus " + (corpus != null ? corpus : "built-in"));
+        return true;
+    }
+
+    /**
+     * Retrieve the {@code QuoteRepository} singleton instance. If no instance exists yet, it will
+     * be created first.
+     *
+     * @param context Calling context
+     * @return {@code QuoteRepository} instance
+     */
+    public static synchronized QuoteRepository getInstance(Context context) {
+        if (instance == null) {
+            Log.d(TAG, "repository create new instance");
+            instance = new QuoteRepository(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Sets the {@link QuoteSource} to read quotes from, either the mapped quote pack or the
+     * database, and builds the {@link QuoteIndex} from it. Meant to be called from a background
+     * thread, as building the index may read through all quotes once, and catching up with a
+     * corpus update reads and writes the stored schedule.
+     *
+     * @param source Quote source
+     */
+    public void setSource(QuoteSource<Quote> source) {
+        QuoteIndex index = source.buildIndex();
+        boolean builtIn;
+        File scheduleFile;
+        File rotationFile;
+        synchronized (this) {
+            builtIn = corpus == null;
+            scheduleFile = this.scheduleFile;
+            rotationFile = this.rotationFile;
+        }
+
+        if (builtIn) {
+            applyCorpusUpdate(index, scheduleFile, rotationFile);
+        }
+
+        synchronized (this) {
+            this.source = source;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Catches up the stored schedule and rotation with the quotes changed by an app update that
+     * shipped a newer version of the built-in corpus. Only the minutes touched by the
+     * {@link QuoteChangeset}s since the stored version are reset in the rotation and planned
+     * again in the schedule, and the last shown quote is dropped if its minute is one of them.
+     * Without changesets to tell what changed, the whole day is planned again. The files are
+     * read and written without holding the lock, only the result is published under it.
+     *
+     * @param index Quote index of the current corpus version
+     * @param scheduleFile Stored schedule of the built-in corpus
+     * @param rotationFile Stored rotation state of the built-in corpus
+     */
+    private void applyCorpusUpdate(QuoteIndex index, File scheduleFile, File rotationFile) {
+        int version = preferences.getInt(PREF_CORPUS_VERSION, BuildConfig.CORPUS_VERSION);
+        if (version == BuildConfig.CORPUS_VERSION) {
+            if (!preferences.contains(PREF_CORPUS_VERSION)) {
+                preferences.edit().putInt(PREF_CORPUS_VERSION, version).apply();
+            }
+            return;
+        }
+
+        boolean[] changed = new boolean[QuoteIndex.MINUTES_PER_DAY];
+        List<QuoteChangeset> changesets = getChangesets(context, version,
+                BuildConfig.CORPUS_VERSION);
+        if (changesets != null) {
+            for (QuoteChangeset changeset : changesets) {
+                changeset.markChangedMinutes(changed);
+            }
+        } else {
+            Arrays.fill(changed, true);
+        }
+
+        QuoteRotation rotation = loadRotation(rotationFile);
+        if (rotation == null) {
+            rotation = QuoteRotation.create();
+        }
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            if (changed[minute]) {
+                rotation.reset(minute);
+            }
+        }
+
+        QuoteSchedule stored = loadSchedule(scheduleFile);
+        QuoteSchedule updated = null;
+        try {
+            if (stored != null) {
+                updated = stored.update(index, rotation, changed);
+                updated.save(scheduleFile);
+            }
+            rotation.save(rotationFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Writing updated schedule failed", e);
+        }
+
+        synchronized (this) {
+            // whatever was planned ahead is based on the previous corpus version
+            nextSchedule = null;
+            nextRotation = null;
+            unsavedRotation = null;
+            if (updated != null) {
+                schedule = updated;
+            }
+
+            Quote quote = getLastShownQuote();
+            if (quote != null && quote.minute >= 0 && changed[quote.minute]) {
+                lastShownQuote = null;
+                preferences.edit().remove(PREF_QUOTE_ID).apply();
+            }
+        }
+
+        preferences.edit().putInt(PREF_CORPUS_VERSION, BuildConfig.CORPUS_VERSION).apply();
+        Log.i(TAG, "Updated schedule from corpus version " + version + " to "
+                + BuildConfig.CORPUS_VERSION);
+    }
+
+    /**
+     * Reads the changesets leading from the given corpus version to the given later one from
+     * the assets, in the order they need to be applied.
+     *
+     * @param context Calling context
+     * @param fromVersion Corpus version to start from
+     * @param toVersion Corpus version to end up with
+     * @return Changesets to apply in sequence, or {@code null} if they don't lead all the way
+     *         from the one version to the other
+     */
+    private static List<QuoteChangeset> getChangesets(Context context, int fromVersion, int toVersion) {
+        Map<Integer, String> changesetsFrom = new HashMap<>();
+        try {
+            String[] names = context.getAssets().list(CHANGES_DIR);
+            for (String name : names != null ? names : new String[0]) {
+                Matcher matcher = CHANGESET_NAME.matcher(name);
+                if (matcher.matches()) {
+                    changesetsFrom.put(Integer.parseInt(matcher.group(1)), name);
+                }
+            }
+
+            List<QuoteChangeset> changesets = new ArrayList<>();
+            int version = fromVersion;
+            while (version < toVersion && changesetsFrom.containsKey(version)) {
+                try (InputStream input = context.getAssets().open(
+                        CHANGES_DIR + "/" + changesetsFrom.get(version))) {
+                    QuoteChangeset changeset = QuoteChangeset.read(input);
+                    changesets.add(changeset);
+                    version = changeset.toVersion;
+                }
+            }
+            return version == toVersion ? changesets : null;
+        } catch (IOException e) {
+            Log.w(TAG, "Reading changesets failed", e);
+            return null;
+        }
+    }
+
+    /**
+     * Closes the quote source and drops the index, e.g. when the last widget got removed.
+     */
+    public synchronized void close() {
+        if (source != null) {
+            source.close();
+        }
+        source = null;
+        index = null;
+    }
+
+    /**
+     * Check whether the quote data is loaded and quotes can be retrieved.
+     *
+     * @return {@code true} if the quote source and its index are available
+     */
+    public synchronized boolean isLoaded() {
+        return index != null;
+    }
+
+    /**
+     * Get the {@link QuoteIndex} of the loaded database.
+     *
+     * @return Quote index, or {@code null} if the database isn't loaded yet
+     */
+    public synchronized QuoteIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the {@link QuoteSchedule} for the given day, if it's prepared already. This is only a
+     * lookup and safe to call from the main thread: when the day changes, the schedule planned
+     * ahead by {@link #prepareSchedule(int)} takes over, and it's stored in the background.
+     *
+     * @param day Local days since epoch, see {@link QuoteSchedule#getDay(long)}
+     * @return Schedule for the given day, or {@code null} if it isn't prepared
+     */
+    public synchronized QuoteSchedule getSchedule(int day) {
+        if (schedule != null && schedule.day == day) {
+            return schedule;
+        }
+
+        if (nextSchedule == null || nextSchedule.day != day) {
+            return null;
+        }
+
+        schedule = nextSchedule;
+        nextSchedule = null;
+        if (nextRotation != null) {
+            unsavedRotation = nextRotation;
+            nextRotation = null;
+            try {
+                DatabaseLoader.getInstance().getExecutor().execute(saveScheduleTask);
+            } catch (RejectedExecutionException e) {
+                // stored with the next prefetch instead
+                Log.w(TAG, "Deferring schedule write, executor busy");
+            }
+        }
+        return schedule;
+    }
+
+    /**
+     * Checks if the {@link QuoteSchedule} for the given day is prepared, either as current
+     * schedule or planned ahead.
+     *
+     * @param day Local days since epoch, see {@link QuoteSchedule#getDay(long)}
+     * @return {@code true} if {@link #getSchedule(int)} will find the schedule
+     */
+    public synchronized boolean hasSchedule(int day) {
+        return (schedule != null && schedule.day == day)
+                || (nextSchedule != null && nextSchedule.day == day);
+    }
+
+    /**
+     * Prepares the {@link QuoteSchedule} for the given day. The stored schedule file is tried
+     * first, and if that one doesn't match the day, a new schedule is planned from the stored
+     * {@link QuoteRotation} state. This reads and writes files, so it's meant to run on the
+     * {@link DatabaseLoader}'s executor. The lock is only held to look up and publish the
+     * schedule, never while reading the files or planning, so the main thread's lookups don't
+     * wait for either.
+     * <p>
+     * If the current schedule is the one of the day before, the new one is planned ahead: it's
+     * kept aside until {@link #getSchedule(int)} asks for its day, and only stored then, so a
+     * process restart before midnight still finds the current day's schedule in the file.
+     * Otherwise, the new schedule replaces the current one and is stored right away.
+     *
+     * @param day Local days since epoch, see {@link QuoteSchedule#getDay(long)}
+     * @return Schedule for the given day, or {@code null} if the quotes aren't loaded yet
+     */
+    public QuoteSchedule prepareSchedule(int day) {
+        saveSchedule();
+
+        QuoteIndex index;
+        File scheduleFile;
+        File rotationFile;
+        synchronized (this) {
+            if (schedule != null && schedule.day == day) {
+                return schedule;
+            }
+            if (nextSchedule != null && nextSchedule.day == day) {
+                return nextSchedule;
+            }
+            index = this.index;
+            scheduleFile = this.scheduleFile;
+            rotationFile = this.rotationFile;
+        }
+
+        QuoteSchedule prepared = loadSchedule(scheduleFile);
+        QuoteRotation rotation = null;
+        if (prepared == null || prepared.day != day) {
+            if (index == null) {
+                return null;
+            }
+            rotation = loadRotation(rotationFile);
+            if (rotation == null) {
+                rotation = QuoteRotation.create();
+            }
+
+            prepared = QuoteSchedule.create(index, rotation, day);
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "created schedule for day " + day);
+            }
+        }
+
+        synchronized (this) {
+            if (index != this.index || scheduleFile != this.scheduleFile) {
+                // the corpus changed or got closed meanwhile, this schedule is for the old one
+                return null;
+            }
+
+            if (schedule != null && schedule.day == day - 1) {
+                nextSchedule = prepared;
+                nextRotation = rotation;
+                return prepared;
+            }
+
+            schedule = prepared;
+            unsavedRotation = rotation;
+        }
+
+        saveSchedule();
+        return prepared;
+    }
+
+    /**
+     * Stores the current {@link QuoteSchedule} along with the {@link QuoteRotation} state it
+     * was planned with, if it wasn't stored yet. Runs on the {@link DatabaseLoader}'s executor.
+     */
+    private void saveSchedule() {
+        QuoteSchedule saved;
+        QuoteRotation rotation;
+        File rotationFile;
+        File scheduleFile;
+        synchronized (this) {
+            if (unsavedRotation == null) {
+                return;
+            }
+            saved = schedule;
+            rotation = unsavedRotation;
+            rotationFile = this.rotationFile;
+            scheduleFile = this.scheduleFile;
+            unsavedRotation = null;
+        }
+
+        try {
+            rotation.save(rotationFile);
+            saved.save(scheduleFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Writing schedule failed", e);
+        }
+    }
+
+    /**
+     * Reads the stored {@link QuoteSchedule}.
+     *
+     * @param scheduleFile Schedule file of the selected corpus
+     * @return Stored schedule, or {@code null} if there is none or it's unreadable
+     */
+    private static QuoteSchedule loadSchedule(File scheduleFile) {
+        try {
+            return QuoteSchedule.load(scheduleFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable schedule", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the stored {@link QuoteRotation} state.
+     *
+     * @param rotationFile Rotation state file of the selected corpus
+     * @return Stored rotation, or {@code null} if there is none or it's unreadable
+     */
+    private static QuoteRotation loadRotation(File rotationFile) {
+        try {
+            return QuoteRotation.load(rotationFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable rotation", e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the quote with the given id from the {@link QuoteSource}.
+     *
+     * @param quoteId Quote's primary key id
+     * @return {@link Quote} object filled with the retrieved entry, or {@code null} if there is
+     *         no such quote or the quote data isn't loaded yet.
+     */
+    public synchronized Quote getQuote(long quoteId) {
+        return source != null ? source.getQuote(quoteId) : null;
+    }
+
+    /**
+     * Get the parsed texts of the given quote from the {@link QuoteTextCache}.
+     *
+     * @param quote Quote to get the texts for
+     * @return Parsed quote texts
+     */
+    public QuoteTextCache.Entry getQuoteText(Quote quote) {
+        return textCache.get(context, quote);
+    }
+
+    /**
+     * Get the {@link QuoteTextCache}, e.g. to check its hit and miss counts.
+     *
+     * @return Quote text cache
+     */
+    public QuoteTextCache getTextCache() {
+        return textCache;
+    }
+
+    /**
+     * Parses the texts of the quotes scheduled for the minutes following the given one in the
+     * background, and fits them to the widget sizes in use with the {@link TextFitter}, so
+     * they're ready in the {@link QuoteTextCache} when their time comes. In bitmap render mode,
+     * their frames are drawn by the {@link BitmapRenderer} as well. The
+     * prefetch runs on the {@link DatabaseLoader}'s executor and stops at the end of the day,
+     * where it plans the next day's schedule ahead instead. It's only started if one of the
+     * upcoming quotes isn't cached yet, or the next day isn't planned yet, and a single reused
+     * task is queued at most once, so most ticks get away without allocating anything here.
+     *
+     * @param day Local days since epoch of the given minute
+     * @param minuteOfDay Minute of the day to prefetch after
+     */
+    public void prefetch(int day, int minuteOfDay) {
+        synchronized (this) {
+            QuoteSchedule schedule = getSchedule(day);
+            if (schedule == null || (isPrefetched(schedule, minuteOfDay)
+                    && !needsNextSchedule(day, minuteOfDay))) {
+                return;
+            }
+
+            prefetchDay = day;
+            prefetchMinute = minuteOfDay;
+            if (prefetchPending) {
+                // the queued task picks up the new minute
+                return;
+            }
+            prefetchPending = true;
+        }
+
+        try {
+            DatabaseLoader.getInstance().getExecutor().execute(prefetchTask);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                prefetchPending = false;
+            }
+            Log.w(TAG, "Skipping prefetch, executor busy");
+        }
+    }
+
+    /**
+     * Check whether the texts of all quotes scheduled for the minutes following the given one are
+     * cached, fitted and drawn already.
+     *
+     * @param schedule Schedule of the given minute's day
+     * @param minuteOfDay Minute of the day to check after
+     * @return {@code true} if there is nothing to prefetch
+     */
+    private boolean isPrefetched(QuoteSchedule schedule, int minuteOfDay) {
+        int last = Math.min(minuteOfDay + PREFETCH_MINUTES, QuoteIndex.MINUTES_PER_DAY - 1);
+        for (int minute = minuteOfDay + 1; minute <= last; minute++) {
+            long quoteId = schedule.getQuoteId(minute);
+            if (quoteId != QuoteIndex.NO_QUOTE && !isPrefetched(quoteId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the next day's schedule should be planned ahead, which is the case once the
+     * prefetched minutes reach the end of the day and it isn't planned yet.
+     *
+     * @param day Local days since epoch of the given minute
+     * @param minuteOfDay Minute of the day to prefetch after
+     * @return {@code true} if the next day needs to be planned
+     */
+    private boolean needsNextSchedule(int day, int minuteOfDay) {
+        return minuteOfDay + PREFETCH_MINUTES >= QuoteIndex.MINUTES_PER_DAY - 1
+                && !hasSchedule(day + 1);
+    }
+
+    /**
+     * Check whether the texts of the quote with the given id are cached, fitted and drawn
+     * already.
+     *
+     * @param quoteId Quote id
+     * @return {@code true} if there is nothing to prefetch for the quote
+     */
+    private boolean isPrefetched(long quoteId) {
+        return textCache.contains(quoteId) && TextFitter.getInstance().isFitted(context, quoteId)
+                && BitmapRenderer.getInstance(context).isPrefetched(quoteId);
+    }
+
+    /**
+     * Prefetches the quotes after the minute last requested through {@link #prefetch(int, int)}.
+     */
+    private void runPrefetch() {
+        int day;
+        int minuteOfDay;
+        synchronized (this) {
+            day = prefetchDay;
+            minuteOfDay = prefetchMinute;
+            prefetchPending = false;
+        }
+
+        QuoteSchedule schedule = prepareSchedule(day);
+        if (schedule == null) {
+            return;
+        }
+
+        int last = Math.min(minuteOfDay + PREFETCH_MINUTES, QuoteIndex.MINUTES_PER_DAY - 1);
+        for (int minute = minuteOfDay + 1; minute <= last; minute++) {
+            long quoteId = schedule.getQuoteId(minute);
+            if (quoteId != QuoteIndex.NO_QUOTE && !isPrefetched(quoteId)) {
+                Quote quote = getQuote(quoteId);
+                if (quote != null) {
+                    QuoteTextCache.Entry texts = textCache.contains(quoteId)
+                            ? textCache.get(context, quote)
+                            : textCache.prefetch(context, quote);
+                    TextFitter.getInstance().prefetch(context, quoteId, texts);
+                    if (BitmapRenderer.getInstance(context).isEnabled()) {
+                        BitmapRenderer.getInstance(context).prefetch(context, quoteId, texts);
+                    }
+                }
+            }
+        }
+
+        if (needsNextSchedule(day, minuteOfDay)) {
+            prepareSchedule(day + 1);
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "prefetched after minute " + minuteOfDay + ", " + textCache + ", "
+                    + TextFitter.getInstance());
+        }
+    }
+
+    /**
+     * Get the last shown quote. If none was shown yet within this process, the warm-state
+     * snapshot from a previous process is restored instead, if there is one.
+     *
+     * @return Last shown {@link Quote}, or {@code null} if no quote was ever shown
+     */
+    public synchronized Quote getLastShownQuote() {
+        if (lastShownQuote == null && preferences.contains(PREF_QUOTE_ID)) {
+            lastShownQuote = new Quote(
+                    preferences.getLong(PREF_QUOTE_ID, QuoteIndex.NO_QUOTE),
+                    preferences.getInt(PREF_QUOTE_MINUTE, QuoteIndex.NO_MINUTE),
+                    preferences.getString(PREF_QUOTE_TEXT, ""),
+                    preferences.getString(PREF_QUOTE_AUTHOR, ""),
+                    preferences.getString(PREF_QUOTE_BOOK, ""));
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "restored last quote " + lastShownQuote);
+            }
+        }
+        return lastShownQuote;
+    }
+
+    /**
+     * Sets the last shown quote and persists it as warm-state snapshot, unless it is the same
+     * quote that was already shown last.
+     *
+     * @param quote Last shown {@link Quote}
+     */
+    public synchronized void setLastShownQuote(Quote quote) {
+        if (lastShownQuote != null && lastShownQuote.id == quote.id) {
+            return;
+        }
+
+        lastShownQuote = quote;
+        preferences.edit()
+                .putLong(PREF_QUOTE_ID, quote.id)
+                .putInt(PREF_QUOTE_MINUTE, quote.minute)
+                .putString(PREF_QUOTE_TEXT, quote.text)
+                .putString(PREF_QUOTE_AUTHOR, quote.author)
+                .putString(PREF_QUOTE_BOOK, quote.book)
+                .apply();
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import android.content.Context;
+import android.text.Html;
+import android.text.Spanned;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+import fi.craplab.prosezeit.core.QuoteSchedule;
+
+/**
+ * Bounded LRU cache of the parsed {@link Spanned} texts of quotes, keyed by quote id.
+ * <p>
+ * Parsing a quote's HTML text and origin is a full {@link Html#fromHtml(String)} run and a bunch
+ * of span allocations, which would otherwise happen on every tick. With the upcoming quotes
+ * prefetched from the {@link QuoteSchedule} in the background, the rendered text is usually
+ * ready by the time the alarm goes off.
+ * <p>
+ * The cache is small, so it's kept in plain arrays searched linearly. Unlike a map keyed by
+ * boxed quote ids, a lookup of a cached quote allocates nothing, which keeps the tick path free
+ * of garbage while the displayed quote doesn't change.
+ */
+public class QuoteTextCache {
+    /** Maximum number of cached quotes */
+    private static final int MAX_ENTRIES = 16;
+
+    /**
+     * Parsed texts of a single quote.
+     */
+    public static class Entry {
+        /** Parsed quote text */
+        public final Spanned text;
+        /** Parsed quote origin, book and author */
+        public final Spanned origin;
+
+        /**
+         * Creates a new {@code Entry} with the given parsed texts.
+         *
+         * @param text Parsed quote text
+         * @param origin Parsed quote origin
+         */
+        Entry(Spanned text, Spanned origin) {
+            this.text = text;
+            this.origin = origin;
+        }
+    }
+
+    /** Cached quote ids, {@link QuoteIndex#NO_QUOTE} for unused slots */
+    private final long[] ids = new long[MAX_ENTRIES];
+    /** Cached texts, same slot as their quote id */
+    private final Entry[] entries = new Entry[MAX_ENTRIES];
+    /** Last use of each slot, to find the least recently used one */
+    private final long[] lastUsed = new long[MAX_ENTRIES];
+    private long useCounter;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger prefetches = new AtomicInteger();
+
+    /**
+     * Creates a new, empty {@code QuoteTextCache}.
+     */
+    public QuoteTextCache() {
+        Arrays.fill(ids, QuoteIndex.NO_QUOTE);
+    }
+
+    /**
+     * Get the parsed texts of the given quote, parsing and caching them first on a cache miss.
+     *
+     * @param context Calling context
+     * @param quote Quote to get the texts for
+     * @return Parsed quote texts
+     */
+    public Entry get(Context context, Quote quote) {
+        Entry entry = lookup(quote.id);
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry;
+        }
+
+        misses.incrementAndGet();
+        entry = parse(context, quote);
+        put(quote.id, entry);
+        return entry;
+    }
+
+    /**
+     * Check whether the texts of the quote with the given id are cached. Doesn't affect the hit
+     * and miss counts.
+     *
+     * @param quoteId Quote id
+     * @return {@code true} if the quote's texts are cached
+     */
+    public synchronized boolean contains(long quoteId) {
+        return findSlot(quoteId) >= 0;
+    }
+
+    /**
+     * Parses and caches the texts of the given quote ahead of time.
+     *
+     * @param context Calling context
+     * @param quote Quote to prefetch
+     * @return Parsed quote texts
+     */
+    public Entry prefetch(Context context, Quote quote) {
+        prefetches.incrementAndGet();
+        Entry entry = parse(context, quote);
+        put(quote.id, entry);
+        return entry;
+    }
+
+    /**
+     * Drops all cached texts, e.g. when the quote ids change their meaning with another corpus.
+     */
+    public synchronized void clear() {
+        Arrays.fill(ids, QuoteIndex.NO_QUOTE);
+        Arrays.fill(entries, null);
+        Arrays.fill(lastUsed, 0);
+    }
+
+    /**
+     * Get the number of lookups that found the quote's texts already parsed.
+     *
+     * @return Cache hit count
+     */
+    public int getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups that had to parse the quote's texts first.
+     *
+     * @return Cache miss count
+     */
+    public int getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of quotes parsed ahead of time.
+     *
+     * @return Prefetch count
+     */
+    public int getPrefetchCount() {
+        return prefetches.get();
+    }
+
+    /**
+     * Get the cached texts of the given quote and mark them as used.
+     *
+     * @param quoteId Quote id
+     * @return Cached texts, or {@code null} if they aren't cached
+     */
+    private synchronized Entry lookup(long quoteId) {
+        int slot = findSlot(quoteId);
+        if (slot < 0) {
+            return null;
+        }
+        lastUsed[slot] = ++useCounter;
+        return entries[slot];
+    }
+
+    /**
+     * Caches the given texts, replacing the least recently used ones if the cache is full.
+     *
+     * @param quoteId Quote id
+     * @param entry Parsed quote texts
+     */
+    private synchronized void put(long quoteId, Entry entry) {
+        int slot = findSlot(quoteId);
+        if (slot < 0) {
+            slot = 0;
+            for (int i = 1; i < MAX_ENTRIES; i++) {
+                if (lastUsed[i] < lastUsed[slot]) {
+                    slot = i;
+                }
+            }
+        }
+
+        ids[slot] = quoteId;
+        entries[slot] = entry;
+        lastUsed[slot] = ++useCounter;
+    }
+
+    /**
+     * Find the slot holding the given quote id.
+     *
+     * @param quoteId Quote id
+     * @return Slot index, or {@code -1} if the quote isn't cached
+     */
+    private int findSlot(long quoteId) {
+        for (int slot = 0; slot < MAX_ENTRIES; slot++) {
+            if (ids[slot] == quoteId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the given quote's HTML text and origin.
+     *
+     * @param context Calling context
+     * @param quote Quote to parse
+     * @return Parsed quote texts
+     */
+    private static Entry parse(Context context, Quote quote) {
+        return new Entry(Html.fromHtml(quote.text), Html.fromHtml(quote.getOrigin(context)));
+    }
+
+    @Override
+    public String toString() {
+        return "QuoteTextCache{" +
+                "hits=" + hits +
+                ", misses=" + misses +
+                ", prefetches=" + prefetches +
+                '}';
+    }
+}
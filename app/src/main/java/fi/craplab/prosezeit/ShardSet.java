@@ -0,0 +1,272 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import java.util.Arrays;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+
+/**
+ * Shard bookkeeping of a sharded corpus: which hour's shard a quote is in, which shards are
+ * installed already, and which are open. Opening a shard beyond {@link #MAX_OPEN_SHARDS} closes
+ * the least recently used one. Installing, opening and closing a shard is up to the given
+ * {@link Shards}, so this stays free of any Android dependency.
+ * <p>
+ * Installing and opening a shard doesn't hold the lock, only publishing the opened shard does, so
+ * preparing one in the background doesn't block lookups in the shards that are open already.
+ * Lookups through {@link #peek(int)} never install or open anything, so they're safe on the main
+ * thread. Everything else is synchronized on the {@code ShardSet}, and an open shard must only be
+ * used while holding its lock, so it can't get closed underneath.
+ *
+ * @param <S> Shard type
+ */
+class ShardSet<S> {
+    /** Number of shards, one per hour of the day */
+    static final int SHARD_COUNT = 24;
+    /** Number of shards kept open */
+    static final int MAX_OPEN_SHARDS = 2;
+    /** Minutes before the end of an hour at which the next hour's shard is opened */
+    static final int PRELOAD_MINUTES = 5;
+
+    /**
+     * Installs, opens and closes the actual shards.
+     *
+     * @param <S> Shard type
+     */
+    interface Shards<S> {
+        /**
+         * Installs the given hour's shard, unless it's installed already.
+         *
+         * @param hour Hour of the day
+         * @return {@code true} if the shard is installed
+         */
+        boolean install(int hour);
+
+        /**
+         * Opens the given hour's installed shard.
+         *
+         * @param hour Hour of the day
+         * @return Open shard
+         */
+        S open(int hour);
+
+        /**
+         * Closes the given shard.
+         *
+         * @param shard Open shard
+         */
+        void close(S shard);
+    }
+
+    private final Shards<S> shards;
+    /** All quote ids in ascending order */
+    private final int[] sortedIds;
+    /** Minute of the day of each quote in {@link #sortedIds} */
+    private final short[] minutes;
+
+    /** Whether each hour's shard is known to be installed */
+    private final boolean[] installed = new boolean[SHARD_COUNT];
+    /** Open shard of each hour, {@code null} if it's closed */
+    private final Object[] open = new Object[SHARD_COUNT];
+    /** Use counter value when each shard was last used */
+    private final long[] lastUsed = new long[SHARD_COUNT];
+    private long useCounter;
+
+    /**
+     * Creates a new {@code ShardSet} for the quotes of the given index.
+     *
+     * @param index Quote index of the corpus
+     * @param shards Shard operations
+     */
+    ShardSet(QuoteIndex index, Shards<S> shards) {
+        this.shards = shards;
+
+        int count = 0;
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            count += index.getQuoteCount(minute);
+        }
+
+        // sort by id, with the minute in the lower bits, to find a quote's shard by its id
+        long[] quotes = new long[count];
+        int position = 0;
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            for (int n = 0; n < index.getQuoteCount(minute); n++) {
+                quotes[position++] = index.getQuoteId(minute, n) << 16 | minute;
+            }
+        }
+        Arrays.sort(quotes);
+
+        sortedIds = new int[count];
+        minutes = new short[count];
+        for (int i = 0; i < count; i++) {
+            sortedIds[i] = (int) (quotes[i] >>> 16);
+            minutes[i] = (short) quotes[i];
+        }
+    }
+
+    /**
+     * Get the minute of the day of the given quote.
+     *
+     * @param quoteId Quote id
+     * @return Minute of the day, or {@link QuoteIndex#NO_MINUTE} if there is no such quote
+     */
+    int getMinute(long quoteId) {
+        int position = Arrays.binarySearch(sortedIds, (int) quoteId);
+        return position >= 0 ? minutes[position] : QuoteIndex.NO_MINUTE;
+    }
+
+    /**
+     * Get the hour of the shard holding the quotes of the given minute.
+     *
+     * @param minuteOfDay Minute of the day
+     * @return Hour of the day
+     */
+    static int getHour(int minuteOfDay) {
+        return minuteOfDay / 60;
+    }
+
+    /**
+     * Get the hour of the shard to open ahead of time at the given minute.
+     *
+     * @param minuteOfDay Minute of the day
+     * @return Next hour of the day if the given minute is close to the end of its hour, {@code -1}
+     *         otherwise
+     */
+    static int getPreloadHour(int minuteOfDay) {
+        return minuteOfDay % 60 >= 60 - PRELOAD_MINUTES
+                ? (getHour(minuteOfDay) + 1) % SHARD_COUNT
+                : -1;
+    }
+
+    /**
+     * Installs the given hour's shard, unless it's known to be installed already. Doesn't hold
+     * the lock while installing.
+     *
+     * @param hour Hour of the day
+     * @return {@code true} if the shard is installed
+     */
+    boolean install(int hour) {
+        synchronized (this) {
+            if (installed[hour]) {
+                return true;
+            }
+        }
+
+        boolean done = shards.install(hour);
+        synchronized (this) {
+            installed[hour] |= done;
+        }
+        return done;
+    }
+
+    /**
+     * Get the given hour's shard if it's open, without installing or opening it. The shard must
+     * only be used while holding the lock.
+     *
+     * @param hour Hour of the day
+     * @return Open shard, or {@code null} if it isn't open
+     */
+    @SuppressWarnings("unchecked")
+    synchronized S peek(int hour) {
+        if (open[hour] != null) {
+            lastUsed[hour] = ++useCounter;
+        }
+        return (S) open[hour];
+    }
+
+    /**
+     * Installs and opens the given hour's shard, unless it's open already. Neither of them holds
+     * the lock, only publishing the opened shard does. If that leaves too many shards open, the
+     * least recently used one is closed. Must not be called from the main thread.
+     *
+     * @param hour Hour of the day
+     * @return {@code true} if the shard is open, {@code false} if it couldn't be installed
+     */
+    boolean open(int hour) {
+        synchronized (this) {
+            if (open[hour] != null) {
+                lastUsed[hour] = ++useCounter;
+                return true;
+            }
+        }
+
+        if (!install(hour)) {
+            return false;
+        }
+
+        S shard = shards.open(hour);
+        S duplicate = null;
+        synchronized (this) {
+            if (open[hour] == null) {
+                open[hour] = shard;
+            } else {
+                // opened by someone else meanwhile
+                duplicate = shard;
+            }
+            lastUsed[hour] = ++useCounter;
+            close(MAX_OPEN_SHARDS);
+        }
+
+        if (duplicate != null) {
+            shards.close(duplicate);
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the given hour's shard is open.
+     *
+     * @param hour Hour of the day
+     * @return {@code true} if the shard is open
+     */
+    synchronized boolean isOpen(int hour) {
+        return open[hour] != null;
+    }
+
+    /**
+     * Closes the least recently used shards until at most the given number is left open.
+     *
+     * @param keep Number of shards to keep open
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void close(int keep) {
+        int count = 0;
+        for (Object shard : open) {
+            if (shard != null) {
+                count++;
+            }
+        }
+
+        for (; count > keep; count--) {
+            int oldest = -1;
+            for (int hour = 0; hour < SHARD_COUNT; hour++) {
+                if (open[hour] != null && (oldest < 0 || lastUsed[hour] < lastUsed[oldest])) {
+                    oldest = hour;
+                }
+            }
+            shards.close((S) open[oldest]);
+            open[oldest] = null;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+import fi.craplab.prosezeit.core.QuoteSource;
+import fi.craplab.prosezeit.core.metrics.TickMetrics;
+
+/**
+ * {@link QuoteSource} reading from a sharded corpus, for quote collections too large to install
+ * and open in one go.
+ * <p>
+ * A sharded corpus is an asset directory below {@link #CORPORA_DIR} holding one quote database
+ * per hour of the day, in the same schema as the built-in quote database, and the
+ * {@link QuoteIndex} of all of them, which is all that's read up front. A shard is only installed
+ * from the assets and opened once its hour comes: the {@link DatabaseLoader} opens the current
+ * hour's shard before it reports the quotes loaded, and the next hour's shard is opened in the
+ * background a few minutes before the hour ends. Lookups never install or open a shard
+ * themselves, as they run on the main thread. If the shard isn't open, e.g. after it got closed
+ * under memory pressure, it's opened in the background, and the lookup comes up empty meanwhile. The {@link ShardSet} keeps at most two shards
+ * open, normally the current and the next hour's, and under memory pressure, all but the most
+ * recently used one are closed. So apart from the index, the memory used stays the same no matter how
+ * large the corpus is.
+ */
+public class ShardedQuoteSource implements QuoteSource<Quote>, ComponentCallbacks2 {
+    private static final String TAG = ShardedQuoteSource.class.getSimpleName();
+
+    /** Asset directory holding the sharded corpora, one directory per corpus */
+    public static final String CORPORA_DIR = "corpora";
+    private static final String INDEX_NAME = "quotes.index";
+
+    private final Context context;
+    private final String corpus;
+    private final QuoteIndex index;
+    private final ShardSet<DatabaseHelper> shards;
+
+    /** Whether each hour's shard is queued to be opened in the background */
+    private final boolean[] loading = new boolean[ShardSet.SHARD_COUNT];
+
+    /**
+     * Creates a new {@code ShardedQuoteSource} for the given corpus with its already read index.
+     *
+     * @param context Application context
+     * @param corpus Corpus name
+     * @param index Quote index of the corpus
+     */
+    private ShardedQuoteSource(final Context context, final String corpus, QuoteIndex index) {
+        this.context = context;
+        this.corpus = corpus;
+        this.index = index;
+        shards = new ShardSet<>(index, new ShardSet.Shards<DatabaseHelper>() {
+            @Override
+            public boolean install(int hour) {
+                String shardName = getShardName(hour);
+                String dbName = corpus + "-" + shardName;
+                // checked here first, as installing waits for any other install to finish
+                return context.getDatabasePath(dbName).exists()
+                        || DatabaseHelper.installAsset(context, getAssetPath(corpus, shardName), dbName);
+            }
+
+            @Override
+            public DatabaseHelper open(int hour) {
+                long start = SystemClock.elapsedRealtime();
+                String dbName = corpus + "-" + getShardName(hour);
+                DatabaseHelper shard = new DatabaseHelper(context, dbName);
+                shard.getReadableDatabase();
+                TickMetrics.getInstance().record(TickMetrics.DB_OPEN,
+                        (SystemClock.elapsedRealtime() - start) * 1000);
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "opened shard " + dbName);
+                }
+                return shard;
+            }
+
+            @Override
+            public void close(DatabaseHelper shard) {
+                shard.close();
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "closed shard " + shard.getDatabaseName());
+                }
+            }
+        });
+
+        context.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Opens the given sharded corpus by reading its {@link QuoteIndex} from the assets. None of
+     * the shards are installed or opened yet. Must not be called from the main thread.
+     *
+     * @param context Calling context
+     * @param corpus Corpus name, see {@link #getCorpora(Context)}
+     * @return New {@code ShardedQuoteSource}
+     * @throws IOException If the corpus doesn't exist or its index can't be read
+     */
+    public static ShardedQuoteSource open(Context context, String corpus) throws IOException {
+        try (InputStream input = context.getAssets().open(getAssetPath(corpus, INDEX_NAME))) {
+            return new ShardedQuoteSource(context.getApplicationContext(), corpus,
+                    QuoteIndex.read(input));
+        }
+    }
+
+    /**
+     * Get the names of all sharded corpora shipped with the app.
+     *
+     * @param context Calling context
+     * @return Corpus names, empty if there are none
+     */
+    public static String[] getCorpora(Context context) {
+        try {
+            String[] corpora = context.getAssets().list(CORPORA_DIR);
+            return corpora != null ? corpora : new String[0];
+        } catch (IOException e) {
+            Log.w(TAG, "Can't list corpora", e);
+            return new String[0];
+        }
+    }
+
+    @Override
+    public QuoteIndex buildIndex() {
+        return index;
+    }
+
+    @Override
+    public Quote getQuote(long quoteId) {
+        int minute = shards.getMinute(quoteId);
+        if (minute == QuoteIndex.NO_MINUTE) {
+            return null;
+        }
+
+        int preload = ShardSet.getPreloadHour(minute);
+        if (preload >= 0) {
+            load(preload);
+        }
+
+        int hour = ShardSet.getHour(minute);
+        // queried while holding the lock, so the shard can't get closed underneath
+        synchronized (shards) {
+            DatabaseHelper shard = shards.peek(hour);
+            if (shard != null) {
+                Cursor cursor = shard.getReadableDatabase().query("quotes",
+                        Quote.PROJECTION, "_id = ?", new String[]{String.valueOf(quoteId)},
+                        null, null, null);
+                Quote quote = null;
+                if (cursor.moveToNext()) {
+                    quote = new Quote(cursor, true);
+                }
+                cursor.close();
+                return quote;
+            }
+        }
+
+        // the widget keeps showing its last quote until a later lookup finds the shard open
+        load(hour);
+        return null;
+    }
+
+    @Override
+    public void close() {
+        context.unregisterComponentCallbacks(this);
+        shards.close(0);
+    }
+
+    /**
+     * Installs and opens the shard holding the quotes shown at the given minute, so the first
+     * lookup finds it open. Must not be called from the main thread.
+     *
+     * @param minuteOfDay Minute of the day
+     * @return {@code true} if the shard is open, or there are no quotes at all
+     */
+    public boolean openShard(int minuteOfDay) {
+        int minute = index.resolveMinute(minuteOfDay);
+        if (minute == QuoteIndex.NO_MINUTE) {
+            return true;
+        }
+
+        return shards.open(ShardSet.getHour(minute));
+    }
+
+    /**
+     * Installs and opens the given hour's shard in the background, unless it's open or queued
+     * already.
+     *
+     * @param hour Hour of the day
+     */
+    private void load(final int hour) {
+        synchronized (this) {
+            if (loading[hour] || shards.isOpen(hour)) {
+                return;
+            }
+            loading[hour] = true;
+        }
+
+        try {
+            DatabaseLoader.getInstance().getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    shards.open(hour);
+                    synchronized (ShardedQuoteSource.this) {
+                        loading[hour] = false;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                loading[hour] = false;
+            }
+            Log.w(TAG, "Skipping shard load, executor busy");
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            shards.close(0);
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW
+                || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            // keep the current hour's shard, the next one is opened again ahead of time
+            shards.close(1);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        shards.close(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // nothing to do
+    }
+
+    /**
+     * Get the file name of the given hour's shard.
+     *
+     * @param hour Hour of the day
+     * @return Shard database file name
+     */
+    private static String getShardName(int hour) {
+        return String.format(Locale.ROOT, "quotes-%02d.db", hour);
+    }
+
+    /**
+     * Get the asset path of the given file of the given corpus.
+     *
+     * @param corpus Corpus name
+     * @param fileName File name within the corpus
+     * @return Asset path
+     */
+    private static String getAssetPath(String corpus, String fileName) {
+        return CORPORA_DIR + "/" + corpus + "/" + fileName;
+    }
+}
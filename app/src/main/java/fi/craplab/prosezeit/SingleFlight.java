@@ -0,0 +1,148 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Coalesces concurrent requests for the same background work into a single run. The first
+ * request submits the work to the executor, every request arriving while it is still pending
+ * joins it, and each distinct listener is handed back exactly once when the work is done.
+ * <p>
+ * This is the bookkeeping behind {@link DatabaseLoader}, kept free of any Android dependency.
+ *
+ * @param <L> Listener type
+ */
+class SingleFlight<L> {
+    /**
+     * The work to run once per flight.
+     *
+     * @param <L> Listener type
+     */
+    interface Work<L> {
+        /**
+         * Runs the work on the executor thread.
+         *
+         * @return {@code true} if the work succeeded
+         */
+        boolean run();
+
+        /**
+         * Called on the executor thread once the work is done, after the flight was cleared, so
+         * new requests already start a new flight.
+         *
+         * @param listeners Listeners that waited for this flight, each one only once
+         * @param success {@code true} if the work succeeded
+         */
+        void onFinished(List<L> listeners, boolean success);
+    }
+
+    private final Executor executor;
+    /** Listeners waiting for the current flight, duplicates are dropped */
+    private final Set<L> listeners = new LinkedHashSet<>();
+    /** Currently running flight, {@code null} if there is none */
+    private Future<?> pending;
+
+    /**
+     * Creates a new {@code SingleFlight} running its work on the given executor.
+     *
+     * @param executor Executor to run the work on
+     */
+    SingleFlight(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Checks if a flight is currently pending.
+     *
+     * @return {@code true} if there is a flight in progress
+     */
+    synchronized boolean isPending() {
+        return pending != null;
+    }
+
+    /**
+     * Starts the given work, unless a flight is already pending, in which case the caller joins
+     * it and the given work is dropped.
+     * <p>
+     * If the executor rejects the work, the flight is abandoned: the returned {@link Future} is
+     * cancelled, the waiting listeners are dropped without being called, and the next request
+     * starts over.
+     *
+     * @param listener Listener to hand back once the flight is done, may be {@code null}
+     * @param work Work to run if a new flight is started
+     * @return {@link Future} of the shared flight
+     */
+    synchronized Future<?> start(L listener, final Work<L> work) {
+        if (listener != null) {
+            listeners.add(listener);
+        }
+
+        if (pending != null) {
+            return pending;
+        }
+
+        FutureTask<Void> task = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                try {
+                    success = work.run();
+                } finally {
+                    List<L> waiting = finish();
+                    work.onFinished(waiting, success);
+                }
+            }
+        }, null);
+
+        pending = task;
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            pending = null;
+            listeners.clear();
+            task.cancel(false);
+        }
+        return task;
+    }
+
+    /**
+     * Clears the pending flight so a later request can start a new one.
+     *
+     * @return Listeners that waited for the finished flight
+     */
+    private synchronized List<L> finish() {
+        List<L> waiting = new ArrayList<>(listeners);
+        listeners.clear();
+        pending = null;
+        return waiting;
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import android.appwidget.AppWidgetManager;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.DisplayMetrics;
+
+import java.util.Arrays;
+
+/**
+ * Finds the largest text size a quote fits in a widget with, and remembers it.
+ * <p>
+ * Widget sizes are reduced to size buckets of {@value #BUCKET_DP}dp steps, rounded down so the
+ * text fits the actual size as well. Fitting a quote means laying it out with {@link StaticLayout}
+ * a few times in a binary search over the text sizes, so the result is cached per quote id and
+ * size bucket in a compact table of primitives, and all widgets of the same bucket share it. The
+ * buckets asked for recently are remembered, so the upcoming quotes can be fitted to them ahead of
+ * time, along with the prefetch of their texts.
+ */
+public class TextFitter {
+    /** Size bucket of a widget whose size isn't known, its text keeps the layout's size */
+    public static final int NO_BUCKET = 0;
+
+    /** Size bucket granularity, in dp */
+    private static final int BUCKET_DP = 16;
+    /** Largest bucket dimension, in {@link #BUCKET_DP} steps */
+    private static final int MAX_BUCKET_STEPS = 0xff;
+    /** Number of slots in the cache table, a power of two */
+    private static final int CAPACITY = 512;
+    /** Number of cached sizes at which the table is cleared */
+    private static final int MAX_ENTRIES = CAPACITY * 3 / 4;
+    /** Unused table slot */
+    private static final long EMPTY = -1;
+    /** Number of recently used size buckets kept for fitting ahead of time */
+    static final int MAX_BUCKETS = 8;
+
+    private static TextFitter instance;
+
+    /** Cached keys, quote id and size bucket, {@link #EMPTY} for unused slots */
+    private final long[] keys = new long[CAPACITY];
+    /** Fitted text size in sp, same slot as its key */
+    private final byte[] sizes = new byte[CAPACITY];
+    private int entryCount;
+    /** Recently used size buckets, most recent first */
+    private final int[] buckets = new int[MAX_BUCKETS];
+    private int bucketCount;
+    /** Display density the cached sizes were fitted with */
+    private float density;
+    /** Font scale the cached sizes were fitted with */
+    private float scaledDensity;
+    private Typeface quoteTypeface;
+    private Typeface originTypeface;
+
+    private int hits;
+    private int fits;
+
+    /**
+     * Creates the {@code TextFitter} instance with an empty cache.
+     */
+    private TextFitter() {
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Retrieve the {@code TextFitter} singleton instance. If no instance exists yet, it will be
+     * created first.
+     *
+     * @return {@code TextFitter} instance
+     */
+    public static synchronized TextFitter getInstance() {
+        if (instance == null) {
+            instance = new TextFitter();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the size bucket of a widget with the given options. The smallest width and height the
+     * widget is shown with are used, so the text fits in both portrait and landscape.
+     *
+     * @param options Widget options from {@link AppWidgetManager#getAppWidgetOptions(int)}
+     * @return Size bucket, or {@link #NO_BUCKET} if the widget's size isn't known
+     */
+    public static int getBucket(Bundle options) {
+        if (options == null) {
+            return NO_BUCKET;
+        }
+
+        int width = Math.min(options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH) / BUCKET_DP,
+                MAX_BUCKET_STEPS);
+        int height = Math.min(options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_HEIGHT) / BUCKET_DP,
+                MAX_BUCKET_STEPS);
+        return width > 0 && height > 0 ? width << 8 | height : NO_BUCKET;
+    }
+
+    /**
+     * Get the width of widgets in the given size bucket.
+     *
+     * @param bucket Size bucket, not {@link #NO_BUCKET}
+     * @return Width in dp
+     */
+    static int getBucketWidth(int bucket) {
+        return (bucket >>> 8) * BUCKET_DP;
+    }
+
+    /**
+     * Get the height of widgets in the given size bucket.
+     *
+     * @param bucket Size bucket, not {@link #NO_BUCKET}
+     * @return Height in dp
+     */
+    static int getBucketHeight(int bucket) {
+        return (bucket & 0xff) * BUCKET_DP;
+    }
+
+    /**
+     * Get the largest text size the given quote fits into widgets of the given size bucket with,
+     * fitting it first if it's not cached yet.
+     *
+     * @param context Calling context
+     * @param quoteId Quote id
+     * @param texts Parsed texts of the quote
+     * @param bucket Size bucket
+     * @return Text size in sp, or {@code 0} to keep the layout's text size
+     */
+    public int getTextSize(Context context, long quoteId, QuoteTextCache.Entry texts, int bucket) {
+        if (bucket == NO_BUCKET) {
+            return 0;
+        }
+
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        synchronized (this) {
+            useBucket(bucket);
+            int size = lookup(quoteId, bucket, metrics);
+            if (size > 0) {
+                hits++;
+                return size;
+            }
+        }
+
+        // lay out outside the lock, so a fit ahead of time doesn't hold up a render
+        int size = fit(context, texts, bucket, metrics);
+        synchronized (this) {
+            fits++;
+            put(quoteId, bucket, size, metrics);
+        }
+        return size;
+    }
+
+    /**
+     * Fits the given quote to all recently used size buckets ahead of time.
+     *
+     * @param context Calling context
+     * @param quoteId Quote id
+     * @param texts Parsed texts of the quote
+     */
+    public void prefetch(Context context, long quoteId, QuoteTextCache.Entry texts) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int[] pending;
+        synchronized (this) {
+            pending = Arrays.copyOf(buckets, bucketCount);
+        }
+
+        for (int bucket : pending) {
+            boolean cached;
+            synchronized (this) {
+                cached = lookup(quoteId, bucket, metrics) > 0;
+            }
+            if (!cached) {
+                int size = fit(context, texts, bucket, metrics);
+                synchronized (this) {
+                    fits++;
+                    put(quoteId, bucket, size, metrics);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether the quote with the given id is fitted to all recently used size buckets.
+     *
+     * @param context Calling context
+     * @param quoteId Quote id
+     * @return {@code true} if there's nothing to fit ahead of time
+     */
+    public synchronized boolean isFitted(Context context, long quoteId) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        for (int i = 0; i < bucketCount; i++) {
+            if (lookup(quoteId, buckets[i], metrics) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the recently used size buckets, most recent first, into the given array.
+     *
+     * @param recent Array to copy into, at least {@link #MAX_BUCKETS} long
+     * @return Number of buckets copied
+     */
+    public synchronized int getRecentBuckets(int[] recent) {
+        System.arraycopy(buckets, 0, recent, 0, bucketCount);
+        return bucketCount;
+    }
+
+    /**
+     * Drops all cached sizes, e.g. when the quote ids change their meaning with another corpus.
+     */
+    public synchronized void clear() {
+        Arrays.fill(keys, EMPTY);
+        entryCount = 0;
+    }
+
+    /**
+     * Marks the given size bucket as the most recently used one.
+     *
+     * @param bucket Size bucket
+     */
+    private void useBucket(int bucket) {
+        int position = 0;
+        while (position < bucketCount && buckets[position] != bucket) {
+            position++;
+        }
+        if (position == bucketCount) {
+            // new bucket, replaces the least recently used one if there's no room left
+            bucketCount = Math.min(bucketCount + 1, MAX_BUCKETS);
+            position = bucketCount - 1;
+        }
+        System.arraycopy(buckets, 0, buckets, 1, position);
+        buckets[0] = bucket;
+    }
+
+    /**
+     * Get the cached text size of the given quote and size bucket. Drops all cached sizes first
+     * if the display density or font scale changed since they were fitted.
+     *
+     * @param quoteId Quote id
+     * @param bucket Size bucket
+     * @param metrics Current display metrics
+     * @return Text size in sp, or {@code 0} if it's not cached
+     */
+    private int lookup(long quoteId, int bucket, DisplayMetrics metrics) {
+        if (metrics.density != density || metrics.scaledDensity != scaledDensity) {
+            clear();
+            density = metrics.density;
+            scaledDensity = metrics.scaledDensity;
+            return 0;
+        }
+
+        long key = getKey(quoteId, bucket);
+        for (int slot = getSlot(key); keys[slot] != EMPTY; slot = (slot + 1) & (CAPACITY - 1)) {
+            if (keys[slot] == key) {
+                return sizes[slot];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Caches the given text size, clearing the table first once it's getting full. Sizes fitted
+     * with outdated display metrics are dropped.
+     *
+     * @param quoteId Quote id
+     * @param bucket Size bucket
+     * @param size Text size in sp
+     * @param metrics Display metrics the size was fitted with
+     */
+    private void put(long quoteId, int bucket, int size, DisplayMetrics metrics) {
+        if (metrics.density != density || metrics.scaledDensity != scaledDensity) {
+            return;
+        }
+        if (entryCount >= MAX_ENTRIES) {
+            clear();
+        }
+
+        long key = getKey(quoteId, bucket);
+        int slot = getSlot(key);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & (CAPACITY - 1);
+        }
+        if (keys[slot] == EMPTY) {
+            entryCount++;
+        }
+        keys[slot] = key;
+        sizes[slot] = (byte) size;
+    }
+
+    /**
+     * Finds the largest text size the given quote fits into the given size bucket with, by a
+     * binary search over the text sizes. The quote text is centered in the widget with the origin
+     * below it, so the text gets the widget height less the origin's space on both sides. Falls
+     * back to the smallest size if the quote doesn't fit at all.
+     *
+     * @param context Calling context
+     * @param texts Parsed texts of the quote
+     * @param bucket Size bucket
+     * @param metrics Display metrics to fit with
+     * @return Text size in sp
+     */
+    private int fit(Context context, QuoteTextCache.Entry texts, int bucket, DisplayMetrics metrics) {
+        Resources resources = context.getResources();
+        int minSize = resources.getInteger(R.integer.widget_quote_min_text_size);
+        int maxSize = resources.getInteger(R.integer.widget_quote_max_text_size);
+        float width = getBucketWidth(bucket) * metrics.density;
+        float height = getBucketHeight(bucket) * metrics.density;
+
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTypeface(getOriginTypeface());
+        paint.setTextSize(resources.getDimension(R.dimen.widget_origin_text_size));
+        int originWidth = (int) (width - resources.getDimension(R.dimen.widget_origin_margin_start)
+                - resources.getDimension(R.dimen.widget_origin_margin_end));
+        int originHeight = originWidth > 0 ? layout(texts.origin, paint, originWidth).getHeight() : 0;
+
+        int textWidth = (int) (width - 2 * resources.getDimension(R.dimen.widget_quote_margin));
+        float textHeight = height - 2 * (resources.getDimension(R.dimen.widget_origin_margin_top)
+                + originHeight);
+        if (textWidth <= 0 || textHeight <= 0) {
+            return minSize;
+        }
+
+        paint.setTypeface(getQuoteTypeface());
+        int low = minSize;
+        int high = maxSize;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            paint.setTextSize(middle * metrics.scaledDensity);
+            if (layout(texts.text, paint, textWidth).getHeight() <= textHeight) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Lays out the given text like the widget's text views do.
+     *
+     * @param text Text to lay out
+     * @param paint Paint with the text's typeface and size
+     * @param width Available width in pixels
+     * @return Text layout
+     */
+    static Layout layout(CharSequence text, TextPaint paint, int width) {
+        return new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+    }
+
+    /**
+     * Get the typeface of the quote text, as set in the widget layout.
+     *
+     * @return Quote text typeface
+     */
+    synchronized Typeface getQuoteTypeface() {
+        if (quoteTypeface == null) {
+            quoteTypeface = Typeface.create("serif-monospace", Typeface.NORMAL);
+        }
+        return quoteTypeface;
+    }
+
+    /**
+     * Get the typeface of the quote origin, as set in the widget layout.
+     *
+     * @return Quote origin typeface
+     */
+    synchronized Typeface getOriginTypeface() {
+        if (originTypeface == null) {
+            originTypeface = Typeface.create("monospace", Typeface.NORMAL);
+        }
+        return originTypeface;
+    }
+
+    /**
+     * Get the table key of the given quote and size bucket.
+     *
+     * @param quoteId Quote id
+     * @param bucket Size bucket
+     * @return Table key
+     */
+    private static long getKey(long quoteId, int bucket) {
+        return quoteId << 16 | bucket;
+    }
+
+    /**
+     * Get the first table slot to look for the given key in.
+     *
+     * @param key Table key
+     * @return Slot index
+     */
+    private static int getSlot(long key) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return (int) (hash >>> 32) & (CAPACITY - 1);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TextFitter{" +
+                "hits=" + hits +
+                ", fits=" + fits +
+                ", cached=" + entryCount +
+                ", buckets=" + bucketCount +
+                '}';
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.View;
+import android.widget.RemoteViews;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+import fi.craplab.prosezeit.core.metrics.TickMetrics;
+import fi.craplab.prosezeit.core.render.ViewState;
+
+/**
+ * Pushes the widget content to the launcher, but only what actually changed.
+ * <p>
+ * Every widget update is a binder call and makes the launcher re-inflate the widget. The renderer
+ * remembers what was last pushed to each widget id (quote, text color, origin visibility) in a
+ * {@link ViewState}, sends nothing if that didn't change, and only sends the changed properties
+ * through a partial update for small changes like revealing the origin. Widgets needing the same
+ * update share one call.
+ * A new quote's text size is fitted by the {@link TextFitter} to each widget's size bucket, all
+ * widgets in the same bucket share the fitted size and the update carrying it.
+ * In {@link BitmapRenderer} mode, widgets of a known size show the quote as a bitmap frame
+ * instead, and any change to them is a full update with another frame. A frame that isn't drawn
+ * ahead of time is drawn in the background first, the widgets keep showing the previous one until
+ * it's ready.
+ * The bookkeeping reuses its state holders, so a render that changes nothing allocates nothing.
+ * The time spent preparing the updates and sending them is recorded in {@link TickMetrics}.
+ */
+public class WidgetRenderer {
+    private static final String TAG = WidgetRenderer.class.getSimpleName();
+
+    /**
+     * Widget content being rendered.
+     */
+    private static class RenderState {
+        long quoteId;
+        boolean fresh;
+        boolean originVisible;
+
+        RenderState(long quoteId, boolean fresh, boolean originVisible) {
+            set(quoteId, fresh, originVisible);
+        }
+
+        void set(long quoteId, boolean fresh, boolean originVisible) {
+            this.quoteId = quoteId;
+            this.fresh = fresh;
+            this.originVisible = originVisible;
+        }
+    }
+
+    private static final int[] NO_IDS = new int[0];
+
+    private static WidgetRenderer instance;
+
+    /** Last pushed content per widget id */
+    private final ViewState pushed = new ViewState();
+    /** Known widget ids, {@code null} if they need to be looked up again */
+    private int[] widgetIds;
+    /** Delta of each known widget id during a render */
+    private int[] deltas = NO_IDS;
+    /** {@link TextFitter} size bucket of each known widget id */
+    private int[] buckets = NO_IDS;
+    /** State being rendered */
+    private final RenderState renderState = new RenderState(QuoteIndex.NO_QUOTE, true, false);
+
+    /** Latest quote to display, and its texts and state */
+    private Quote latestQuote;
+    private QuoteTextCache.Entry latestTexts;
+    private boolean latestFresh;
+    private boolean originRevealed;
+    /** Context to display the latest quote with once its frames are drawn */
+    private Context frameContext;
+    private final Runnable framesReadyTask = new Runnable() {
+        @Override
+        public void run() {
+            onFramesReady();
+        }
+    };
+
+    private int fullUpdates;
+    private int partialUpdates;
+    private int skippedUpdates;
+
+    /**
+     * Retrieve the {@code WidgetRenderer} singleton instance. If no instance exists yet, it will
+     * be created first.
+     *
+     * @return {@code WidgetRenderer} instance
+     */
+    public static synchronized WidgetRenderer getInstance() {
+        if (instance == null) {
+            instance = new WidgetRenderer();
+        }
+        return instance;
+    }
+
+    /**
+     * Displays the given quote on all widgets. A fresh quote is displayed with its origin hidden,
+     * an old one (i.e. not from the current minute) is displayed a bit lighter with its origin.
+     *
+     * @param context Calling context
+     * @param quote Quote to display
+     * @param texts Parsed texts of the quote
+     * @param fresh {@code true} if the quote is from the current minute
+     */
+    public synchronized void render(Context context, Quote quote, QuoteTextCache.Entry texts,
+                                    boolean fresh) {
+        latestQuote = quote;
+        latestTexts = texts;
+        latestFresh = fresh;
+        originRevealed = false;
+        push(context, true);
+    }
+
+    /**
+     * Pushes the latest quote to all widgets. In bitmap mode, if frames are missing, they're
+     * requested in the background first, and the push happens once they're ready.
+     *
+     * @param context Calling context
+     * @param requestFrames {@code true} to draw missing frames in the background, {@code false}
+     *                      to draw them in place
+     */
+    private void push(Context context, boolean requestFrames) {
+        long start = System.nanoTime();
+        Quote quote = latestQuote;
+        QuoteTextCache.Entry texts = latestTexts;
+        RenderState state = renderState;
+        state.set(quote.id, latestFresh, !latestFresh || originRevealed);
+        int[] ids = getWidgetIds(context);
+
+        BitmapRenderer bitmaps = BitmapRenderer.getInstance(context);
+        boolean bitmapMode = bitmaps.isEnabled();
+        int frameFlags = BitmapRenderer.getFrameFlags(state.fresh, state.originVisible);
+        if (bitmapMode && requestFrames && !pushed.isPushed(ids, state.quoteId, state.fresh, state.originVisible)) {
+            frameContext = context.getApplicationContext();
+            if (bitmaps.requestFrames(frameContext, quote.id, texts, frameFlags, buckets,
+                    ids.length, framesReadyTask)) {
+                TickMetrics.getInstance().record(TickMetrics.RENDER_PREPARE, (System.nanoTime() - start) / 1000);
+                return;
+            }
+        }
+
+        int changed = pushed.update(ids, state.quoteId, state.fresh, state.originVisible, deltas);
+        if (bitmapMode) {
+            for (int i = 0; i < ids.length; i++) {
+                if (deltas[i] != ViewState.DELTA_NONE && buckets[i] != TextFitter.NO_BUCKET) {
+                    // a frame can't be changed partially
+                    deltas[i] = ViewState.DELTA_FULL;
+                }
+            }
+        }
+
+        skippedUpdates += ids.length - changed;
+        if (changed == 0) {
+            TickMetrics.getInstance().record(TickMetrics.RENDER_PREPARE, (System.nanoTime() - start) / 1000);
+            return;
+        }
+
+        long ipcNanos = 0;
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        TextFitter fitter = TextFitter.getInstance();
+        for (int i = 0; i < ids.length; i++) {
+            if (deltas[i] != ViewState.DELTA_FULL) {
+                continue;
+            }
+
+            // one update for all widgets of this size bucket, with the text fitted to it once
+            int bucket = buckets[i];
+            int[] fullIds = selectBucket(ids, deltas, bucket);
+            RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.prose_zeit_widget);
+            views.setOnClickPendingIntent(R.id.widget_layout, ProseZeitWidget.getClickIntent(context));
+            if (bitmapMode && bucket != TextFitter.NO_BUCKET) {
+                views.setViewVisibility(R.id.quote_text, View.GONE);
+                views.setViewVisibility(R.id.quote_origin, View.GONE);
+                views.setViewVisibility(R.id.quote_image, View.VISIBLE);
+                views.setContentDescription(R.id.quote_image, texts.text);
+
+                long ipcStart = System.nanoTime();
+                bitmaps.push(context, appWidgetManager, fullIds, views, quote.id, texts, bucket,
+                        frameFlags);
+                ipcNanos += System.nanoTime() - ipcStart;
+                fullUpdates += fullIds.length;
+                continue;
+            }
+
+            views.setTextViewText(R.id.quote_text, texts.text);
+            views.setTextViewText(R.id.quote_origin, texts.origin);
+            int textSize = fitter.getTextSize(context, quote.id, texts, bucket);
+            if (textSize > 0) {
+                views.setTextViewTextSize(R.id.quote_text, TypedValue.COMPLEX_UNIT_SP, textSize);
+            }
+            applyDelta(context, views, state, ViewState.DELTA_COLOR | ViewState.DELTA_ORIGIN);
+
+            long ipcStart = System.nanoTime();
+            appWidgetManager.updateAppWidget(fullIds, views);
+            ipcNanos += System.nanoTime() - ipcStart;
+            fullUpdates += fullIds.length;
+        }
+
+        ipcNanos += pushPartial(context, appWidgetManager, ids, deltas, state, ViewState.DELTA_COLOR);
+        ipcNanos += pushPartial(context, appWidgetManager, ids, deltas, state, ViewState.DELTA_ORIGIN);
+        ipcNanos += pushPartial(context, appWidgetManager, ids, deltas, state,
+                ViewState.DELTA_COLOR | ViewState.DELTA_ORIGIN);
+
+        TickMetrics metrics = TickMetrics.getInstance();
+        metrics.record(TickMetrics.RENDER_PREPARE, (System.nanoTime() - start - ipcNanos) / 1000);
+        metrics.record(TickMetrics.IPC, ipcNanos / 1000);
+
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "rendered quote " + quote.id + ", " + this + ", " + fitter
+                    + (bitmapMode ? ", " + bitmaps : ""));
+        }
+    }
+
+    /**
+     * Pushes the latest quote once its frames are drawn, drawing any frames in place that went
+     * missing again in the meantime.
+     */
+    private synchronized void onFramesReady() {
+        if (latestQuote != null && frameContext != null) {
+            push(frameContext, false);
+        }
+    }
+
+    /**
+     * Reveals the quote's origin on all widgets that don't show it yet.
+     *
+     * @param context Calling context
+     */
+    public synchronized void revealOrigin(Context context) {
+        if (latestQuote != null && BitmapRenderer.getInstance(context).isEnabled()) {
+            // frames show the origin as part of the picture
+            originRevealed = true;
+            push(context, true);
+            return;
+        }
+
+        int[] ids = getWidgetIds(context);
+        int changed = pushed.revealOrigin(ids, deltas);
+
+        skippedUpdates += ids.length - changed;
+        RenderState revealed = renderState;
+        revealed.set(QuoteIndex.NO_QUOTE, true, true);
+        long ipcNanos = pushPartial(context, AppWidgetManager.getInstance(context), ids, deltas,
+                revealed, ViewState.DELTA_ORIGIN);
+        if (changed > 0) {
+            TickMetrics.getInstance().record(TickMetrics.IPC, ipcNanos / 1000);
+        }
+    }
+
+    /**
+     * Forgets what was pushed to the given widgets, and the known widget ids, e.g. when widgets
+     * got added or removed, or the launcher asked to update them. Their next render is a full one.
+     *
+     * @param appWidgetIds Widget ids to forget
+     */
+    public synchronized void forget(int[] appWidgetIds) {
+        for (int appWidgetId : appWidgetIds) {
+            pushed.forget(appWidgetId);
+        }
+        widgetIds = null;
+    }
+
+    /**
+     * Forgets what was pushed to all widgets, e.g. when the render mode changed. Their next render
+     * is a full one.
+     */
+    public synchronized void forgetAll() {
+        pushed.clear();
+        widgetIds = null;
+    }
+
+    /**
+     * Get the number of full widget updates sent.
+     *
+     * @return Full update count
+     */
+    public synchronized int getFullUpdateCount() {
+        return fullUpdates;
+    }
+
+    /**
+     * Get the number of partial widget updates sent.
+     *
+     * @return Partial update count
+     */
+    public synchronized int getPartialUpdateCount() {
+        return partialUpdates;
+    }
+
+    /**
+     * Get the number of widget updates that were not sent since nothing changed.
+     *
+     * @return Skipped update count
+     */
+    public synchronized int getSkippedUpdateCount() {
+        return skippedUpdates;
+    }
+
+    /**
+     * Sends a partial update with the given delta to all widgets that need exactly that delta.
+     *
+     * @param context Calling context
+     * @param appWidgetManager Widget manager to update with
+     * @param ids All widget ids
+     * @param deltas Delta of each widget id
+     * @param state State to apply
+     * @param delta Delta to send
+     * @return Time spent sending the update, in nanoseconds
+     */
+    private long pushPartial(Context context, AppWidgetManager appWidgetManager, int[] ids,
+                             int[] deltas, RenderState state, int delta) {
+        int[] partialIds = select(ids, deltas, delta);
+        if (partialIds.length > 0) {
+            RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.prose_zeit_widget);
+            applyDelta(context, views, state, delta);
+
+            long ipcStart = System.nanoTime();
+            appWidgetManager.partiallyUpdateAppWidget(partialIds, views);
+            long ipcNanos = System.nanoTime() - ipcStart;
+            partialUpdates += partialIds.length;
+            return ipcNanos;
+        }
+        return 0;
+    }
+
+    /**
+     * Sets the given state's properties covered by the given delta on the given views.
+     *
+     * @param context Calling context
+     * @param views Views to update
+     * @param state State to apply
+     * @param delta Properties to apply
+     */
+    private static void applyDelta(Context context, RemoteViews views, RenderState state, int delta) {
+        if ((delta & ViewState.DELTA_COLOR) != 0) {
+            views.setTextColor(R.id.quote_text, ContextCompat.getColor(context,
+                    state.fresh ? R.color.freshQuote : R.color.oldQuote));
+        }
+        if ((delta & ViewState.DELTA_ORIGIN) != 0) {
+            views.setViewVisibility(R.id.quote_origin,
+                    state.originVisible ? View.VISIBLE : View.INVISIBLE);
+        }
+    }
+
+    /**
+     * Get all widget ids with exactly the given delta.
+     *
+     * @param ids All widget ids
+     * @param deltas Delta of each widget id
+     * @param delta Delta to select
+     * @return Widget ids with the given delta
+     */
+    private static int[] select(int[] ids, int[] deltas, int delta) {
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (deltas[i] == delta) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return NO_IDS;
+        }
+
+        int[] selected = new int[count];
+        for (int i = 0, j = 0; i < ids.length; i++) {
+            if (deltas[i] == delta) {
+                selected[j++] = ids[i];
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Get all widget ids with a full update pending in the given size bucket, and mark them as
+     * done.
+     *
+     * @param ids All widget ids
+     * @param deltas Delta of each widget id, reset to {@link ViewState#DELTA_NONE} for the
+     *               selected ones
+     * @param bucket Size bucket to select
+     * @return Widget ids of the given size bucket with a full update pending
+     */
+    private int[] selectBucket(int[] ids, int[] deltas, int bucket) {
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (deltas[i] == ViewState.DELTA_FULL && buckets[i] == bucket) {
+                count++;
+            }
+        }
+
+        int[] selected = new int[count];
+        for (int i = 0, j = 0; i < ids.length; i++) {
+            if (deltas[i] == ViewState.DELTA_FULL && buckets[i] == bucket) {
+                selected[j++] = ids[i];
+                deltas[i] = ViewState.DELTA_NONE;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Get all widget ids of this app, looking them up only if they aren't known yet, along with
+     * their size buckets.
+     *
+     * @param context Calling context
+     * @return Widget ids
+     */
+    private int[] getWidgetIds(Context context) {
+        if (widgetIds == null) {
+            AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+            ComponentName componentName = new ComponentName(context.getPackageName(), ProseZeitWidget.class.getName());
+            widgetIds = appWidgetManager.getAppWidgetIds(componentName);
+            if (deltas.length < widgetIds.length) {
+                deltas = new int[widgetIds.length];
+                buckets = new int[widgetIds.length];
+            }
+            for (int i = 0; i < widgetIds.length; i++) {
+                buckets[i] = TextFitter.getBucket(appWidgetManager.getAppWidgetOptions(widgetIds[i]));
+            }
+        }
+        return widgetIds;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "WidgetRenderer{" +
+                "full=" + fullUpdates +
+                ", partial=" + partialUpdates +
+                ", skipped=" + skippedUpdates +
+                '}';
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ShardSet}, with fake shards recording what was installed, opened and closed.
+ */
+public class ShardSetTest {
+    /** Minutes of the test quotes: 00:00, 00:59, 01:30, 10:54, 10:55 and 23:59 */
+    private static final int[] MINUTES = {0, 59, 90, 654, 655, 1439};
+    /** Ids of the test quotes, deliberately not in minute order */
+    private static final int[] IDS = {500, 7, 123, 42, 9001, 3};
+
+    private FakeShards fake;
+    private ShardSet<String> shards;
+
+    @Before
+    public void setUp() {
+        fake = new FakeShards();
+        shards = new ShardSet<>(QuoteIndex.build(MINUTES, IDS, IDS.length), fake);
+    }
+
+    @Test
+    public void selectsShardByQuoteId() {
+        for (int i = 0; i < IDS.length; i++) {
+            assertEquals(MINUTES[i], shards.getMinute(IDS[i]));
+        }
+        assertEquals(QuoteIndex.NO_MINUTE, shards.getMinute(8));
+
+        assertEquals(0, ShardSet.getHour(shards.getMinute(7)));
+        assertEquals(1, ShardSet.getHour(shards.getMinute(123)));
+        assertEquals(23, ShardSet.getHour(shards.getMinute(3)));
+    }
+
+    @Test
+    public void preloadsNextHourNearTheEnd() {
+        assertEquals(-1, ShardSet.getPreloadHour(654));
+        assertEquals(11, ShardSet.getPreloadHour(655));
+        assertEquals(11, ShardSet.getPreloadHour(659));
+        assertEquals(-1, ShardSet.getPreloadHour(660));
+        // the last hour wraps around to the first one
+        assertEquals(0, ShardSet.getPreloadHour(1439));
+    }
+
+    @Test
+    public void installsOnce() {
+        assertTrue(shards.install(10));
+        assertTrue(shards.install(10));
+        assertEquals(1, fake.installs.size());
+        assertFalse(shards.isOpen(10));
+    }
+
+    @Test
+    public void failedInstallIsRetried() {
+        fake.failInstall = true;
+        assertFalse(shards.install(3));
+
+        fake.failInstall = false;
+        assertTrue(shards.install(3));
+        assertEquals(2, fake.installs.size());
+    }
+
+    @Test
+    public void opensOnce() {
+        assertTrue(shards.open(1));
+        String shard = shards.peek(1);
+
+        assertTrue(shards.open(1));
+        assertSame(shard, shards.peek(1));
+        assertTrue(shards.isOpen(1));
+        assertEquals(1, fake.installs.size());
+        assertEquals(1, fake.opened.size());
+    }
+
+    @Test
+    public void failedInstallDoesntOpen() {
+        fake.failInstall = true;
+        assertFalse(shards.open(4));
+        assertFalse(shards.isOpen(4));
+        assertTrue(fake.opened.isEmpty());
+    }
+
+    @Test
+    public void peekNeverInstallsOrOpens() {
+        assertNull(shards.peek(7));
+        assertTrue(fake.installs.isEmpty());
+        assertTrue(fake.opened.isEmpty());
+
+        // closed under memory pressure, a lookup doesn't bring it back either
+        shards.open(7);
+        shards.close(0);
+        assertNull(shards.peek(7));
+        assertEquals(1, fake.opened.size());
+    }
+
+    @Test(timeout = 10000)
+    public void openingDoesntBlockLookups() throws InterruptedException {
+        shards.open(1);
+        fake.blockHour = 2;
+        Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                shards.open(2);
+            }
+        });
+        loader.start();
+        fake.opening.await();
+
+        // while the loader is stuck opening, the open shard can be used, the other one isn't there
+        synchronized (shards) {
+            assertEquals("shard-1", shards.peek(1));
+            assertNull(shards.peek(2));
+        }
+        assertFalse(shards.isOpen(2));
+
+        fake.release.countDown();
+        loader.join();
+        assertEquals("shard-2", shards.peek(2));
+    }
+
+    @Test
+    public void peekCountsAsUse() {
+        shards.open(1);
+        shards.open(2);
+        shards.peek(1);
+        shards.open(3);
+
+        assertTrue(shards.isOpen(1));
+        assertFalse(shards.isOpen(2));
+    }
+
+    @Test
+    public void closesLeastRecentlyUsed() {
+        shards.open(1);
+        shards.open(2);
+        shards.open(1);
+        shards.open(3);
+
+        assertEquals(ShardSet.MAX_OPEN_SHARDS, fake.opened.size() - fake.closed.size());
+        assertEquals("shard-2", fake.closed.get(0));
+        assertTrue(shards.isOpen(1));
+        assertFalse(shards.isOpen(2));
+        assertTrue(shards.isOpen(3));
+
+        shards.close(0);
+        assertFalse(shards.isOpen(1));
+        assertFalse(shards.isOpen(3));
+        assertEquals(fake.opened.size(), fake.closed.size());
+    }
+
+    /**
+     * Fake shards, named after their hour.
+     */
+    private static class FakeShards implements ShardSet.Shards<String> {
+        final List<Integer> installs = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<String> opened = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> closed = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean failInstall;
+        /** Hour whose opening waits for {@link #release}, {@code -1} for none */
+        volatile int blockHour = -1;
+        final CountDownLatch opening = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public boolean install(int hour) {
+            installs.add(hour);
+            return !failInstall;
+        }
+
+        @Override
+        public String open(int hour) {
+            if (hour == blockHour) {
+                opening.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String shard = "shard-" + hour;
+            opened.add(shard);
+            return shard;
+        }
+
+        @Override
+        public void close(String shard) {
+            closed.add(shard);
+        }
+    }
+}
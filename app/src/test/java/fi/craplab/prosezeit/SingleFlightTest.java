@@ -0,0 +1,208 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SingleFlight}, driven the way {@link DatabaseLoader} uses it: a burst of
+ * broadcasts all requesting the database with the same widget listener.
+ */
+public class SingleFlightTest {
+    private static final int CALLERS = 500;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private ThreadPoolExecutor executor;
+    private CountDownLatch release;
+    private AtomicInteger opens;
+    private AtomicInteger timerSetups;
+
+    @Before
+    public void setUp() {
+        // same shape as the loader executor
+        executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(8));
+        release = new CountDownLatch(1);
+        opens = new AtomicInteger();
+        timerSetups = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentLoadsOpenOnce() throws Exception {
+        final SingleFlight<Runnable> flight = new SingleFlight<>(executor);
+        final Runnable widgetListener = new CountingListener();
+
+        final CountDownLatch ready = new CountDownLatch(CALLERS);
+        final CountDownLatch go = new CountDownLatch(1);
+        final Future<?>[] futures = new Future<?>[CALLERS];
+        Thread[] callers = new Thread[CALLERS];
+        for (int i = 0; i < CALLERS; i++) {
+            final int index = i;
+            callers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ready.countDown();
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    futures[index] = flight.start(widgetListener, new OpenWork());
+                }
+            });
+            callers[i].start();
+        }
+
+        ready.await();
+        go.countDown();
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        // every caller joined the same load while it was blocked
+        assertTrue(flight.isPending());
+        release.countDown();
+
+        for (Future<?> future : futures) {
+            assertSame(futures[0], future);
+            future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        assertEquals(1, opens.get());
+        assertEquals(1, timerSetups.get());
+        assertFalse(flight.isPending());
+    }
+
+    @Test
+    public void loadAfterFinishedLoadStartsOver() throws Exception {
+        SingleFlight<Runnable> flight = new SingleFlight<>(executor);
+        Runnable listener = new CountingListener();
+        release.countDown();
+
+        flight.start(listener, new OpenWork()).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        flight.start(listener, new OpenWork()).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertEquals(2, opens.get());
+        assertEquals(2, timerSetups.get());
+    }
+
+    @Test
+    public void rejectedLoadDropsListeners() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        // occupy the loader thread and fill its queue with unrelated work
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                blocked.countDown();
+                awaitRelease();
+            }
+        });
+        blocked.await();
+        while (executor.getQueue().remainingCapacity() > 0) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // filler
+                }
+            });
+        }
+
+        SingleFlight<Runnable> flight = new SingleFlight<>(executor);
+        Future<?> rejected = flight.start(new CountingListener(), new OpenWork());
+
+        assertTrue(rejected.isCancelled());
+        assertFalse(flight.isPending());
+
+        // once the queue drains, the next request loads again and only notifies its own listener
+        release.countDown();
+        while (executor.getQueue().size() > 0 || executor.getActiveCount() > 0) {
+            Thread.sleep(1);
+        }
+        flight.start(new CountingListener(), new OpenWork()).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertEquals(1, opens.get());
+        assertEquals(1, timerSetups.get());
+    }
+
+    /**
+     * Blocks the loader thread until the test releases it.
+     */
+    private void awaitRelease() {
+        try {
+            release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stands in for the database open, blocking until the test releases it so concurrent
+     * callers pile up on the pending load.
+     */
+    private class OpenWork implements SingleFlight.Work<Runnable> {
+        @Override
+        public boolean run() {
+            opens.incrementAndGet();
+            awaitRelease();
+            return true;
+        }
+
+        @Override
+        public void onFinished(List<Runnable> listeners, boolean success) {
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Listener counting the timer setups it triggers.
+     */
+    private class CountingListener implements Runnable {
+        @Override
+        public void run() {
+            timerSetups.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.benchmarks;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import fi.craplab.prosezeit.core.QuotePack;
+
+/**
+ * Stand-in for the app's {@code Quote} model, which can't be loaded outside of Android. Its
+ * constructors do the same work as the app's ones.
+ */
+final class BenchmarkQuote {
+    final long id;
+    final int minute;
+    final String text;
+    final String author;
+    final String book;
+
+    /**
+     * Creates a new {@code BenchmarkQuote} from the current row of the given {@link RowCursor},
+     * looking up every column by name, just like {@code Quote(Cursor)} does.
+     *
+     * @param cursor Cursor positioned on a quote row
+     */
+    BenchmarkQuote(RowCursor cursor) {
+        id = cursor.getLong(cursor.getColumnIndexOrThrow("_id"));
+        minute = cursor.getInt(cursor.getColumnIndexOrThrow("minute"));
+        text = cursor.getString(cursor.getColumnIndexOrThrow("text"));
+        author = cursor.getString(cursor.getColumnIndexOrThrow("author"));
+        book = cursor.getString(cursor.getColumnIndexOrThrow("book"));
+    }
+
+    /**
+     * Creates a new {@code BenchmarkQuote} from the current row of the given {@link RowCursor},
+     * using column indices looked up once beforehand.
+     *
+     * @param cursor Cursor positioned on a quote row
+     * @param columns Column indices of id, minute, text, author and book
+     */
+    BenchmarkQuote(RowCursor cursor, int[] columns) {
+        id = cursor.getLong(columns[0]);
+        minute = cursor.getInt(columns[1]);
+        text = cursor.getString(columns[2]);
+        author = cursor.getString(columns[3]);
+        book = cursor.getString(columns[4]);
+    }
+
+    /**
+     * Creates a new {@code BenchmarkQuote} from the current row of the given JDBC
+     * {@link ResultSet}.
+     *
+     * @param result Result set positioned on a quote row
+     * @throws SQLException If a column can't be read
+     */
+    BenchmarkQuote(ResultSet result) throws SQLException {
+        id = result.getLong("_id");
+        minute = result.getInt("minute");
+        text = result.getString("text");
+        author = result.getString("author");
+        book = result.getString("book");
+    }
+
+    /**
+     * Creates a new {@code BenchmarkQuote} from the given {@link QuotePack} record.
+     *
+     * @param pack Quote pack to read from
+     * @param record Record number of the quote within the pack
+     */
+    BenchmarkQuote(QuotePack pack, int record) {
+        id = pack.getId(record);
+        minute = pack.getMinute(record);
+        text = pack.getText(record);
+        author = pack.getAuthor(record);
+        book = pack.getBook(record);
+    }
+}
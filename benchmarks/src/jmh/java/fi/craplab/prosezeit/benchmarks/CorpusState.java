@@ -0,0 +1,98 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.sqlite.SQLiteConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+import fi.craplab.prosezeit.core.QuotePack;
+import fi.craplab.prosezeit.core.QuoteRotation;
+import fi.craplab.prosezeit.core.QuoteSchedule;
+import fi.craplab.prosezeit.core.QuoteSearchIndex;
+
+/**
+ * The compiled quote corpus, shared by all benchmarks: the quote database opened read-only through
+ * the JVM SQLite driver, standing in for Android's SQLite, and the mapped quote pack with its
+ * index and a day's schedule, and the mapped search index.
+ * <p>
+ * The corpus directory is taken from the {@code prosezeit.corpus} system property, which the
+ * {@code jmh} task points to the {@code compileBenchmarkCorpus} output.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+    /** System property holding the corpus directory */
+    private static final String CORPUS_PROPERTY = "prosezeit.corpus";
+    /** Fixed seed, so every run plans the same schedule */
+    private static final long ROTATION_SEED = 0x50524f53455aL;
+
+    File directory;
+    Connection connection;
+    QuotePack pack;
+    QuoteIndex index;
+    QuoteSchedule schedule;
+    QuoteSearchIndex search;
+
+    /**
+     * Opens the quote database and maps the quote pack and search index.
+     *
+     * @throws IOException If the quote pack or search index can't be read
+     * @throws SQLException If the quote database can't be opened
+     */
+    @Setup
+    public void open() throws IOException, SQLException {
+        String corpus = System.getProperty(CORPUS_PROPERTY);
+        if (corpus == null) {
+            throw new IllegalStateException("Corpus directory not set, use -D" + CORPUS_PROPERTY);
+        }
+
+        directory = new File(corpus);
+        File database = new File(directory, "quotes.db");
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        connection = config.createConnection("jdbc:sqlite:" + database.getPath());
+        pack = QuotePack.map(new File(directory, QuotePack.PACK_NAME));
+        index = pack.buildIndex();
+        schedule = QuoteSchedule.create(index, QuoteRotation.create(ROTATION_SEED), 0);
+        search = QuoteSearchIndex.map(new File(directory, QuoteSearchIndex.SEARCH_NAME));
+    }
+
+    /**
+     * Closes the quote database.
+     *
+     * @throws SQLException If closing the database fails
+     */
+    @TearDown
+    public void close() throws SQLException {
+        connection.close();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sqlite.SQLiteConfig;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+import fi.craplab.prosezeit.core.QuotePack;
+import fi.craplab.prosezeit.core.QuoteRotation;
+import fi.craplab.prosezeit.core.QuoteSchedule;
+
+/**
+ * The work between adding the first widget and showing its first quote, on a fresh install: the
+ * original stream copy of the quote database in 1 KB chunks followed by the random minute query,
+ * the same with the channel transfer into a synced temporary file, and mapping the compressed
+ * quote pack the app ships now, building its index and planning and storing the day's schedule.
+ * <p>
+ * Every invocation starts from an empty data directory, so nothing is installed or planned yet.
+ * The corpus files are read from the page cache like the APK would be after installing it, and
+ * the JVM SQLite driver stands in for Android's, so the absolute numbers are a desktop
+ * approximation of a device's; the app records the real latency as {@code first_quote} timer.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@Fork(1)
+@State(Scope.Thread)
+public class FirstQuoteBenchmark {
+    /** System property holding the directory of the corpus compiled with compressed texts */
+    private static final String COMPRESSED_CORPUS_PROPERTY = "prosezeit.compressedCorpus";
+    /** Minute of the day the first widget is added at */
+    private static final int FIRST_MINUTE = 12 * 60 + 34;
+    /** Earlier minutes the original lookup tried before giving up on a gap */
+    private static final int RETRIES = 20;
+    private static final int DAY = 17800;
+
+    private File databaseAsset;
+    private File packAsset;
+    private File dataDir;
+
+    /**
+     * Locates the quote database and the compressed quote pack.
+     *
+     * @param corpus Quote corpus
+     */
+    @Setup
+    public void prepare(CorpusState corpus) {
+        String compressedCorpus = System.getProperty(COMPRESSED_CORPUS_PROPERTY);
+        if (compressedCorpus == null) {
+            throw new IllegalStateException("Compressed corpus directory not set, use -D"
+                    + COMPRESSED_CORPUS_PROPERTY);
+        }
+        databaseAsset = new File(corpus.directory, "quotes.db");
+        packAsset = new File(compressedCorpus, QuotePack.PACK_NAME);
+    }
+
+    /**
+     * Creates an empty data directory, as on a fresh install.
+     *
+     * @throws IOException If the directory can't be created
+     */
+    @Setup(Level.Invocation)
+    public void install() throws IOException {
+        dataDir = Files.createTempDirectory("prosezeit").toFile();
+    }
+
+    /**
+     * Deletes the data directory again.
+     *
+     * @throws IOException If a file can't be deleted
+     */
+    @TearDown(Level.Invocation)
+    public void uninstall() throws IOException {
+        File[] files = dataDir.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(dataDir.toPath());
+    }
+
+    /**
+     * The original path: copying the database in 1 KB chunks, then querying a random quote for
+     * the minute, going back a minute at a time if it has none.
+     *
+     * @return First quote
+     * @throws IOException If copying the database failed
+     * @throws SQLException If the database can't be queried
+     */
+    @Benchmark
+    public BenchmarkQuote databaseStreamCopy() throws IOException, SQLException {
+        File database = new File(dataDir, "quotes.db");
+        try (InputStream input = new FileInputStream(databaseAsset);
+             FileOutputStream output = new FileOutputStream(database)) {
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = input.read(buffer)) > 0) {
+                output.write(buffer, 0, length);
+            }
+        }
+        return queryFirstQuote(database);
+    }
+
+    /**
+     * Installing the database with a channel transfer into a synced temporary file, renamed into
+     * place, then querying the first quote the same way.
+     *
+     * @return First quote
+     * @throws IOException If installing the database failed
+     * @throws SQLException If the database can't be queried
+     */
+    @Benchmark
+    public BenchmarkQuote databaseTransfer() throws IOException, SQLException {
+        File database = new File(dataDir, "quotes.db");
+        File tmpFile = new File(dataDir, "quotes.db.tmp");
+        try (FileInputStream input = new FileInputStream(databaseAsset);
+             FileOutputStream output = new FileOutputStream(tmpFile)) {
+            FileChannel channel = input.getChannel();
+            long position = 0;
+            long length = channel.size();
+            while (position < length) {
+                position += channel.transferTo(position, length - position, output.getChannel());
+            }
+            output.getFD().sync();
+        }
+        if (!tmpFile.renameTo(database)) {
+            throw new IOException("Can't rename " + tmpFile);
+        }
+        return queryFirstQuote(database);
+    }
+
+    /**
+     * The current path: mapping the compressed quote pack, building its index, planning the
+     * day's schedule and storing it along with the rotation, then decoding the minute's quote.
+     *
+     * @return First quote
+     * @throws IOException If the pack can't be mapped or the schedule can't be stored
+     */
+    @Benchmark
+    public BenchmarkQuote pack() throws IOException {
+        QuotePack pack = QuotePack.map(packAsset);
+        QuoteIndex index = pack.buildIndex();
+        QuoteRotation rotation = QuoteRotation.create();
+        QuoteSchedule schedule = QuoteSchedule.create(index, rotation, DAY);
+        schedule.save(new File(dataDir, "quotes.schedule"));
+        rotation.save(new File(dataDir, "quotes.rotation"));
+
+        long quoteId = schedule.getQuoteId(FIRST_MINUTE);
+        int record = quoteId != QuoteIndex.NO_QUOTE ? pack.findRecord(quoteId) : -1;
+        return record >= 0 ? new BenchmarkQuote(pack, record) : null;
+    }
+
+    /**
+     * Opens the given database and queries the first quote like the original widget did.
+     *
+     * @param database Installed quote database
+     * @return First quote, {@code null} if none was found
+     * @throws SQLException If the database can't be queried
+     */
+    private static BenchmarkQuote queryFirstQuote(File database) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        try (Connection connection = config.createConnection("jdbc:sqlite:" + database.getPath());
+             PreparedStatement query = connection.prepareStatement(
+                     "SELECT * FROM quotes WHERE minute = ? ORDER BY RANDOM() LIMIT 1")) {
+            for (int minute = FIRST_MINUTE; minute >= FIRST_MINUTE - RETRIES; minute--) {
+                query.setInt(1, minute);
+                try (ResultSet result = query.executeQuery()) {
+                    if (result.next()) {
+                        return new BenchmarkQuote(result);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+
+/**
+ * Finding the minute to show a quote of when the current minute has none: the original query per
+ * earlier minute until one has a quote, a single query for the nearest earlier minute, scanning
+ * the {@link QuoteIndex} counts backwards, and the precomputed gap fill table. Every invocation
+ * advances to the next minute of the day, so covered minutes and gaps of all lengths take turns.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GapResolutionBenchmark {
+    private PreparedStatement randomQuery;
+    private PreparedStatement nearestQuery;
+    private int currentMinute;
+
+    /**
+     * Prepares the statements of the database lookups. They're closed along with the database
+     * connection.
+     *
+     * @param corpus Quote corpus
+     * @throws SQLException If a statement can't be prepared
+     */
+    @Setup
+    public void prepare(CorpusState corpus) throws SQLException {
+        randomQuery = corpus.connection.prepareStatement(
+                "SELECT * FROM quotes WHERE minute = ? ORDER BY RANDOM() LIMIT 1");
+        nearestQuery = corpus.connection.prepareStatement(
+                "SELECT minute FROM quotes WHERE minute <= ? ORDER BY minute DESC LIMIT 1");
+    }
+
+    /**
+     * Advances to the next minute of the day.
+     *
+     * @return Next minute of the day
+     */
+    private int nextMinute() {
+        currentMinute = (currentMinute + 1) % QuoteIndex.MINUTES_PER_DAY;
+        return currentMinute;
+    }
+
+    /**
+     * The original approach, querying a random quote for each earlier minute until one is found.
+     *
+     * @return Resolved minute, or {@link QuoteIndex#NO_MINUTE} if none was found before midnight
+     * @throws SQLException If a query fails
+     */
+    @Benchmark
+    public int queryEachEarlierMinute() throws SQLException {
+        for (int minute = nextMinute(); minute >= 0; minute--) {
+            randomQuery.setInt(1, minute);
+            try (ResultSet result = randomQuery.executeQuery()) {
+                if (result.next()) {
+                    return minute;
+                }
+            }
+        }
+        return QuoteIndex.NO_MINUTE;
+    }
+
+    /**
+     * A single query for the nearest earlier minute with quotes.
+     *
+     * @return Resolved minute, or {@link QuoteIndex#NO_MINUTE} if none was found before midnight
+     * @throws SQLException If the query fails
+     */
+    @Benchmark
+    public int queryNearestMinute() throws SQLException {
+        nearestQuery.setInt(1, nextMinute());
+        try (ResultSet result = nearestQuery.executeQuery()) {
+            return result.next() ? result.getInt(1) : QuoteIndex.NO_MINUTE;
+        }
+    }
+
+    /**
+     * Scanning the index's per-minute quote counts backwards, wrapping around midnight.
+     *
+     * @param corpus Quote corpus
+     * @return Resolved minute, or {@link QuoteIndex#NO_MINUTE} if there are no quotes at all
+     */
+    @Benchmark
+    public int scanIndexCounts(CorpusState corpus) {
+        int minute = nextMinute();
+        for (int step = 0; step < QuoteIndex.MINUTES_PER_DAY; step++) {
+            int candidate = (minute - step + QuoteIndex.MINUTES_PER_DAY) % QuoteIndex.MINUTES_PER_DAY;
+            if (corpus.index.getQuoteCount(candidate) > 0) {
+                return candidate;
+            }
+        }
+        return QuoteIndex.NO_MINUTE;
+    }
+
+    /**
+     * The precomputed gap fill table of the {@link QuoteIndex}.
+     *
+     * @param corpus Quote corpus
+     * @return Resolved minute, or {@link QuoteIndex#NO_MINUTE} if there are no quotes at all
+     */
+    @Benchmark
+    public int gapFillTable(CorpusState corpus) {
+        return corpus.index.resolveMinute(nextMinute());
+    }
+}
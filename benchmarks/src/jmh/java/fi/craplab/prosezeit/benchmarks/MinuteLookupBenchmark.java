@@ -0,0 +1,179 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+
+/**
+ * Ways of finding a quote for a minute of the day: the original {@code ORDER BY RANDOM()} query,
+ * counting the minute's quotes and picking one by offset, and the precomputed day schedule
+ * followed by a primary key lookup in the database or the quote pack. Every invocation advances
+ * to the next minute of the day, like consecutive ticks do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MinuteLookupBenchmark {
+    private PreparedStatement randomQuery;
+    private PreparedStatement countQuery;
+    private PreparedStatement offsetQuery;
+    private PreparedStatement idQuery;
+    private int currentMinute;
+    private int draw;
+
+    /**
+     * Prepares the statements of the database lookups. They're closed along with the database
+     * connection.
+     *
+     * @param corpus Quote corpus
+     * @throws SQLException If a statement can't be prepared
+     */
+    @Setup
+    public void prepare(CorpusState corpus) throws SQLException {
+        randomQuery = corpus.connection.prepareStatement(
+                "SELECT * FROM quotes WHERE minute = ? ORDER BY RANDOM() LIMIT 1");
+        countQuery = corpus.connection.prepareStatement(
+                "SELECT COUNT(*) FROM quotes WHERE minute = ?");
+        offsetQuery = corpus.connection.prepareStatement(
+                "SELECT * FROM quotes WHERE minute = ? LIMIT 1 OFFSET ?");
+        idQuery = corpus.connection.prepareStatement(
+                "SELECT * FROM quotes WHERE _id = ?");
+    }
+
+    /**
+     * Advances to the next minute of the day. Done within the benchmark itself, as a per
+     * invocation setup would cost more than some of the lookups.
+     *
+     * @return Next minute of the day
+     */
+    private int nextMinute() {
+        draw++;
+        currentMinute = (currentMinute + 1) % QuoteIndex.MINUTES_PER_DAY;
+        return currentMinute;
+    }
+
+    /**
+     * The original lookup, sorting the minute's quotes randomly to pick the first one.
+     *
+     * @return Quote, or {@code null} if the minute has no quotes
+     * @throws SQLException If the query fails
+     */
+    @Benchmark
+    public BenchmarkQuote orderByRandom() throws SQLException {
+        randomQuery.setInt(1, nextMinute());
+        try (ResultSet result = randomQuery.executeQuery()) {
+            return result.next() ? new BenchmarkQuote(result) : null;
+        }
+    }
+
+    /**
+     * Counting the minute's quotes first, then fetching one of them by offset.
+     *
+     * @return Quote, or {@code null} if the minute has no quotes
+     * @throws SQLException If a query fails
+     */
+    @Benchmark
+    public BenchmarkQuote countThenOffset() throws SQLException {
+        int minute = nextMinute();
+        countQuery.setInt(1, minute);
+        int count;
+        try (ResultSet result = countQuery.executeQuery()) {
+            count = result.next() ? result.getInt(1) : 0;
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        offsetQuery.setInt(1, minute);
+        offsetQuery.setInt(2, draw % count);
+        try (ResultSet result = offsetQuery.executeQuery()) {
+            return result.next() ? new BenchmarkQuote(result) : null;
+        }
+    }
+
+    /**
+     * The scheduled quote id of the minute, fetched from the database by primary key.
+     *
+     * @param corpus Quote corpus
+     * @return Quote, or {@code null} if there are no quotes at all
+     * @throws SQLException If the query fails
+     */
+    @Benchmark
+    public BenchmarkQuote scheduleThenDatabase(CorpusState corpus) throws SQLException {
+        long quoteId = corpus.schedule.getQuoteId(nextMinute());
+        if (quoteId == QuoteIndex.NO_QUOTE) {
+            return null;
+        }
+
+        idQuery.setLong(1, quoteId);
+        try (ResultSet result = idQuery.executeQuery()) {
+            return result.next() ? new BenchmarkQuote(result) : null;
+        }
+    }
+
+    /**
+     * The scheduled quote id of the minute, fetched from the quote pack.
+     *
+     * @param corpus Quote corpus
+     * @return Quote, or {@code null} if there are no quotes at all
+     */
+    @Benchmark
+    public BenchmarkQuote scheduleThenPack(CorpusState corpus) {
+        long quoteId = corpus.schedule.getQuoteId(nextMinute());
+        int record = quoteId != QuoteIndex.NO_QUOTE ? corpus.pack.findRecord(quoteId) : -1;
+        return record >= 0 ? new BenchmarkQuote(corpus.pack, record) : null;
+    }
+
+    /**
+     * The minute's quote id straight from the {@link QuoteIndex}, without fetching the quote.
+     *
+     * @param corpus Quote corpus
+     * @return Quote id, or {@link QuoteIndex#NO_QUOTE} if the minute has no quotes
+     */
+    @Benchmark
+    public long indexOnly(CorpusState corpus) {
+        int minute = nextMinute();
+        int count = corpus.index.getQuoteCount(minute);
+        return count > 0 ? corpus.index.getQuoteId(minute, draw % count) : QuoteIndex.NO_QUOTE;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting a quote's origin line from its book and author. The app does this through
+ * {@code Context.getString(R.string.quote_origin, book, author)}, which ends up in
+ * {@link String#format(Locale, String, Object...)} with the resource string. The HTML parsing
+ * that follows in the app is Android only and not covered here.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OriginFormatBenchmark {
+    /** Same format as the {@code quote_origin} string resource */
+    private static final String ORIGIN_FORMAT = "<i>%1$s</i>, %2$s";
+
+    private BenchmarkQuote[] quotes;
+    private int position;
+    private final StringBuilder builder = new StringBuilder();
+
+    /**
+     * Decodes all quotes from the quote pack.
+     *
+     * @param corpus Quote corpus
+     */
+    @Setup
+    public void prepare(CorpusState corpus) {
+        quotes = new BenchmarkQuote[corpus.pack.getQuoteCount()];
+        for (int record = 0; record < quotes.length; record++) {
+            quotes[record] = new BenchmarkQuote(corpus.pack, record);
+        }
+    }
+
+    /**
+     * Advances to the next quote, wrapping around at the end.
+     *
+     * @return Next quote
+     */
+    private BenchmarkQuote nextQuote() {
+        position = (position + 1) % quotes.length;
+        return quotes[position];
+    }
+
+    /**
+     * Formatting through {@link String#format(Locale, String, Object...)}, like the resource
+     * string is.
+     *
+     * @return Origin string
+     */
+    @Benchmark
+    public String stringFormat() {
+        BenchmarkQuote quote = nextQuote();
+        return String.format(Locale.getDefault(), ORIGIN_FORMAT, quote.book, quote.author);
+    }
+
+    /**
+     * Plain string concatenation.
+     *
+     * @return Origin string
+     */
+    @Benchmark
+    public String concatenation() {
+        BenchmarkQuote quote = nextQuote();
+        return "<i>" + quote.book + "</i>, " + quote.author;
+    }
+
+    /**
+     * Appending to a reused {@link StringBuilder}.
+     *
+     * @return Origin string
+     */
+    @Benchmark
+    public String reusedBuilder() {
+        BenchmarkQuote quote = nextQuote();
+        builder.setLength(0);
+        return builder.append("<i>").append(quote.book).append("</i>, ").append(quote.author)
+                .toString();
+    }
+}
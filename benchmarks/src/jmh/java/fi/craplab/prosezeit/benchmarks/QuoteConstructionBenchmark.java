@@ -0,0 +1,116 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a quote from an already fetched row: looking up every column by name for every row,
+ * as {@code Quote(Cursor)} does, looking up the columns once up front, and decoding a quote
+ * pack record instead.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QuoteConstructionBenchmark {
+    private RowCursor cursor;
+    private int[] columns;
+    private int position;
+
+    /**
+     * Reads all quote rows into the in-memory cursor.
+     *
+     * @param corpus Quote corpus
+     * @throws SQLException If the query fails
+     */
+    @Setup
+    public void prepare(CorpusState corpus) throws SQLException {
+        cursor = new RowCursor(corpus.connection, "SELECT * FROM quotes");
+        columns = new int[]{
+                cursor.getColumnIndexOrThrow("_id"),
+                cursor.getColumnIndexOrThrow("minute"),
+                cursor.getColumnIndexOrThrow("text"),
+                cursor.getColumnIndexOrThrow("author"),
+                cursor.getColumnIndexOrThrow("book")
+        };
+    }
+
+    /**
+     * Advances to the next row, wrapping around at the end.
+     *
+     * @return Next row number
+     */
+    private int nextRow() {
+        position = (position + 1) % cursor.getCount();
+        return position;
+    }
+
+    /**
+     * Looking up each column by name for every row, like {@code Quote(Cursor)}.
+     *
+     * @return Quote
+     */
+    @Benchmark
+    public BenchmarkQuote columnLookupPerRow() {
+        cursor.moveToPosition(nextRow());
+        return new BenchmarkQuote(cursor);
+    }
+
+    /**
+     * Using the column indices looked up once beforehand.
+     *
+     * @return Quote
+     */
+    @Benchmark
+    public BenchmarkQuote cachedColumnIndices() {
+        cursor.moveToPosition(nextRow());
+        return new BenchmarkQuote(cursor, columns);
+    }
+
+    /**
+     * Decoding the quote from its quote pack record.
+     *
+     * @param corpus Quote corpus
+     * @return Quote
+     */
+    @Benchmark
+    public BenchmarkQuote packRecord(CorpusState corpus) {
+        return new BenchmarkQuote(corpus.pack, nextRow() % corpus.pack.getQuoteCount());
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.benchmarks;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal in-memory stand-in for Android's {@code Cursor}, so the cost of building quotes from a
+ * row can be measured without the query itself. Column lookup by name works the same way as in
+ * Android's {@code AbstractCursor}: a linear, case-insensitive search over the column names on
+ * every call.
+ */
+final class RowCursor {
+    private final String[] columnNames;
+    private final Object[][] rows;
+    private int position = -1;
+
+    /**
+     * Creates a new {@code RowCursor} holding all rows of the given query.
+     *
+     * @param connection Database connection
+     * @param query Query to run
+     * @throws SQLException If the query fails
+     */
+    RowCursor(Connection connection, String query) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(query)) {
+            ResultSetMetaData metaData = result.getMetaData();
+            columnNames = new String[metaData.getColumnCount()];
+            for (int column = 0; column < columnNames.length; column++) {
+                columnNames[column] = metaData.getColumnName(column + 1);
+            }
+
+            List<Object[]> rowList = new ArrayList<>();
+            while (result.next()) {
+                Object[] row = new Object[columnNames.length];
+                for (int column = 0; column < row.length; column++) {
+                    row[column] = result.getObject(column + 1);
+                }
+                rowList.add(row);
+            }
+            rows = rowList.toArray(new Object[rowList.size()][]);
+        }
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return Row count
+     */
+    int getCount() {
+        return rows.length;
+    }
+
+    /**
+     * Moves to the given row.
+     *
+     * @param position Row number
+     */
+    void moveToPosition(int position) {
+        this.position = position;
+    }
+
+    /**
+     * Get the index of the given column, searching through all column names like
+     * {@code AbstractCursor} does.
+     *
+     * @param columnName Column name
+     * @return Column index
+     * @throws IllegalArgumentException If there is no such column
+     */
+    int getColumnIndexOrThrow(String columnName) {
+        // AbstractCursor strips any table qualifier before searching
+        int period = columnName.lastIndexOf('.');
+        if (period != -1) {
+            columnName = columnName.substring(period + 1);
+        }
+
+        for (int column = 0; column < columnNames.length; column++) {
+            if (columnNames[column].equalsIgnoreCase(columnName)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+    }
+
+    /**
+     * Get the value of the given column of the current row as {@code long}.
+     *
+     * @param column Column index
+     * @return Column value
+     */
+    long getLong(int column) {
+        return ((Number) rows[position][column]).longValue();
+    }
+
+    /**
+     * Get the value of the given column of the current row as {@code int}.
+     *
+     * @param column Column index
+     * @return Column value
+     */
+    int getInt(int column) {
+        return ((Number) rows[position][column]).intValue();
+    }
+
+    /**
+     * Get the value of the given column of the current row as {@code String}.
+     *
+     * @param column Column index
+     * @return Column value
+     */
+    String getString(int column) {
+        return (String) rows[position][column];
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import fi.craplab.prosezeit.core.QuoteSearchIndex;
+
+/**
+ * Searching the quotes for a query as typed by the user, returning the first page of quote ids:
+ * a {@code LIKE} scan of all texts, authors and books in the database, against the compiled
+ * search index. The queries range from a single letter, matching most of the quotes, to a rare
+ * author and a phrase of two words.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchBenchmark {
+    /** Number of quote ids on a result page */
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"a", "midn", "murakami", "the clock"})
+    public String query;
+
+    private PreparedStatement likeQuery;
+
+    /**
+     * Prepares the {@code LIKE} query, matching each word of the query anywhere in one of the
+     * fields. It's closed along with the database connection.
+     *
+     * @param corpus Quote corpus
+     * @throws SQLException If the statement can't be prepared
+     */
+    @Setup
+    public void prepare(CorpusState corpus) throws SQLException {
+        String[] words = query.split(" ");
+        StringBuilder sql = new StringBuilder("SELECT _id FROM quotes WHERE 1");
+        for (int i = 0; i < words.length; i++) {
+            sql.append(" AND (text LIKE ? OR author LIKE ? OR book LIKE ?)");
+        }
+        sql.append(" ORDER BY _id LIMIT ").append(PAGE_SIZE);
+
+        likeQuery = corpus.connection.prepareStatement(sql.toString());
+        for (int i = 0; i < words.length; i++) {
+            for (int field = 1; field <= 3; field++) {
+                likeQuery.setString(3 * i + field, "%" + words[i] + "%");
+            }
+        }
+    }
+
+    /**
+     * Scanning all rows of the database with {@code LIKE}.
+     *
+     * @return Number of quote ids found
+     * @throws SQLException If the query fails
+     */
+    @Benchmark
+    public int like() throws SQLException {
+        int count = 0;
+        try (ResultSet result = likeQuery.executeQuery()) {
+            while (result.next()) {
+                count += result.getLong(1) >= 0 ? 1 : 0;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The search index, matching word prefixes in all fields.
+     *
+     * @param corpus Quote corpus
+     * @return First page of matching quote ids
+     */
+    @Benchmark
+    public QuoteSearchIndex.Page searchIndex(CorpusState corpus) {
+        return corpus.search.search(query, QuoteSearchIndex.ALL_FIELDS, 0, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+import fi.craplab.prosezeit.core.QuotePack;
+
+/**
+ * Reading a quote text from the database table, the quote pack, and the quote pack with its texts
+ * compressed in hour blocks. The cold lookups hop to another hour every time, so the compressed
+ * pack has to inflate a block for each of them, while the warm lookups stay within the hour, like
+ * the minute ticks do, and find the block decoded already.
+ * <p>
+ * The compressed pack is taken from the {@code prosezeit.compressedCorpus} system property, which
+ * the {@code jmh} task points to a separate compile of the corpus. The sizes of the data on disk
+ * and of the decoded blocks kept in memory are printed after the run, as the mapped files are
+ * resident at most as a whole, while the decoded blocks come on top.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TextStorageBenchmark {
+    /** System property holding the directory of the corpus compiled with compressed texts */
+    private static final String COMPRESSED_CORPUS_PROPERTY = "prosezeit.compressedCorpus";
+    /** Hours to move ahead with every cold lookup, coprime to a day's hours to visit all of them */
+    private static final int HOUR_STRIDE = 7;
+    private static final int HOURS_PER_DAY = 24;
+    private static final int MINUTES_PER_HOUR = 60;
+
+    private File corpusDir;
+    private File compressedCorpusDir;
+    private QuotePack compressedPack;
+    private PreparedStatement textQuery;
+    /** Quote ids in minute order, and in cold lookup order */
+    private long[] minuteOrder;
+    private long[] hourHopping;
+    private int position;
+
+    /**
+     * Maps the compressed quote pack, prepares the database query and plans the lookup orders.
+     * The query is closed along with the database connection.
+     *
+     * @param corpus Quote corpus
+     * @throws IOException If the compressed quote pack can't be read
+     * @throws SQLException If the statement can't be prepared
+     */
+    @Setup
+    public void prepare(CorpusState corpus) throws IOException, SQLException {
+        String compressedCorpus = System.getProperty(COMPRESSED_CORPUS_PROPERTY);
+        if (compressedCorpus == null) {
+            throw new IllegalStateException("Compressed corpus directory not set, use -D"
+                    + COMPRESSED_CORPUS_PROPERTY);
+        }
+        corpusDir = corpus.directory;
+        compressedCorpusDir = new File(compressedCorpus);
+        compressedPack = QuotePack.map(new File(compressedCorpusDir, QuotePack.PACK_NAME));
+        textQuery = corpus.connection.prepareStatement("SELECT text FROM quotes WHERE _id = ?");
+
+        // quotes of each hour in minute order, then taken from every hour in turn, hopping ahead
+        QuoteIndex index = corpus.index;
+        List<List<Long>> hours = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        for (int hour = 0; hour < HOURS_PER_DAY; hour++) {
+            List<Long> hourIds = new ArrayList<>();
+            for (int minute = hour * MINUTES_PER_HOUR; minute < (hour + 1) * MINUTES_PER_HOUR; minute++) {
+                for (int i = 0; i < index.getQuoteCount(minute); i++) {
+                    hourIds.add(index.getQuoteId(minute, i));
+                }
+            }
+            hours.add(hourIds);
+            ids.addAll(hourIds);
+        }
+
+        minuteOrder = new long[ids.size()];
+        hourHopping = new long[ids.size()];
+        int[] next = new int[HOURS_PER_DAY];
+        for (int i = 0, hour = 0; i < ids.size(); hour = (hour + HOUR_STRIDE) % HOURS_PER_DAY) {
+            List<Long> hourIds = hours.get(hour);
+            if (next[hour] < hourIds.size()) {
+                hourHopping[i++] = hourIds.get(next[hour]++);
+            }
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            minuteOrder[i] = ids.get(i);
+        }
+    }
+
+    /**
+     * Prints the sizes of the quote data on disk and of the decoded text blocks in memory.
+     */
+    @TearDown
+    public void report() {
+        System.out.printf(Locale.ROOT, "%nOn disk: database %d bytes, pack %d bytes,"
+                        + " compressed pack %d bytes%n",
+                new File(corpusDir, "quotes.db").length(),
+                new File(corpusDir, QuotePack.PACK_NAME).length(),
+                new File(compressedCorpusDir, QuotePack.PACK_NAME).length());
+        System.out.printf(Locale.ROOT, "Decoded text blocks: %d bytes in memory, %d blocks inflated%n",
+                compressedPack.getDecodedBlockBytes(), compressedPack.getDecodedBlockCount());
+    }
+
+    /**
+     * Advances to the next quote, wrapping around at the end.
+     *
+     * @param order Quote ids in lookup order
+     * @return Next quote id
+     */
+    private long next(long[] order) {
+        position = (position + 1) % order.length;
+        return order[position];
+    }
+
+    /**
+     * Querying the text from the database table.
+     *
+     * @return Quote text
+     * @throws SQLException If the query fails
+     */
+    @Benchmark
+    public String databaseCold() throws SQLException {
+        textQuery.setLong(1, next(hourHopping));
+        try (ResultSet result = textQuery.executeQuery()) {
+            result.next();
+            return result.getString(1);
+        }
+    }
+
+    /**
+     * Decoding the text from the quote pack.
+     *
+     * @param corpus Quote corpus
+     * @return Quote text
+     */
+    @Benchmark
+    public String packCold(CorpusState corpus) {
+        return corpus.pack.getText(corpus.pack.findRecord(next(hourHopping)));
+    }
+
+    /**
+     * Decoding the text from the compressed quote pack, inflating another hour's block first.
+     *
+     * @return Quote text
+     */
+    @Benchmark
+    public String compressedPackCold() {
+        return compressedPack.getText(compressedPack.findRecord(next(hourHopping)));
+    }
+
+    /**
+     * Decoding the text from the quote pack, in minute order.
+     *
+     * @param corpus Quote corpus
+     * @return Quote text
+     */
+    @Benchmark
+    public String packWarm(CorpusState corpus) {
+        return corpus.pack.getText(corpus.pack.findRecord(next(minuteOrder)));
+    }
+
+    /**
+     * Decoding the text from the compressed quote pack, in minute order, inflating a block only
+     * once an hour.
+     *
+     * @return Quote text
+     */
+    @Benchmark
+    public String compressedPackWarm() {
+        return compressedPack.getText(compressedPack.findRecord(next(minuteOrder)));
+    }
+}
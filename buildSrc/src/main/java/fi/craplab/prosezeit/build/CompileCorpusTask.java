@@ -0,0 +1,174 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.build;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Gradle task compiling the quote collection CSV into the quote pack asset, and optionally the
+ * quote database and the search index, which the app doesn't use, but the benchmarks do.
+ * The quote texts in the pack can be compressed in blocks, making the pack about half its size
+ * at the cost of inflating a block when an hour's first quote is read.
+ * With a releases directory given, it also writes the changesets from each released corpus
+ * version to this one, so existing installs only plan the minutes with changed quotes again.
+ * The task is only run when the CSV file, the releases or the corpus version changed since the
+ * last build.
+ */
+public class CompileCorpusTask extends DefaultTask {
+    /** Quote database asset file name */
+    public static final String DB_NAME = "quotes.db";
+    /** Quote pack asset file name */
+    public static final String PACK_NAME = "quotes.pack";
+    /** Search index asset file name */
+    public static final String SEARCH_NAME = "quotes.search";
+
+    private File csvFile;
+    private File outputDir;
+    private int corpusVersion = 1;
+    private File releasesDir;
+    private boolean compressText;
+    private boolean database;
+    private boolean searchIndex;
+
+    @InputFile
+    public File getCsvFile() {
+        return csvFile;
+    }
+
+    public void setCsvFile(File csvFile) {
+        this.csvFile = csvFile;
+    }
+
+    @OutputDirectory
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    public void setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    @Input
+    public int getCorpusVersion() {
+        return corpusVersion;
+    }
+
+    public void setCorpusVersion(int corpusVersion) {
+        this.corpusVersion = corpusVersion;
+    }
+
+    @InputDirectory
+    @Optional
+    public File getReleasesDir() {
+        return releasesDir;
+    }
+
+    public void setReleasesDir(File releasesDir) {
+        this.releasesDir = releasesDir;
+    }
+
+    @Input
+    public boolean isCompressText() {
+        return compressText;
+    }
+
+    public void setCompressText(boolean compressText) {
+        this.compressText = compressText;
+    }
+
+    @Input
+    public boolean isDatabase() {
+        return database;
+    }
+
+    public void setDatabase(boolean database) {
+        this.database = database;
+    }
+
+    @Input
+    public boolean isSearchIndex() {
+        return searchIndex;
+    }
+
+    public void setSearchIndex(boolean searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    @TaskAction
+    public void compile() {
+        CorpusCompiler compiler = new CorpusCompiler();
+
+        try {
+            List<CorpusCompiler.Entry> entries = compiler.read(csvFile);
+            if (database) {
+                compiler.writeDatabase(entries, new File(outputDir, DB_NAME), corpusVersion);
+            } else {
+                deleteStale(new File(outputDir, DB_NAME));
+            }
+            compiler.writePack(entries, new File(outputDir, PACK_NAME), compressText);
+            if (searchIndex) {
+                int words = compiler.writeSearchIndex(entries, new File(outputDir, SEARCH_NAME));
+                getLogger().lifecycle("Quote corpus v{}: {} words in the search index",
+                        corpusVersion, words);
+            } else {
+                deleteStale(new File(outputDir, SEARCH_NAME));
+            }
+            if (releasesDir != null) {
+                int changesets = compiler.writeChangesets(entries, corpusVersion, releasesDir,
+                        new File(outputDir, CorpusCompiler.CHANGES_DIR));
+                getLogger().lifecycle("Quote corpus v{}: {} changesets from earlier releases",
+                        corpusVersion, changesets);
+            }
+
+            getLogger().lifecycle("Quote corpus v{}: {}", corpusVersion, compiler.getStats(entries));
+        } catch (CorpusException e) {
+            throw new GradleException("Malformed quote corpus " + csvFile + ", " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new GradleException("Compiling quote corpus failed", e);
+        }
+    }
+
+    /**
+     * Deletes an asset left behind by a build with other options, so it doesn't get packaged.
+     *
+     * @param file Asset file
+     * @throws IOException If the file exists but can't be deleted
+     */
+    private static void deleteStale(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Can't delete " + file);
+        }
+    }
+}
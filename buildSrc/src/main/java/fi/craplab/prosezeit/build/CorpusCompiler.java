@@ -0,0 +1,1086 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.build;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.text.Normalizer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compiles tjaap's CSV quote collection into the runtime assets of the app: the SQLite quote
+ * database and the binary quote pack.
+ * <p>
+ * Each CSV row holds the quote id, the time, the time pattern within the quote, the quote itself,
+ * the book and the author, separated by {@code |}. The ids are stable across corpus versions, so
+ * a changeset only holds the quotes that actually changed, and every quote needs its own. The
+ * compiler converts the time to the minute of the day,
+ * encloses the first occurrence of the pattern in {@code <b>} tags, and makes all the quotation
+ * types the same, just like the original Python conversion script did.
+ */
+public class CorpusCompiler {
+    /** Number of minutes in a day */
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    /** Directory of the corpus changesets within the output directory */
+    public static final String CHANGES_DIR = "changes";
+
+    /** Quote index file name of a sharded corpus */
+    public static final String INDEX_NAME = "quotes.index";
+    /** Number of hour shards of a sharded corpus */
+    public static final int SHARD_COUNT = 24;
+
+    private static final int FIELD_COUNT = 6;
+
+    /** Quote pack file format identifier, "PZQP" */
+    private static final int PACK_MAGIC = 0x505a5150;
+    private static final int PACK_VERSION = 1;
+    private static final int PACK_HEADER_SIZE = 36;
+    private static final int PACK_RECORD_SIZE = 16;
+    /** Quote pack version with the quote texts compressed in blocks */
+    private static final int PACK_VERSION_COMPRESSED = 2;
+    private static final int PACK_COMPRESSED_HEADER_SIZE = 44;
+    /** Number of quote text blocks of a compressed pack, one per hour */
+    private static final int PACK_TEXT_BLOCKS = 24;
+    private static final int PACK_TEXT_BLOCK_ENTRY_SIZE = 12;
+    /** Maximum size of the preset dictionary the text blocks are compressed with */
+    private static final int PACK_TEXT_DICTIONARY_SIZE = 4 * 1024;
+
+    /** Quote index file format identifier, "PZQI" */
+    private static final int INDEX_MAGIC = 0x505a5149;
+    private static final int INDEX_VERSION = 1;
+
+    /** Corpus changeset file format identifier, "PZQC" */
+    private static final int CHANGESET_MAGIC = 0x505a5143;
+    private static final int CHANGESET_VERSION = 2;
+    private static final int CHANGE_INSERT = 0;
+    private static final int CHANGE_UPDATE = 1;
+    private static final int CHANGE_DELETE = 2;
+    /** Minute of a row that doesn't exist before or after a change */
+    private static final int NO_MINUTE = -1;
+
+    /** Search index format identifier, "PZQS" */
+    private static final int SEARCH_MAGIC = 0x505a5153;
+    private static final int SEARCH_VERSION = 1;
+    private static final int SEARCH_HEADER_SIZE = 24;
+    private static final int SEARCH_WORD_SIZE = 12;
+    private static final int SEARCH_FIELD_TEXT = 1;
+    private static final int SEARCH_FIELD_AUTHOR = 2;
+    private static final int SEARCH_FIELD_BOOK = 4;
+    private static final int SEARCH_FIELD_BITS = 3;
+
+    /**
+     * A single quote of the corpus, ready to be written.
+     */
+    public static class Entry {
+        /** Quote id, as given in the CSV file */
+        public final int id;
+        /** Quote's minute of the day */
+        public final int minute;
+        /** Quote text with the time highlighted */
+        public final String text;
+        /** Quote's author */
+        public final String author;
+        /** Quote's book origin */
+        public final String book;
+
+        Entry(int id, int minute, String text, String author, String book) {
+            this.id = id;
+            this.minute = minute;
+            this.text = text;
+            this.author = author;
+            this.book = book;
+        }
+    }
+
+    /**
+     * A single row change of a changeset.
+     */
+    private static class Change {
+        final int operation;
+        final int id;
+        final int oldMinute;
+        /** Manifest row after the change, {@code null} if it's deleted */
+        final Long row;
+
+        Change(int operation, int id, int oldMinute, Long row) {
+            this.operation = operation;
+            this.id = id;
+            this.oldMinute = oldMinute;
+            this.row = row;
+        }
+    }
+
+    /**
+     * Reads and converts all quotes from the given CSV file.
+     *
+     * @param csvFile Quote collection CSV file
+     * @return All quotes, in file order
+     * @throws IOException If reading the file failed
+     * @throws CorpusException If the file contains a malformed row
+     */
+    public List<Entry> read(File csvFile) throws IOException, CorpusException {
+        List<Entry> entries = new ArrayList<>();
+
+        try (Reader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(csvFile), StandardCharsets.UTF_8))) {
+            CsvReader csv = new CsvReader(reader);
+            Set<Integer> ids = new HashSet<>();
+            List<String> row;
+
+            while ((row = csv.readRow()) != null) {
+                Entry entry = convert(row, csv.getRowLine());
+                if (!ids.add(entry.id)) {
+                    throw new CorpusException("line " + csv.getRowLine() + ": duplicate id "
+                            + entry.id);
+                }
+                entries.add(entry);
+            }
+        }
+
+        if (entries.isEmpty()) {
+            throw new CorpusException(csvFile + " contains no quotes");
+        }
+        return entries;
+    }
+
+    /**
+     * Converts a single CSV row to a quote {@link Entry}.
+     *
+     * @param row CSV fields
+     * @param line Line number the row starts at, for error messages
+     * @return Converted entry
+     * @throws CorpusException If the row is malformed
+     */
+    private static Entry convert(List<String> row, int line) throws CorpusException {
+        if (row.size() != FIELD_COUNT) {
+            throw new CorpusException("line " + line + ": expected " + FIELD_COUNT
+                    + " fields, got " + row.size());
+        }
+
+        String id = row.get(0);
+        String time = row.get(1);
+        String pattern = row.get(2);
+        String text = row.get(3);
+
+        if (!id.matches("[1-9]\\d{0,8}")) {
+            throw new CorpusException("line " + line + ": invalid id '" + id + "'");
+        }
+
+        if (!time.matches("\\d\\d:\\d\\d")) {
+            throw new CorpusException("line " + line + ": invalid time '" + time + "'");
+        }
+        int minute = Integer.parseInt(time.substring(0, 2)) * 60 + Integer.parseInt(time.substring(3));
+        if (minute >= MINUTES_PER_DAY || Integer.parseInt(time.substring(3)) >= 60) {
+            throw new CorpusException("line " + line + ": invalid time '" + time + "'");
+        }
+
+        int patternStart = pattern.isEmpty() ? -1 : text.indexOf(pattern);
+        if (patternStart < 0) {
+            throw new CorpusException("line " + line + ": pattern '" + pattern + "' not in quote");
+        }
+
+        // enclose the matching pattern with some HTML bold tags
+        text = text.substring(0, patternStart) + "<b>" + pattern + "</b>"
+                + text.substring(patternStart + pattern.length());
+
+        return new Entry(Integer.parseInt(id), minute, unifyQuotes(text), unifyQuotes(row.get(5)),
+                unifyQuotes(row.get(4)));
+    }
+
+    /**
+     * Makes all the quotation types (', ", "", """) the same.
+     *
+     * @param value String to unify
+     * @return Unified string
+     */
+    private static String unifyQuotes(String value) {
+        return value.replace("\"\"\"", "\"\"").replace("\"\"", "\"").replace('"', '\'');
+    }
+
+    /**
+     * Writes the given quotes into a new SQLite database with an index on the minute column.
+     * All rows are inserted with a single parameterised statement in one transaction.
+     *
+     * @param entries Quotes to write
+     * @param dbFile Database file, replaced if it exists
+     * @param version Corpus version, stored as the database's user version
+     * @throws IOException If the database couldn't be written
+     */
+    public void writeDatabase(List<Entry> entries, File dbFile, int version) throws IOException {
+        if (dbFile.exists() && !dbFile.delete()) {
+            throw new IOException("Can't delete " + dbFile);
+        }
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath())) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE quotes (_id INTEGER PRIMARY KEY, minute INTEGER, text TEXT, author TEXT, book TEXT)");
+            }
+
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO quotes (_id, minute, text, author, book) VALUES (?, ?, ?, ?, ?)")) {
+                for (Entry entry : entries) {
+                    insert.setInt(1, entry.id);
+                    insert.setInt(2, entry.minute);
+                    insert.setString(3, entry.text);
+                    insert.setString(4, entry.author);
+                    insert.setString(5, entry.book);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE INDEX quotes_minute ON quotes (minute)");
+                statement.executeUpdate("PRAGMA user_version = " + version);
+                statement.executeUpdate("VACUUM");
+            }
+        } catch (SQLException e) {
+            throw new IOException("Writing " + dbFile + " failed", e);
+        }
+    }
+
+    /**
+     * Writes the release manifest of the given quotes: one {@code id minute checksum} line per
+     * quote, all that's needed to find the rows that changed in a later corpus version.
+     *
+     * @param entries Quotes of the released corpus version
+     * @param manifestFile Manifest file, replaced if it exists
+     * @throws IOException If the manifest couldn't be written
+     */
+    public void writeManifest(List<Entry> entries, File manifestFile) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(manifestFile),
+                StandardCharsets.UTF_8)) {
+            for (Map.Entry<Integer, Long> row : getManifest(entries).entrySet()) {
+                writer.write(String.format(Locale.ROOT, "%d %d %08x\n", row.getKey(),
+                        row.getValue() >>> 32, row.getValue() & 0xffffffffL));
+            }
+        }
+    }
+
+    /**
+     * Get the file name of the given version's release manifest.
+     *
+     * @param version Corpus version
+     * @return Manifest file name
+     */
+    public static String getManifestName(int version) {
+        return "quotes-" + version + ".manifest";
+    }
+
+    /**
+     * Writes the changesets leading from each released corpus version to the given one: one
+     * changeset from every release to the next, and from the last release to the given version,
+     * each named {@code quotes-<from>-<to>.changes}. The releases are found by their manifests,
+     * as written by {@link #writeManifest(List, File)}.
+     * <p>
+     * A changeset holds the rows inserted, updated and deleted between its two versions, keyed
+     * by quote id, with their old and new minute of the day. The quote texts ship with the app's
+     * quote pack, so they aren't part of it. Applying all changesets from any release in sequence
+     * has to end up with exactly the manifest of the given quotes, which is verified here for
+     * every release.
+     *
+     * @param entries Quotes of the corpus version to write the changesets for
+     * @param version Corpus version of the given quotes
+     * @param releasesDir Directory of the release manifests
+     * @param changesDir Directory to write the changesets to, emptied first
+     * @return Number of written changesets
+     * @throws IOException If a manifest can't be read or a changeset can't be written
+     * @throws CorpusException If the corpus changed without a version change, or the changesets
+     *                         don't lead to the given quotes
+     */
+    public int writeChangesets(List<Entry> entries, int version, File releasesDir, File changesDir)
+            throws IOException, CorpusException {
+        Map<Integer, Long> current = getManifest(entries);
+        List<Integer> releases = new ArrayList<>();
+        File[] manifestFiles = releasesDir.listFiles();
+        if (manifestFiles != null) {
+            for (File file : manifestFiles) {
+                Matcher matcher = Pattern.compile("quotes-(\\d+)\\.manifest").matcher(file.getName());
+                if (matcher.matches()) {
+                    releases.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        Collections.sort(releases);
+
+        if (releases.contains(version)) {
+            if (!readManifest(new File(releasesDir, getManifestName(version))).equals(current)) {
+                throw new CorpusException("quotes changed since version " + version
+                        + " was released, increase the corpus version");
+            }
+            releases.remove(Integer.valueOf(version));
+        }
+        if (!releases.isEmpty() && releases.get(releases.size() - 1) > version) {
+            throw new CorpusException("version " + releases.get(releases.size() - 1)
+                    + " was released already, corpus version " + version + " is outdated");
+        }
+
+        List<Map<Integer, Long>> manifests = new ArrayList<>();
+        for (int release : releases) {
+            manifests.add(readManifest(new File(releasesDir, getManifestName(release))));
+        }
+        manifests.add(current);
+
+        List<List<Change>> changesets = new ArrayList<>();
+        for (int i = 0; i < releases.size(); i++) {
+            changesets.add(getChanges(manifests.get(i), manifests.get(i + 1)));
+        }
+
+        // every release has to end up with exactly the current quotes
+        for (int start = 0; start < releases.size(); start++) {
+            Map<Integer, Long> rows = new LinkedHashMap<>(manifests.get(start));
+            for (List<Change> changeset : changesets.subList(start, changesets.size())) {
+                for (Change change : changeset) {
+                    if (change.row != null) {
+                        rows.put(change.id, change.row);
+                    } else {
+                        rows.remove(change.id);
+                    }
+                }
+            }
+            if (!rows.equals(current)) {
+                throw new CorpusException("changesets from version " + releases.get(start)
+                        + " don't lead to version " + version);
+            }
+        }
+
+        if (changesDir.isDirectory()) {
+            File[] stale = changesDir.listFiles();
+            for (File file : stale != null ? stale : new File[0]) {
+                if (!file.delete()) {
+                    throw new IOException("Can't delete " + file);
+                }
+            }
+        } else if (!changesDir.mkdirs()) {
+            throw new IOException("Can't create " + changesDir);
+        }
+
+        for (int i = 0; i < releases.size(); i++) {
+            int to = i + 1 < releases.size() ? releases.get(i + 1) : version;
+            writeChangeset(changesets.get(i), releases.get(i), to,
+                    new File(changesDir, "quotes-" + releases.get(i) + "-" + to + ".changes"));
+        }
+        return releases.size();
+    }
+
+    /**
+     * Finds the changes between two manifests.
+     *
+     * @param from Manifest before the changes
+     * @param to Manifest after the changes
+     * @return Changed rows
+     */
+    private static List<Change> getChanges(Map<Integer, Long> from, Map<Integer, Long> to) {
+        List<Change> changes = new ArrayList<>();
+        for (Map.Entry<Integer, Long> row : to.entrySet()) {
+            Long old = from.get(row.getKey());
+            if (old == null || !old.equals(row.getValue())) {
+                changes.add(new Change(old == null ? CHANGE_INSERT : CHANGE_UPDATE, row.getKey(),
+                        old != null ? (int) (old >>> 32) : NO_MINUTE, row.getValue()));
+            }
+        }
+        for (Map.Entry<Integer, Long> row : from.entrySet()) {
+            if (!to.containsKey(row.getKey())) {
+                changes.add(new Change(CHANGE_DELETE, row.getKey(), (int) (row.getValue() >>> 32), null));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Writes a single changeset, as read by the app's {@code QuoteChangeset}.
+     *
+     * @param changes Changed rows
+     * @param from Corpus version the changes apply to
+     * @param to Corpus version after the changes
+     * @param file Changeset file
+     * @throws IOException If the changeset couldn't be written
+     */
+    private static void writeChangeset(List<Change> changes, int from, int to, File file)
+            throws IOException {
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            output.writeInt(CHANGESET_MAGIC);
+            output.writeInt(CHANGESET_VERSION);
+            output.writeInt(from);
+            output.writeInt(to);
+            output.writeInt(changes.size());
+            for (Change change : changes) {
+                output.writeByte(change.operation);
+                output.writeInt(change.id);
+                output.writeShort(change.oldMinute);
+                output.writeShort(change.row != null ? (int) (change.row >>> 32) : NO_MINUTE);
+            }
+        }
+    }
+
+    /**
+     * Reads a release manifest written by {@link #writeManifest(List, File)}.
+     *
+     * @param manifestFile Manifest file
+     * @return Minute and checksum of each quote id, see {@link #getManifestRow(Entry)}
+     * @throws IOException If the manifest can't be read
+     * @throws CorpusException If the manifest is malformed
+     */
+    private static Map<Integer, Long> readManifest(File manifestFile) throws IOException, CorpusException {
+        Map<Integer, Long> rows = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(manifestFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ");
+                try {
+                    rows.put(Integer.parseInt(fields[0]), Long.parseLong(fields[1]) << 32
+                            | Long.parseLong(fields[2], 16));
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new CorpusException(manifestFile + ": malformed line '" + line + "'");
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Get the manifest rows of the given quotes.
+     *
+     * @param entries Quotes
+     * @return Minute and checksum of each quote id
+     */
+    private static Map<Integer, Long> getManifest(List<Entry> entries) {
+        Map<Integer, Long> rows = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            rows.put(entry.id, getManifestRow(entry));
+        }
+        return rows;
+    }
+
+    /**
+     * Get the manifest row of the given quote: its minute in the upper and the CRC32 of its
+     * content in the lower 32 bits.
+     *
+     * @param entry Quote
+     * @return Manifest row
+     */
+    private static long getManifestRow(Entry entry) {
+        CRC32 crc = new CRC32();
+        crc.update((entry.text + '\0' + entry.author + '\0' + entry.book).getBytes(StandardCharsets.UTF_8));
+        return (long) entry.minute << 32 | crc.getValue();
+    }
+
+    /**
+     * Writes the given quotes as sharded corpus into the given directory: one database per hour
+     * of the day, named as given by {@link #getShardName(int)}, each holding the quotes of its
+     * hour in the same schema as the full quote database, plus the quote index of all of them,
+     * as written by {@link #writeIndex(List, File)}. Hours without any quotes still get their
+     * empty shard.
+     *
+     * @param entries Quotes to write, sorted by id
+     * @param dir Corpus directory, created if it doesn't exist
+     * @param version Corpus version, stored as each shard's user version
+     * @throws IOException If a shard or the index couldn't be written
+     */
+    public void writeShards(List<Entry> entries, File dir, int version) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+
+        List<List<Entry>> shards = new ArrayList<>();
+        for (int hour = 0; hour < SHARD_COUNT; hour++) {
+            shards.add(new ArrayList<Entry>());
+        }
+        for (Entry entry : entries) {
+            shards.get(entry.minute / 60).add(entry);
+        }
+
+        for (int hour = 0; hour < SHARD_COUNT; hour++) {
+            writeDatabase(shards.get(hour), new File(dir, getShardName(hour)), version);
+        }
+        writeIndex(entries, new File(dir, INDEX_NAME));
+    }
+
+    /**
+     * Get the file name of the given hour's shard.
+     *
+     * @param hour Hour of the day
+     * @return Shard database file name
+     */
+    public static String getShardName(int hour) {
+        return String.format(Locale.ROOT, "quotes-%02d.db", hour);
+    }
+
+    /**
+     * Writes the quote index of the given quotes, as read by the app's {@code QuoteIndex}: the
+     * minute offset table, the quote ids in minute order and the gap fill table. It's all the
+     * app needs to plan its schedules, without opening any of the shards.
+     *
+     * @param entries Quotes to write, sorted by id
+     * @param indexFile Index file, replaced if it exists
+     * @throws IOException If the index couldn't be written
+     */
+    public void writeIndex(List<Entry> entries, File indexFile) throws IOException {
+        int count = entries.size();
+        int[] offsets = getMinuteOffsets(entries);
+        int[] minuteOrder = new int[count];
+        int[] fill = offsets.clone();
+        for (Entry entry : entries) {
+            minuteOrder[fill[entry.minute]++] = entry.id;
+        }
+
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            output.writeInt(INDEX_MAGIC);
+            output.writeInt(INDEX_VERSION);
+            output.writeInt(count);
+            for (int offset : offsets) {
+                output.writeInt(offset);
+            }
+            for (int id : minuteOrder) {
+                output.writeInt(id);
+            }
+            for (short minute : getGapFill(offsets)) {
+                output.writeShort(minute);
+            }
+        }
+    }
+
+    /**
+     * Writes the given quotes into a new binary quote pack, as read by the app's
+     * {@code QuotePack}: a header with the section positions, the minute offset table with the
+     * records in minute order, the gap fill table, the fixed size records sorted by id, the
+     * dictionary of distinct authors and books, and the length-prefixed UTF-8 strings.
+     *
+     * @param entries Quotes to write, sorted by id
+     * @param packFile Pack file, replaced if it exists
+     * @throws IOException If the pack couldn't be written
+     */
+    public void writePack(List<Entry> entries, File packFile) throws IOException {
+        writePack(entries, packFile, false);
+    }
+
+    /**
+     * Writes the given quotes into a new binary quote pack, optionally with the quote texts
+     * compressed. Compressed texts are grouped into one block per hour, each block holding the
+     * length-prefixed texts of its hour's quotes, and each record refers to its text by the
+     * offset within its hour's block. The blocks are deflated with a preset dictionary of the
+     * corpus' most common words, which follows the author and book strings, along with the table
+     * of the blocks' positions and sizes, and the blocks themselves.
+     *
+     * @param entries Quotes to write, sorted by id
+     * @param packFile Pack file, replaced if it exists
+     * @param compressText {@code true} to compress the quote texts
+     * @throws IOException If the pack couldn't be written
+     */
+    public void writePack(List<Entry> entries, File packFile, boolean compressText) throws IOException {
+        int count = entries.size();
+
+        // dictionary of distinct authors and books, in order of first appearance
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            addToDictionary(dictionary, entry.author);
+            addToDictionary(dictionary, entry.book);
+        }
+        if (dictionary.size() > Short.MAX_VALUE) {
+            throw new IOException("Too many authors and books for the pack format");
+        }
+
+        int[] offsets = getMinuteOffsets(entries);
+        int[] minuteOrder = new int[count];
+        int[] fill = offsets.clone();
+        for (int record = 0; record < count; record++) {
+            minuteOrder[fill[entries.get(record).minute]++] = record;
+        }
+        short[] gapFill = getGapFill(offsets);
+
+        int minuteTablePos = compressText ? PACK_COMPRESSED_HEADER_SIZE : PACK_HEADER_SIZE;
+        int gapFillPos = minuteTablePos + 4 * (MINUTES_PER_DAY + 1) + 4 * count;
+        int recordsPos = gapFillPos + 2 * MINUTES_PER_DAY;
+        int dictionaryPos = recordsPos + PACK_RECORD_SIZE * count;
+        int stringsPos = dictionaryPos + 4 * dictionary.size();
+
+        List<byte[]> strings = new ArrayList<>();
+        int[] dictionaryPositions = new int[dictionary.size()];
+        int[] textPositions = new int[count];
+        int position = stringsPos;
+
+        int entryId = 0;
+        for (String name : dictionary.keySet()) {
+            dictionaryPositions[entryId++] = position;
+            position += addString(strings, name);
+        }
+        int textDictionaryPos = 0;
+        int textBlocksPos = 0;
+        if (compressText) {
+            List<List<byte[]>> blocks = new ArrayList<>();
+            int[] blockSizes = new int[PACK_TEXT_BLOCKS];
+            for (int block = 0; block < PACK_TEXT_BLOCKS; block++) {
+                blocks.add(new ArrayList<byte[]>());
+            }
+            for (int record = 0; record < count; record++) {
+                Entry entry = entries.get(record);
+                int block = entry.minute / (MINUTES_PER_DAY / PACK_TEXT_BLOCKS);
+                textPositions[record] = blockSizes[block];
+                blockSizes[block] += addString(blocks.get(block), entry.text);
+            }
+
+            byte[] textDictionary = getTextDictionary(entries);
+            textDictionaryPos = position;
+            position += addBytes(strings, textDictionary);
+            textBlocksPos = position;
+            position += PACK_TEXT_BLOCK_ENTRY_SIZE * PACK_TEXT_BLOCKS;
+
+            List<byte[]> compressed = new ArrayList<>();
+            ByteArrayOutputStream table = new ByteArrayOutputStream();
+            DataOutputStream tableOutput = new DataOutputStream(table);
+            for (int block = 0; block < PACK_TEXT_BLOCKS; block++) {
+                byte[] data = deflate(blocks.get(block), blockSizes[block], textDictionary);
+                tableOutput.writeInt(position);
+                tableOutput.writeInt(data.length);
+                tableOutput.writeInt(blockSizes[block]);
+                compressed.add(data);
+                position += data.length;
+            }
+            strings.add(table.toByteArray());
+            strings.addAll(compressed);
+        } else {
+            for (int record = 0; record < count; record++) {
+                textPositions[record] = position;
+                position += addString(strings, entries.get(record).text);
+            }
+        }
+
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(packFile)))) {
+            output.writeInt(PACK_MAGIC);
+            output.writeInt(compressText ? PACK_VERSION_COMPRESSED : PACK_VERSION);
+            output.writeInt(count);
+            output.writeInt(dictionary.size());
+            output.writeInt(minuteTablePos);
+            output.writeInt(gapFillPos);
+            output.writeInt(recordsPos);
+            output.writeInt(dictionaryPos);
+            output.writeInt(stringsPos);
+            if (compressText) {
+                output.writeInt(textDictionaryPos);
+                output.writeInt(textBlocksPos);
+            }
+
+            for (int offset : offsets) {
+                output.writeInt(offset);
+            }
+            for (int record : minuteOrder) {
+                output.writeInt(record);
+            }
+            for (short minute : gapFill) {
+                output.writeShort(minute);
+            }
+            for (int record = 0; record < count; record++) {
+                Entry entry = entries.get(record);
+                output.writeInt(entry.id);
+                output.writeShort(entry.minute);
+                output.writeShort(dictionary.get(entry.author));
+                output.writeShort(dictionary.get(entry.book));
+                output.writeShort(0);
+                output.writeInt(textPositions[record]);
+            }
+            for (int dictionaryPosition : dictionaryPositions) {
+                output.writeInt(dictionaryPosition);
+            }
+            for (byte[] string : strings) {
+                output.write(string);
+            }
+        }
+    }
+
+    /**
+     * Builds the preset dictionary for compressing the quote texts, from the words appearing more
+     * than once in them, each with the space before it. The words saving the most bytes, by their
+     * length and number of repetitions, are picked until the dictionary is full, and put at its
+     * end, where they're the cheapest to refer to.
+     *
+     * @param entries Quotes to build the dictionary from
+     * @return Preset dictionary
+     */
+    private static byte[] getTextDictionary(List<Entry> entries) {
+        final Map<String, Integer> counts = new TreeMap<>();
+        for (Entry entry : entries) {
+            for (String word : entry.text.split(" ")) {
+                String key = " " + word;
+                Integer wordCount = counts.get(key);
+                counts.put(key, wordCount == null ? 1 : wordCount + 1);
+            }
+        }
+
+        List<String> words = new ArrayList<>();
+        for (Map.Entry<String, Integer> word : counts.entrySet()) {
+            if (word.getValue() > 1) {
+                words.add(word.getKey());
+            }
+        }
+        // stable sort over the sorted words, so the dictionary is the same with every build
+        Collections.sort(words, new Comparator<String>() {
+            @Override
+            public int compare(String first, String second) {
+                return Long.compare(getSavings(second), getSavings(first));
+            }
+
+            private long getSavings(String word) {
+                return (long) (counts.get(word) - 1) * word.getBytes(StandardCharsets.UTF_8).length;
+            }
+        });
+
+        List<byte[]> picked = new ArrayList<>();
+        int size = 0;
+        for (String word : words) {
+            byte[] data = word.getBytes(StandardCharsets.UTF_8);
+            if (size + data.length <= PACK_TEXT_DICTIONARY_SIZE) {
+                picked.add(data);
+                size += data.length;
+            }
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = picked.size() - 1; i >= 0; i--) {
+            dictionary.write(picked.get(i), 0, picked.get(i).length);
+        }
+        return dictionary.toByteArray();
+    }
+
+    /**
+     * Deflates the given strings as a single block with the given preset dictionary.
+     *
+     * @param strings Length-prefixed strings of the block
+     * @param size Total size of the strings
+     * @param dictionary Preset dictionary
+     * @return Deflated block
+     */
+    private static byte[] deflate(List<byte[]> strings, int size, byte[] dictionary) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(size);
+        for (byte[] string : strings) {
+            block.write(string, 0, string.length);
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(block.toByteArray());
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(size / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Writes the full-text search index of the given quotes, as read by the app's
+     * {@code QuoteSearchIndex}: a header, the table of distinct words sorted by their UTF-8 bytes,
+     * the posting lists of each word, holding the quote id and the fields the word appears in,
+     * and the length-prefixed UTF-8 words. The {@code <b>} tags around the time in the quote text
+     * aren't indexed.
+     *
+     * @param entries Quotes to index, sorted by id
+     * @param searchFile Search index file, replaced if it exists
+     * @return Number of distinct words indexed
+     * @throws IOException If the search index couldn't be written
+     */
+    public int writeSearchIndex(List<Entry> entries, File searchFile) throws IOException {
+        // word: quote id: fields the word appears in
+        Map<String, Map<Integer, Integer>> postings = new TreeMap<>();
+        int maxId = 0;
+        for (Entry entry : entries) {
+            if (entry.id >= 1 << (31 - SEARCH_FIELD_BITS)) {
+                throw new IOException("Quote id " + entry.id + " too large for the search index");
+            }
+            maxId = Math.max(maxId, entry.id);
+            addPostings(postings, entry.text.replace("<b>", "").replace("</b>", ""), entry.id,
+                    SEARCH_FIELD_TEXT);
+            addPostings(postings, entry.author, entry.id, SEARCH_FIELD_AUTHOR);
+            addPostings(postings, entry.book, entry.id, SEARCH_FIELD_BOOK);
+        }
+
+        // the app compares the raw bytes, so sort the words the same way
+        List<byte[]> words = new ArrayList<>();
+        for (String word : postings.keySet()) {
+            words.add(word.getBytes(StandardCharsets.UTF_8));
+        }
+        Collections.sort(words, new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] first, byte[] second) {
+                int common = Math.min(first.length, second.length);
+                for (int i = 0; i < common; i++) {
+                    int difference = (first[i] & 0xff) - (second[i] & 0xff);
+                    if (difference != 0) {
+                        return difference;
+                    }
+                }
+                return first.length - second.length;
+            }
+        });
+
+        int postingCount = 0;
+        for (Map<Integer, Integer> wordPostings : postings.values()) {
+            postingCount += wordPostings.size();
+        }
+        int wordsPos = SEARCH_HEADER_SIZE;
+        int postingsPos = wordsPos + SEARCH_WORD_SIZE * words.size();
+        int stringsPos = postingsPos + 4 * postingCount;
+
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(searchFile)))) {
+            output.writeInt(SEARCH_MAGIC);
+            output.writeInt(SEARCH_VERSION);
+            output.writeInt(maxId);
+            output.writeInt(words.size());
+            output.writeInt(wordsPos);
+            output.writeInt(postingsPos);
+
+            int stringPosition = stringsPos;
+            int posting = 0;
+            for (byte[] word : words) {
+                int count = postings.get(new String(word, StandardCharsets.UTF_8)).size();
+                output.writeInt(stringPosition);
+                output.writeInt(posting);
+                output.writeInt(count);
+                stringPosition += 4 + word.length;
+                posting += count;
+            }
+            for (byte[] word : words) {
+                for (Map.Entry<Integer, Integer> wordPosting
+                        : postings.get(new String(word, StandardCharsets.UTF_8)).entrySet()) {
+                    output.writeInt(wordPosting.getKey() << SEARCH_FIELD_BITS | wordPosting.getValue());
+                }
+            }
+            for (byte[] word : words) {
+                output.writeInt(word.length);
+                output.write(word);
+            }
+        }
+        return words.size();
+    }
+
+    /**
+     * Adds the words of the given field value to the posting lists.
+     *
+     * @param postings Posting lists to add to, quote id and fields by word
+     * @param value Field value
+     * @param id Quote id
+     * @param field Field flag
+     */
+    private static void addPostings(Map<String, Map<Integer, Integer>> postings, String value,
+                                    int id, int field) {
+        for (String word : getSearchWords(value)) {
+            Map<Integer, Integer> wordPostings = postings.get(word);
+            if (wordPostings == null) {
+                wordPostings = new TreeMap<>();
+                postings.put(word, wordPostings);
+            }
+            Integer fields = wordPostings.get(id);
+            wordPostings.put(id, fields == null ? field : fields | field);
+        }
+    }
+
+    /**
+     * Splits the given text into the words to index, exactly like {@code QuoteSearchIndex} splits
+     * the search queries: lower case, with the diacritics removed, and split at every character
+     * that's not a letter or a digit.
+     *
+     * @param text Text to split
+     * @return Words of the text, in order of appearance
+     */
+    private static List<String> getSearchWords(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+
+        for (int i = 0; i <= decomposed.length(); i++) {
+            char c = i < decomposed.length() ? decomposed.charAt(i) : ' ';
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                words.add(word.toString().toLowerCase(Locale.ROOT));
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Computes the statistics of the given quotes.
+     *
+     * @param entries Quotes to describe
+     * @return Corpus statistics
+     */
+    public CorpusStats getStats(List<Entry> entries) {
+        int[] offsets = getMinuteOffsets(entries);
+        int covered = 0;
+        int longestGap = 0;
+        int longestGapStart = -1;
+        int gap = 0;
+
+        // walk two days to catch the gap wrapping around midnight
+        for (int i = 0; i < 2 * MINUTES_PER_DAY; i++) {
+            int minute = i % MINUTES_PER_DAY;
+            boolean hasQuotes = offsets[minute + 1] > offsets[minute];
+            if (i < MINUTES_PER_DAY && hasQuotes) {
+                covered++;
+            }
+
+            if (hasQuotes) {
+                gap = 0;
+            } else if (++gap > longestGap && gap <= MINUTES_PER_DAY) {
+                longestGap = gap;
+                longestGapStart = (i - gap + 1) % MINUTES_PER_DAY;
+            }
+        }
+
+        Map<String, Integer> authors = new LinkedHashMap<>();
+        Map<String, Integer> books = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            addToDictionary(authors, entry.author);
+            addToDictionary(books, entry.book);
+        }
+
+        return new CorpusStats(entries.size(), covered, longestGap, longestGapStart,
+                authors.size(), books.size());
+    }
+
+    /**
+     * Computes the minute offset table of the given quotes.
+     *
+     * @param entries Quotes
+     * @return Offset of each minute's first quote in minute order, plus end marker
+     */
+    private static int[] getMinuteOffsets(List<Entry> entries) {
+        int[] offsets = new int[MINUTES_PER_DAY + 1];
+        for (Entry entry : entries) {
+            offsets[entry.minute + 1]++;
+        }
+        for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+            offsets[minute + 1] += offsets[minute];
+        }
+        return offsets;
+    }
+
+    /**
+     * Computes the gap fill table, mapping each minute to the nearest earlier minute with quotes,
+     * wrapping around midnight.
+     *
+     * @param offsets Minute offset table
+     * @return Gap fill table
+     */
+    private static short[] getGapFill(int[] offsets) {
+        short[] gapFill = new short[MINUTES_PER_DAY];
+        int lastCovered = -1;
+        for (int minute = MINUTES_PER_DAY - 1; minute >= 0 && lastCovered == -1; minute--) {
+            if (offsets[minute + 1] > offsets[minute]) {
+                lastCovered = minute;
+            }
+        }
+
+        for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+            if (offsets[minute + 1] > offsets[minute]) {
+                lastCovered = minute;
+            }
+            gapFill[minute] = (short) lastCovered;
+        }
+        return gapFill;
+    }
+
+    private static void addToDictionary(Map<String, Integer> dictionary, String value) {
+        if (!dictionary.containsKey(value)) {
+            dictionary.put(value, dictionary.size());
+        }
+    }
+
+    /**
+     * Adds the given string as length-prefixed UTF-8 bytes.
+     *
+     * @param strings String data to add to
+     * @param value String to add
+     * @return Number of bytes added
+     */
+    private static int addString(List<byte[]> strings, String value) {
+        return addBytes(strings, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds the given bytes, prefixed with their length.
+     *
+     * @param strings String data to add to
+     * @param data Bytes to add
+     * @return Number of bytes added
+     */
+    private static int addBytes(List<byte[]> strings, byte[] data) {
+        byte[] prefixed = new byte[4 + data.length];
+        prefixed[0] = (byte) (data.length >>> 24);
+        prefixed[1] = (byte) (data.length >>> 16);
+        prefixed[2] = (byte) (data.length >>> 8);
+        prefixed[3] = (byte) data.length;
+        System.arraycopy(data, 0, prefixed, 4, data.length);
+        strings.add(prefixed);
+        return prefixed.length;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.build;
+
+/**
+ * Thrown when the quote corpus can't be compiled, e.g. because of a malformed CSV row.
+ */
+public class CorpusException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new {@code CorpusException} with the given message.
+     *
+     * @param message Error message
+     */
+    public CorpusException(String message) {
+        super(message);
+    }
+
+    /**
+     * Creates a new {@code CorpusException} with the given message and cause.
+     *
+     * @param message Error message
+     * @param cause Underlying cause
+     */
+    public CorpusException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
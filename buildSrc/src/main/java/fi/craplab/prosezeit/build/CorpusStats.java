@@ -0,0 +1,64 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.build;
+
+/**
+ * Statistics about a compiled quote corpus.
+ */
+public class CorpusStats {
+    /** Number of quotes */
+    public final int quotes;
+    /** Number of minutes of the day with at least one quote */
+    public final int minutesCovered;
+    /** Length of the longest run of minutes without quotes */
+    public final int longestGap;
+    /** First minute of the longest gap, {@code -1} if there is no gap */
+    public final int longestGapStart;
+    /** Number of distinct authors */
+    public final int authors;
+    /** Number of distinct books */
+    public final int books;
+
+    CorpusStats(int quotes, int minutesCovered, int longestGap, int longestGapStart,
+                int authors, int books) {
+        this.quotes = quotes;
+        this.minutesCovered = minutesCovered;
+        this.longestGap = longestGap;
+        this.longestGapStart = longestGapStart;
+        this.authors = authors;
+        this.books = books;
+    }
+
+    @Override
+    public String toString() {
+        String gap = longestGapStart >= 0
+                ? String.format("%d minutes from %02d:%02d", longestGap,
+                        longestGapStart / 60, longestGapStart % 60)
+                : "none";
+
+        return String.format("%d quotes by %d authors from %d books, %d of %d minutes covered, "
+                        + "longest gap %s", quotes, authors, books, minutesCovered,
+                CorpusCompiler.MINUTES_PER_DAY, gap);
+    }
+}
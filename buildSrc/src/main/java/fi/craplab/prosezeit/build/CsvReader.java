@@ -0,0 +1,135 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.build;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal reader for the {@code |} separated quote collection, following the same quoting rules
+ * as Python's {@code csv} module: a field starting with {@code "} is quoted and may contain
+ * separators and line breaks, and a doubled {@code ""} within it stands for a single {@code "}.
+ * Quotes within unquoted fields are taken as they are.
+ */
+class CsvReader {
+    private static final char DELIMITER = '|';
+    private static final char QUOTE = '"';
+
+    private final Reader reader;
+    private int line = 1;
+    private int rowLine;
+
+    /**
+     * Creates a new {@code CsvReader} reading from the given {@link Reader}.
+     *
+     * @param reader Reader to read from
+     */
+    CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next row.
+     *
+     * @return Fields of the next row, or {@code null} at the end of the input
+     * @throws IOException If reading failed
+     * @throws CorpusException If the row is empty or a quoted field isn't terminated
+     */
+    List<String> readRow() throws IOException, CorpusException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean quoteInQuoted = false;
+        boolean fieldStart = true;
+        int c;
+
+        rowLine = line;
+        while ((c = reader.read()) != -1) {
+            if (c == '\r') {
+                continue;
+            }
+
+            if (quoted && !quoteInQuoted) {
+                if (c == QUOTE) {
+                    quoteInQuoted = true;
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                }
+                continue;
+            }
+
+            if (quoteInQuoted) {
+                quoteInQuoted = false;
+                if (c == QUOTE) {
+                    field.append(QUOTE);
+                    continue;
+                }
+                // closing quote, anything else but a separator is part of the field
+                quoted = false;
+            }
+
+            if (c == DELIMITER) {
+                fields.add(field.toString());
+                field.setLength(0);
+                fieldStart = true;
+            } else if (c == '\n') {
+                line++;
+                if (fields.isEmpty() && field.length() == 0 && fieldStart) {
+                    throw new CorpusException("line " + rowLine + ": empty row");
+                }
+                fields.add(field.toString());
+                return fields;
+            } else if (c == QUOTE && fieldStart) {
+                quoted = true;
+                fieldStart = false;
+            } else {
+                field.append((char) c);
+                fieldStart = false;
+            }
+        }
+
+        if (quoted && !quoteInQuoted) {
+            throw new CorpusException("line " + rowLine + ": unterminated quoted field");
+        }
+        if (fields.isEmpty() && field.length() == 0 && fieldStart) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Get the line number the last read row started at.
+     *
+     * @return Row line number, starting at 1
+     */
+    int getRowLine() {
+        return rowLine;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.build;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Gradle task compiling a quote collection CSV into a sharded corpus asset directory: one quote
+ * database per hour of the day and the quote index of all of them. The app only installs and
+ * opens the shards it needs, so a sharded corpus can be much larger than the built-in one.
+ * The task is only run when the CSV file or the corpus version changed since the last build.
+ */
+public class ShardCorpusTask extends DefaultTask {
+    private File csvFile;
+    private File outputDir;
+    private int corpusVersion = 1;
+
+    @InputFile
+    public File getCsvFile() {
+        return csvFile;
+    }
+
+    public void setCsvFile(File csvFile) {
+        this.csvFile = csvFile;
+    }
+
+    @OutputDirectory
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    public void setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    @Input
+    public int getCorpusVersion() {
+        return corpusVersion;
+    }
+
+    public void setCorpusVersion(int corpusVersion) {
+        this.corpusVersion = corpusVersion;
+    }
+
+    @TaskAction
+    public void compile() {
+        CorpusCompiler compiler = new CorpusCompiler();
+
+        try {
+            List<CorpusCompiler.Entry> entries = compiler.read(csvFile);
+            compiler.writeShards(entries, outputDir, corpusVersion);
+
+            getLogger().lifecycle("Sharded quote corpus {} v{}: {}", outputDir.getName(),
+                    corpusVersion, compiler.getStats(entries));
+        } catch (CorpusException e) {
+            throw new GradleException("Malformed quote corpus " + csvFile + ", " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new GradleException("Compiling quote corpus failed", e);
+        }
+    }
+}
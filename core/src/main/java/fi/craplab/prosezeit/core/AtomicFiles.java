@@ -0,0 +1,63 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replaces stored state files as a whole. The new content is written to a temporary file next
+ * to the stored one, which is renamed over it once complete, so a crash midway leaves the
+ * previous file intact instead of a truncated one that can't be read on the next start.
+ */
+final class AtomicFiles {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Get the temporary file to write the new content of the given file to.
+     *
+     * @param file File to replace
+     * @return Temporary file in the same directory
+     */
+    static File getTempFile(File file) {
+        return new File(file.getPath() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Replaces the given file with its completely written and synced temporary file.
+     *
+     * @param tmpFile Temporary file, see {@link #getTempFile(File)}
+     * @param file File to replace
+     * @throws IOException If the file can't be replaced, the temporary file is deleted then
+     */
+    static void replace(File tmpFile, File file) throws IOException {
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Couldn't replace " + file);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+/**
+ * Drift-free minute tick planning.
+ * <p>
+ * Rather than a repeating alarm, which drifts and is inexact anyway, every tick arms the next one
+ * for the exact next minute boundary. The time each tick actually fires at is compared against
+ * the boundary it was armed for, and the average delay is used to arm later ticks slightly ahead
+ * of their boundary, so they land as close to it as possible. A tick firing a bit early still
+ * counts for the boundary it was armed for.
+ * <p>
+ * While nobody can see the quotes, e.g. with the screen off, the ticks can be suspended. Instead
+ * of every minute, a tick is then only armed every {@value #SUSPENDED_TICK_MINUTES} minutes, in
+ * case the ticks are never resumed explicitly. The first tick firing after a suspension resumes
+ * the minute ticks, just like {@link #resume()} does.
+ */
+public class MinuteTicker {
+    /** Length of a minute in milliseconds */
+    public static final long MINUTE_MILLIS = 60 * 1000;
+    /** Interval of the ticks armed while suspended, in minutes */
+    public static final int SUSPENDED_TICK_MINUTES = 15;
+    /** Maximum time a tick is armed ahead of its boundary to compensate for delays */
+    static final long MAX_CORRECTION_MILLIS = 5000;
+    /** Weight of a new delay sample in the moving average, as 1 / n */
+    private static final int DELAY_WEIGHT = 4;
+
+    private final Clock clock;
+    private final TickScheduler scheduler;
+
+    /** Moving average of the delay between the armed and actual tick time */
+    private long averageDelay;
+    /** Time the pending tick is armed ahead of its boundary */
+    private long correction;
+    private long tickCount;
+    private long lastLateness;
+    private long maxLateness;
+    /** Whether the minute ticks are suspended */
+    private boolean suspended;
+    private long suspendCount;
+
+    /**
+     * Creates a new {@code MinuteTicker} using the given {@link Clock} and {@link TickScheduler}.
+     *
+     * @param clock Wall clock source
+     * @param scheduler Scheduler to arm ticks with
+     */
+    public MinuteTicker(Clock clock, TickScheduler scheduler) {
+        this.clock = clock;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * (Re-)arms the tick for the next minute boundary from now, e.g. initially or after the
+     * system time or time zone changed.
+     *
+     * @return Current time
+     */
+    public synchronized long start() {
+        long now = clock.currentTimeMillis();
+        suspended = false;
+        arm(now);
+        return now;
+    }
+
+    /**
+     * Stops ticking by cancelling the pending tick.
+     */
+    public synchronized void stop() {
+        suspended = false;
+        scheduler.cancel();
+    }
+
+    /**
+     * Suspends the minute ticks, e.g. while the screen is off. The pending tick is replaced by
+     * one {@value #SUSPENDED_TICK_MINUTES} minutes ahead, on a minute boundary, which resumes the
+     * minute ticks if nothing else did so before. Suspending again re-arms that tick. A ticker
+     * that isn't started yet, e.g. in a process restarted for a tick while the screen is off,
+     * is started suspended, so it still resumes later on.
+     */
+    public synchronized void suspend() {
+        if (!suspended) {
+            suspended = true;
+            suspendCount++;
+        }
+
+        // armed right on its boundary, so its lateness is measured like any other tick's
+        correction = 0;
+        long boundary = (clock.currentTimeMillis() / MINUTE_MILLIS + SUSPENDED_TICK_MINUTES)
+                * MINUTE_MILLIS;
+        scheduler.schedule(boundary, boundary);
+    }
+
+    /**
+     * Resumes the minute ticks after {@link #suspend()}, arming the tick for the next minute
+     * boundary from now. The current minute is caught up on by the caller, using the returned
+     * time.
+     *
+     * @return Current time
+     */
+    public synchronized long resume() {
+        return start();
+    }
+
+    /**
+     * Check whether the minute ticks are suspended.
+     *
+     * @return {@code true} if suspended
+     */
+    public synchronized boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * Called when an armed tick fires. Measures how late (or early) it is compared to the
+     * boundary it was armed for, updates the correction for the following ticks, and arms the
+     * next tick right away. A tick firing while suspended resumes the minute ticks.
+     *
+     * @param boundary Minute boundary the tick was armed for, {@code 0} if unknown
+     * @return Time the tick represents, which is its boundary if the tick fired early, or the
+     *         current time otherwise
+     */
+    public synchronized long onTick(long boundary) {
+        long now = clock.currentTimeMillis();
+        long tickTime = now;
+
+        if (boundary > 0 && Math.abs(now - boundary) < MINUTE_MILLIS) {
+            long lateness = now - boundary;
+            long delay = lateness + correction;
+
+            averageDelay += (delay - averageDelay) / DELAY_WEIGHT;
+            tickCount++;
+            lastLateness = lateness;
+            maxLateness = Math.max(maxLateness, Math.abs(lateness));
+
+            tickTime = Math.max(now, boundary);
+        }
+
+        suspended = false;
+        arm(tickTime);
+        return tickTime;
+    }
+
+    /**
+     * Arms the tick for the minute boundary following the given time, corrected by the average
+     * delay, but never for a time that has already passed.
+     *
+     * @param time Time to arm the following boundary for
+     */
+    private void arm(long time) {
+        long boundary = (time / MINUTE_MILLIS + 1) * MINUTE_MILLIS;
+        correction = Math.max(0, Math.min(averageDelay, MAX_CORRECTION_MILLIS));
+
+        long trigger = boundary - correction;
+        long now = clock.currentTimeMillis();
+        if (trigger <= now) {
+            correction = 0;
+            trigger = boundary;
+        }
+
+        scheduler.schedule(trigger, boundary);
+    }
+
+    /**
+     * Get the number of ticks measured so far.
+     *
+     * @return Measured tick count
+     */
+    public synchronized long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Get the lateness of the last tick compared to its boundary. Negative if it fired early.
+     *
+     * @return Last tick's lateness in milliseconds
+     */
+    public synchronized long getLastLateness() {
+        return lastLateness;
+    }
+
+    /**
+     * Get the number of times the minute ticks got suspended.
+     *
+     * @return Suspension count
+     */
+    public synchronized long getSuspendCount() {
+        return suspendCount;
+    }
+
+    /**
+     * Get the largest absolute lateness of all ticks measured so far.
+     *
+     * @return Maximum lateness in milliseconds
+     */
+    public synchronized long getMaxLateness() {
+        return maxLateness;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MinuteTicker{" +
+                "ticks=" + tickCount +
+                ", lastLateness=" + lastLateness +
+                ", maxLateness=" + maxLateness +
+                ", correction=" + correction +
+                ", suspended=" + suspended +
+                '}';
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+/**
+ * {@link QuoteSource} reading from a mapped {@link QuotePack}.
+ *
+ * @param <Q> Quote type
+ */
+public class PackQuoteSource<Q> implements QuoteSource<Q> {
+    /**
+     * Creates quote objects from the records of a {@link QuotePack}.
+     *
+     * @param <Q> Quote type
+     */
+    public interface QuoteFactory<Q> {
+        /**
+         * Creates the quote from the given record, decoding only the parts of it that are needed.
+         *
+         * @param pack Quote pack to read from
+         * @param record Record number of the quote within the pack
+         * @return New quote
+         */
+        Q createQuote(QuotePack pack, int record);
+    }
+
+    private final QuotePack pack;
+    private final QuoteFactory<Q> factory;
+
+    /**
+     * Creates a new {@code PackQuoteSource} reading from the given pack.
+     *
+     * @param pack Mapped quote pack
+     * @param factory Factory to create the quote objects with
+     */
+    public PackQuoteSource(QuotePack pack, QuoteFactory<Q> factory) {
+        this.pack = pack;
+        this.factory = factory;
+    }
+
+    @Override
+    public QuoteIndex buildIndex() {
+        return pack.buildIndex();
+    }
+
+    @Override
+    public Q getQuote(long quoteId) {
+        int record = pack.findRecord(quoteId);
+        return record >= 0 ? factory.createQuote(pack, record) : null;
+    }
+
+    @Override
+    public void close() {
+        // the mapping is released once the buffer is garbage collected
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The changes of the quote corpus from one version to a later one.
+ * <p>
+ * The {@code compileCorpus} build task writes one changeset for each released corpus version,
+ * holding the rows inserted, updated and deleted since, keyed by their quote id, with both the
+ * old and the new minute of the day of each row. The quotes themselves come with the app update's
+ * quote pack, so a changeset holds no texts. Existing installs go through the changesets in
+ * sequence to find the minutes that changed, and only plan those again, keeping the rotation and
+ * the schedule of all the others. This relies on the quote ids being stable across corpus
+ * versions, which the CSV file's id column guarantees.
+ */
+public class QuoteChangeset {
+    /** Row added */
+    public static final int INSERT = 0;
+    /** Row changed, possibly moved to another minute */
+    public static final int UPDATE = 1;
+    /** Row removed */
+    public static final int DELETE = 2;
+
+    /** File format identifier, "PZQC" */
+    private static final int FILE_MAGIC = 0x505a5143;
+    private static final int FILE_VERSION = 2;
+
+    /** Corpus version the changes apply to */
+    public final int fromVersion;
+    /** Corpus version after applying the changes */
+    public final int toVersion;
+
+    private final byte[] operations;
+    private final int[] ids;
+    /** Minute of the day of each row before the change, {@link QuoteIndex#NO_MINUTE} if inserted */
+    private final short[] oldMinutes;
+    /** Minute of the day of each row after the change, {@link QuoteIndex#NO_MINUTE} if deleted */
+    private final short[] minutes;
+
+    /**
+     * Creates a new {@code QuoteChangeset} for the given number of changes, to be filled in by
+     * {@link #read(InputStream)}.
+     *
+     * @param fromVersion Corpus version the changes apply to
+     * @param toVersion Corpus version after applying the changes
+     * @param count Number of changes
+     */
+    private QuoteChangeset(int fromVersion, int toVersion, int count) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        operations = new byte[count];
+        ids = new int[count];
+        oldMinutes = new short[count];
+        minutes = new short[count];
+    }
+
+    /**
+     * Reads a changeset from the given stream. The stream is left open.
+     *
+     * @param stream Stream to read from
+     * @return New {@code QuoteChangeset}
+     * @throws IOException If reading failed or the stream doesn't hold a supported changeset
+     */
+    public static QuoteChangeset read(InputStream stream) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(stream));
+        if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+            throw new IOException("Unsupported quote changeset format");
+        }
+
+        int fromVersion = input.readInt();
+        int toVersion = input.readInt();
+        QuoteChangeset changeset = new QuoteChangeset(fromVersion, toVersion, input.readInt());
+
+        for (int i = 0; i < changeset.ids.length; i++) {
+            int operation = input.readByte();
+            if (operation < INSERT || operation > DELETE) {
+                throw new IOException("Unknown changeset operation " + operation);
+            }
+
+            changeset.operations[i] = (byte) operation;
+            changeset.ids[i] = input.readInt();
+            changeset.oldMinutes[i] = input.readShort();
+            changeset.minutes[i] = input.readShort();
+        }
+        return changeset;
+    }
+
+    /**
+     * Get the number of changed rows.
+     *
+     * @return Change count
+     */
+    public int getChangeCount() {
+        return ids.length;
+    }
+
+    /**
+     * Get the operation of the given change.
+     *
+     * @param change Change number
+     * @return {@link #INSERT}, {@link #UPDATE} or {@link #DELETE}
+     */
+    public int getOperation(int change) {
+        return operations[change];
+    }
+
+    /**
+     * Get the quote id of the given change.
+     *
+     * @param change Change number
+     * @return Quote id
+     */
+    public int getId(int change) {
+        return ids[change];
+    }
+
+    /**
+     * Get the new minute of the day of the given change.
+     *
+     * @param change Change number
+     * @return Minute of the day, {@link QuoteIndex#NO_MINUTE} if the row was deleted
+     */
+    public int getMinute(int change) {
+        return minutes[change];
+    }
+
+    /**
+     * Marks every minute of the day that got a quote added, changed or removed. A moved quote
+     * marks both its old and its new minute.
+     *
+     * @param changed Flag for each minute of the day, set to {@code true} for changed minutes
+     */
+    public void markChangedMinutes(boolean[] changed) {
+        for (int i = 0; i < ids.length; i++) {
+            if (oldMinutes[i] != QuoteIndex.NO_MINUTE) {
+                changed[oldMinutes[i]] = true;
+            }
+            if (minutes[i] != QuoteIndex.NO_MINUTE) {
+                changed[minutes[i]] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * In-memory index of all quote ids, grouped by their minute of the day.
+ * <p>
+ * The index is built once from the {@link QuoteSource} and consists of two primitive arrays: an
+ * offset table with one entry per minute of the day (plus one end marker), and a packed array of
+ * quote ids sorted by minute. All quotes for minute {@code m} are therefore found between
+ * {@code offsets[m]} and {@code offsets[m + 1]} in the {@code ids} array, without ever having to
+ * query the quote source for it.
+ * <p>
+ * Since the data set has gaps, a third table maps every minute of the day to the nearest earlier
+ * minute (wrapping past midnight) that has quotes, so a quote to display is always found in
+ * constant time, regardless of how long the gap is.
+ */
+public class QuoteIndex {
+    /** Number of minutes in a day, and therefore number of slots in the index */
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    /** Value returned when no quote exists for a requested minute */
+    public static final long NO_QUOTE = -1;
+    /** Value returned when no minute with quotes exists at all */
+    public static final int NO_MINUTE = -1;
+
+    /** Index file format identifier, "PZQI" */
+    private static final int FILE_MAGIC = 0x505a5149;
+    private static final int FILE_VERSION = 1;
+
+    /** Start offset into {@link #ids} for each minute of the day, plus end marker */
+    private final int[] offsets;
+    /** Quote ids, sorted by their minute of the day */
+    private final int[] ids;
+    /** Nearest minute of the day with quotes, at or before each minute of the day */
+    private final short[] gapFill;
+
+    /**
+     * Creates a new {@code QuoteIndex} from the given offset table and packed id array.
+     *
+     * @param offsets Offset table, {@link #MINUTES_PER_DAY} + 1 entries
+     * @param ids Quote ids, sorted by minute
+     */
+    private QuoteIndex(int[] offsets, int[] ids) {
+        this(offsets, ids, buildGapFill(offsets));
+    }
+
+    /**
+     * Creates a new {@code QuoteIndex} from the given tables, e.g. as read from a
+     * {@link QuotePack}, which has the gap fill table already precomputed.
+     *
+     * @param offsets Offset table, {@link #MINUTES_PER_DAY} + 1 entries
+     * @param ids Quote ids, sorted by minute
+     * @param gapFill Gap fill table, {@link #MINUTES_PER_DAY} entries
+     */
+    public QuoteIndex(int[] offsets, int[] ids, short[] gapFill) {
+        this.offsets = offsets;
+        this.ids = ids;
+        this.gapFill = gapFill;
+    }
+
+    /**
+     * Builds the gap fill table from the given offset table. Every minute of the day is mapped to
+     * itself if it has quotes, or to the nearest earlier minute with quotes otherwise. Minutes
+     * before the first covered minute of the day wrap around to the last covered minute of the
+     * previous day. If there are no quotes at all, every entry is {@link #NO_MINUTE}.
+     *
+     * @param offsets Offset table, {@link #MINUTES_PER_DAY} + 1 entries
+     * @return Gap fill table with {@link #MINUTES_PER_DAY} entries
+     */
+    private static short[] buildGapFill(int[] offsets) {
+        short[] gapFill = new short[MINUTES_PER_DAY];
+
+        // start with the last covered minute of the day to wrap around midnight
+        int lastCovered = NO_MINUTE;
+        for (int minute = MINUTES_PER_DAY - 1; minute >= 0 && lastCovered == NO_MINUTE; minute--) {
+            if (offsets[minute + 1] > offsets[minute]) {
+                lastCovered = minute;
+            }
+        }
+
+        for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+            if (offsets[minute + 1] > offsets[minute]) {
+                lastCovered = minute;
+            }
+            gapFill[minute] = (short) lastCovered;
+        }
+
+        return gapFill;
+    }
+
+    /**
+     * Builds the index from the given quote minutes and ids, e.g. as read from the quote
+     * database. The quotes must be sorted by minute, so the offset table can be filled in a
+     * single pass. As the quote data itself is read-only, the index stays valid for as long as
+     * its quote source is used.
+     *
+     * @param minutes Minute of the day of each quote, in ascending order
+     * @param ids Id of each quote
+     * @param count Number of quotes to use from the given arrays
+     * @return New {@code QuoteIndex}
+     * @throws IllegalArgumentException If a minute is out of range or the minutes aren't sorted
+     */
+    public static QuoteIndex build(int[] minutes, int[] ids, int count) {
+        int[] offsets = new int[MINUTES_PER_DAY + 1];
+        int minute = 0;
+
+        for (int position = 0; position < count; position++) {
+            int quoteMinute = minutes[position];
+            if (quoteMinute < minute || quoteMinute >= MINUTES_PER_DAY) {
+                throw new IllegalArgumentException("Quote " + ids[position]
+                        + " has invalid or unsorted minute " + quoteMinute);
+            }
+
+            while (minute < quoteMinute) {
+                offsets[++minute] = position;
+            }
+        }
+
+        while (minute < MINUTES_PER_DAY) {
+            offsets[++minute] = count;
+        }
+
+        int[] packed = new int[count];
+        System.arraycopy(ids, 0, packed, 0, count);
+        return new QuoteIndex(offsets, packed);
+    }
+
+    /**
+     * Reads the index from the given stream, as written by the {@code compileCorpus} build for a
+     * sharded corpus: the offset table, the quote ids sorted by minute and the gap fill table.
+     * The stream is left open.
+     *
+     * @param stream Stream to read from
+     * @return New {@code QuoteIndex}
+     * @throws IOException If reading failed or the stream doesn't hold a supported index
+     */
+    public static QuoteIndex read(InputStream stream) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(stream));
+        if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+            throw new IOException("Unsupported quote index format");
+        }
+
+        int count = input.readInt();
+        int[] offsets = new int[MINUTES_PER_DAY + 1];
+        for (int minute = 0; minute <= MINUTES_PER_DAY; minute++) {
+            offsets[minute] = input.readInt();
+        }
+        if (offsets[0] != 0 || offsets[MINUTES_PER_DAY] != count) {
+            throw new IOException("Corrupt quote index offsets");
+        }
+
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = input.readInt();
+        }
+
+        short[] gapFill = new short[MINUTES_PER_DAY];
+        for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+            gapFill[minute] = input.readShort();
+        }
+        return new QuoteIndex(offsets, ids, gapFill);
+    }
+
+    /**
+     * Get the number of quotes available for the given minute of the day.
+     *
+     * @param minuteOfDay Minute of the day
+     * @return Number of quotes for the given minute, {@code 0} if there are none
+     */
+    public int getQuoteCount(int minuteOfDay) {
+        return offsets[minuteOfDay + 1] - offsets[minuteOfDay];
+    }
+
+    /**
+     * Resolve the given minute of the day to the minute whose quotes should be displayed. This is
+     * the minute itself if it has quotes, or the nearest earlier one with quotes otherwise.
+     *
+     * @param minuteOfDay Minute of the day
+     * @return Minute of the day with quotes, or {@link #NO_MINUTE} if there are no quotes at all
+     */
+    public int resolveMinute(int minuteOfDay) {
+        return gapFill[minuteOfDay];
+    }
+
+    /**
+     * Get the n-th quote id of the given minute of the day.
+     *
+     * @param minuteOfDay Minute of the day
+     * @param n Position within the minute's quotes, from {@code 0} to
+     *          {@link #getQuoteCount(int)} - 1
+     * @return Quote id
+     */
+    public long getQuoteId(int minuteOfDay, int n) {
+        return ids[offsets[minuteOfDay] + n];
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only access to the binary quote pack, memory-mapped straight from the APK or a file.
+ * <p>
+ * The pack is created by the {@code compileCorpus} build task and holds the same data as the
+ * quote database in a layout meant to be used as is: a header with the section positions, the
+ * minute offset table with the records in minute order, the gap fill table, fixed size quote records
+ * sorted by id, a dictionary of the distinct authors and books, and the length-prefixed UTF-8
+ * strings. Nothing is decoded up front, a quote's strings are only materialised when the quote
+ * itself is requested. Authors and books repeat a lot, so their decoded strings are kept once
+ * decoded. All values are big-endian.
+ * <p>
+ * Packs built with compressed texts keep the quote texts in one block per hour instead, each
+ * deflated with a preset dictionary shared by all blocks. A text is decoded from its hour's
+ * block, which is inflated on first use and kept in a small cache of the most recently used
+ * blocks, so the quotes of the current and the next hour are decoded once, and the decoded blocks
+ * are reused for the next ones.
+ */
+public class QuotePack {
+    /** Pack asset file name */
+    public static final String PACK_NAME = "quotes.pack";
+
+    /** File format identifier, "PZQP" */
+    private static final int MAGIC = 0x505a5150;
+    private static final int VERSION = 1;
+    /** Format version with the quote texts compressed in blocks */
+    private static final int VERSION_COMPRESSED = 2;
+
+    private static final int HEADER_QUOTE_COUNT = 8;
+    private static final int HEADER_DICTIONARY_COUNT = 12;
+    private static final int HEADER_MINUTE_TABLE = 16;
+    private static final int HEADER_GAP_FILL = 20;
+    private static final int HEADER_RECORDS = 24;
+    private static final int HEADER_DICTIONARY = 28;
+    private static final int HEADER_TEXT_DICTIONARY = 36;
+    private static final int HEADER_TEXT_BLOCKS = 40;
+
+    /** Size of a single quote record */
+    private static final int RECORD_SIZE = 16;
+    private static final int RECORD_ID = 0;
+    private static final int RECORD_MINUTE = 4;
+    private static final int RECORD_AUTHOR = 6;
+    private static final int RECORD_BOOK = 8;
+    private static final int RECORD_TEXT = 12;
+
+    /** Number of quote text blocks, one per hour */
+    private static final int TEXT_BLOCKS = 24;
+    private static final int MINUTES_PER_TEXT_BLOCK = QuoteIndex.MINUTES_PER_DAY / TEXT_BLOCKS;
+    private static final int TEXT_BLOCK_ENTRY_SIZE = 12;
+    private static final int TEXT_BLOCK_POSITION = 0;
+    private static final int TEXT_BLOCK_LENGTH = 4;
+    private static final int TEXT_BLOCK_DECODED_LENGTH = 8;
+    /** Number of decoded text blocks kept */
+    private static final int DECODED_BLOCKS = 2;
+    private static final int NO_BLOCK = -1;
+
+    private final ByteBuffer buffer;
+    /** Reader for bulk copies out of the buffer, guarded by itself */
+    private final ByteBuffer reader;
+    /** Copy of the string being decoded, guarded by {@link #reader} */
+    private byte[] scratch = new byte[256];
+    /** Decoded dictionary entries, filled in on first use */
+    private final String[] dictionary;
+    private final int quoteCount;
+    private final int minuteTablePos;
+    private final int gapFillPos;
+    private final int recordsPos;
+    private final int dictionaryPos;
+
+    /** Position of the text block table, {@code 0} if the texts aren't compressed */
+    private final int textBlocksPos;
+    /** Preset dictionary of the text blocks, read on first use */
+    private byte[] textDictionary;
+    /** Inflater of the text blocks, guarded by {@link #reader} like the rest below */
+    private Inflater inflater;
+    /** Copy of the text block being inflated */
+    private byte[] compressedScratch;
+    /** Decoded text blocks, {@link #NO_BLOCK} for unused slots */
+    private final int[] decodedBlockIds = new int[DECODED_BLOCKS];
+    private final byte[][] decodedBlocks = new byte[DECODED_BLOCKS][];
+    /** Last use of each decoded block slot, to find the least recently used one */
+    private final long[] decodedLastUsed = new long[DECODED_BLOCKS];
+    private long useCounter;
+    private int decodedBlockCount;
+
+    /**
+     * Creates a new {@code QuotePack} reading from the given buffer.
+     *
+     * @param buffer Buffer holding the whole pack
+     * @throws IOException If the buffer doesn't hold a supported pack
+     */
+    public QuotePack(ByteBuffer buffer) throws IOException {
+        int version = buffer.getInt(4);
+        if (buffer.getInt(0) != MAGIC || (version != VERSION && version != VERSION_COMPRESSED)) {
+            throw new IOException("Unsupported quote pack format");
+        }
+
+        this.buffer = buffer;
+        quoteCount = buffer.getInt(HEADER_QUOTE_COUNT);
+        minuteTablePos = buffer.getInt(HEADER_MINUTE_TABLE);
+        gapFillPos = buffer.getInt(HEADER_GAP_FILL);
+        recordsPos = buffer.getInt(HEADER_RECORDS);
+        dictionaryPos = buffer.getInt(HEADER_DICTIONARY);
+        dictionary = new String[buffer.getInt(HEADER_DICTIONARY_COUNT)];
+        reader = buffer.duplicate();
+
+        if (version == VERSION_COMPRESSED) {
+            textBlocksPos = buffer.getInt(HEADER_TEXT_BLOCKS);
+            for (int block = 0; block < TEXT_BLOCKS; block++) {
+                int entry = textBlocksPos + TEXT_BLOCK_ENTRY_SIZE * block;
+                long end = (long) buffer.getInt(entry + TEXT_BLOCK_POSITION)
+                        + buffer.getInt(entry + TEXT_BLOCK_LENGTH);
+                if (end > buffer.limit() || buffer.getInt(entry + TEXT_BLOCK_DECODED_LENGTH) < 0) {
+                    throw new IOException("Corrupt quote pack text blocks");
+                }
+            }
+        } else {
+            textBlocksPos = 0;
+        }
+        Arrays.fill(decodedBlockIds, NO_BLOCK);
+    }
+
+    /**
+     * Maps the quote pack from the given file.
+     *
+     * @param file Quote pack file
+     * @return Mapped {@code QuotePack}
+     * @throws IOException If the file can't be read or isn't a supported pack
+     */
+    public static QuotePack map(File file) throws IOException {
+        try (FileInputStream input = new FileInputStream(file)) {
+            FileChannel channel = input.getChannel();
+            return new QuotePack(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Get the number of quotes in the pack.
+     *
+     * @return Quote count
+     */
+    public int getQuoteCount() {
+        return quoteCount;
+    }
+
+    /**
+     * Check whether the quote texts are compressed in blocks.
+     *
+     * @return {@code true} if the texts are compressed
+     */
+    public boolean isTextCompressed() {
+        return textBlocksPos != 0;
+    }
+
+    /**
+     * Get the number of text blocks inflated so far. A text block is only inflated again once
+     * it dropped out of the decoded block cache.
+     *
+     * @return Number of inflated text blocks, {@code 0} if the texts aren't compressed
+     */
+    public int getDecodedBlockCount() {
+        synchronized (reader) {
+            return decodedBlockCount;
+        }
+    }
+
+    /**
+     * Get the memory held by the decoded text blocks.
+     *
+     * @return Size of the decoded text blocks in bytes
+     */
+    public int getDecodedBlockBytes() {
+        synchronized (reader) {
+            int bytes = 0;
+            for (byte[] block : decodedBlocks) {
+                bytes += block != null ? block.length : 0;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Builds the {@link QuoteIndex} from the pack's minute offset and gap fill tables.
+     *
+     * @return New {@code QuoteIndex}
+     */
+    public QuoteIndex buildIndex() {
+        int[] offsets = new int[QuoteIndex.MINUTES_PER_DAY + 1];
+        for (int minute = 0; minute <= QuoteIndex.MINUTES_PER_DAY; minute++) {
+            offsets[minute] = buffer.getInt(minuteTablePos + 4 * minute);
+        }
+
+        int minuteOrderPos = minuteTablePos + 4 * (QuoteIndex.MINUTES_PER_DAY + 1);
+        int[] ids = new int[quoteCount];
+        for (int i = 0; i < quoteCount; i++) {
+            int record = buffer.getInt(minuteOrderPos + 4 * i);
+            ids[i] = buffer.getInt(recordsPos + RECORD_SIZE * record + RECORD_ID);
+        }
+
+        short[] gapFill = new short[QuoteIndex.MINUTES_PER_DAY];
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            gapFill[minute] = buffer.getShort(gapFillPos + 2 * minute);
+        }
+
+        return new QuoteIndex(offsets, ids, gapFill);
+    }
+
+    /**
+     * Find the record of the quote with the given id. Records are sorted by id, so this is a
+     * binary search over the fixed size records.
+     *
+     * @param quoteId Quote id
+     * @return Record number, or {@code -1} if there's no quote with the given id
+     */
+    public int findRecord(long quoteId) {
+        int low = 0;
+        int high = quoteCount - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = getId(middle);
+            if (id < quoteId) {
+                low = middle + 1;
+            } else if (id > quoteId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the id of the quote in the given record.
+     *
+     * @param record Record number
+     * @return Quote id
+     */
+    public int getId(int record) {
+        return buffer.getInt(recordsPos + RECORD_SIZE * record + RECORD_ID);
+    }
+
+    /**
+     * Get the minute of the day of the quote in the given record.
+     *
+     * @param record Record number
+     * @return Quote's minute of the day
+     */
+    public int getMinute(int record) {
+        return buffer.getShort(recordsPos + RECORD_SIZE * record + RECORD_MINUTE);
+    }
+
+    /**
+     * Decodes the text of the quote in the given record.
+     *
+     * @param record Record number
+     * @return Quote text
+     */
+    public String getText(int record) {
+        int position = buffer.getInt(recordsPos + RECORD_SIZE * record + RECORD_TEXT);
+        if (textBlocksPos == 0) {
+            return getString(position);
+        }
+
+        synchronized (reader) {
+            byte[] block = getDecodedBlock(getMinute(record) / MINUTES_PER_TEXT_BLOCK);
+            int length = (block[position] & 0xff) << 24 | (block[position + 1] & 0xff) << 16
+                    | (block[position + 2] & 0xff) << 8 | (block[position + 3] & 0xff);
+            return new String(block, position + 4, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Decodes the author of the quote in the given record from the dictionary.
+     *
+     * @param record Record number
+     * @return Quote author
+     */
+    public String getAuthor(int record) {
+        return getDictionaryEntry(buffer.getShort(recordsPos + RECORD_SIZE * record + RECORD_AUTHOR));
+    }
+
+    /**
+     * Decodes the book of the quote in the given record from the dictionary.
+     *
+     * @param record Record number
+     * @return Quote book
+     */
+    public String getBook(int record) {
+        return getDictionaryEntry(buffer.getShort(recordsPos + RECORD_SIZE * record + RECORD_BOOK));
+    }
+
+    /**
+     * Get the given dictionary entry, decoding it only the first time it's requested. Decoding
+     * the same entry twice from different threads is harmless, both results are equal.
+     *
+     * @param entry Dictionary entry id
+     * @return Dictionary string
+     */
+    private String getDictionaryEntry(int entry) {
+        String value = dictionary[entry];
+        if (value == null) {
+            value = getString(buffer.getInt(dictionaryPos + 4 * entry));
+            dictionary[entry] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Get the given decoded text block, inflating it into the least recently used slot of the
+     * decoded block cache if it's not cached. The slot's array is reused if it's large enough.
+     * Must be called while synchronized on {@link #reader}.
+     *
+     * @param block Text block number
+     * @return Decoded text block, possibly longer than the block itself
+     */
+    private byte[] getDecodedBlock(int block) {
+        int slot = 0;
+        for (int i = 0; i < DECODED_BLOCKS; i++) {
+            if (decodedBlockIds[i] == block) {
+                decodedLastUsed[i] = ++useCounter;
+                return decodedBlocks[i];
+            }
+            if (decodedLastUsed[i] < decodedLastUsed[slot]) {
+                slot = i;
+            }
+        }
+
+        int entry = textBlocksPos + TEXT_BLOCK_ENTRY_SIZE * block;
+        int position = buffer.getInt(entry + TEXT_BLOCK_POSITION);
+        int length = buffer.getInt(entry + TEXT_BLOCK_LENGTH);
+        int decodedLength = buffer.getInt(entry + TEXT_BLOCK_DECODED_LENGTH);
+        if (compressedScratch == null || compressedScratch.length < length) {
+            compressedScratch = new byte[length];
+        }
+        reader.position(position);
+        reader.get(compressedScratch, 0, length);
+
+        byte[] decoded = decodedBlocks[slot];
+        if (decoded == null || decoded.length < decodedLength) {
+            decoded = new byte[decodedLength];
+        }
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        inflater.reset();
+        inflater.setInput(compressedScratch, 0, length);
+        try {
+            int inflated = 0;
+            while (inflated < decodedLength) {
+                int count = inflater.inflate(decoded, inflated, decodedLength - inflated);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(getTextDictionary());
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new DataFormatException("Text block ends early");
+                    }
+                }
+                inflated += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt quote text block " + block, e);
+        }
+
+        decodedBlocks[slot] = decoded;
+        decodedBlockIds[slot] = block;
+        decodedLastUsed[slot] = ++useCounter;
+        decodedBlockCount++;
+        return decoded;
+    }
+
+    /**
+     * Get the preset dictionary of the text blocks, reading it on first use. Must be called while
+     * synchronized on {@link #reader}.
+     *
+     * @return Preset dictionary
+     */
+    private byte[] getTextDictionary() {
+        if (textDictionary == null) {
+            int position = buffer.getInt(HEADER_TEXT_DICTIONARY);
+            textDictionary = new byte[buffer.getInt(position)];
+            reader.position(position + 4);
+            reader.get(textDictionary);
+        }
+        return textDictionary;
+    }
+
+    /**
+     * Decodes the length-prefixed UTF-8 string at the given position. The bytes are copied into
+     * a reused scratch array first, so the string itself is the only allocation.
+     *
+     * @param position Absolute position of the string's length prefix
+     * @return Decoded string
+     */
+    private String getString(int position) {
+        int length = buffer.getInt(position);
+        synchronized (reader) {
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, 2 * scratch.length)];
+            }
+            reader.position(position + 4);
+            reader.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * No-repeat rotation through each minute's quotes.
+ * <p>
+ * Picking a random quote every time lets the same quote show up day after day, while others of
+ * the same minute are never shown. Instead, every minute walks through a seeded permutation of
+ * its quotes, so every quote of a minute is shown once before any of them repeats. The whole
+ * state is a single seed plus one counter per minute of the day, so it's cheap to persist and
+ * survives the process being killed.
+ * <p>
+ * The permutation is an affine map {@code (a * k + b) mod n} over the minute's {@code n}
+ * quotes, with {@code a} coprime to {@code n}, which hits every position exactly once for
+ * {@code k} from {@code 0} to {@code n - 1}. Both {@code a} and {@code b} are derived from the
+ * seed, the minute and the number of completed cycles, so each cycle runs in a different order.
+ */
+public class QuoteRotation {
+    /** File format identifier, "PZR" followed by the format version */
+    private static final int FILE_MAGIC = 0x505a5201;
+
+    private final long seed;
+    /** Number of quotes already drawn for each minute of the day */
+    private final short[] counters;
+
+    /**
+     * Creates a new {@code QuoteRotation} with the given state.
+     *
+     * @param seed Permutation seed
+     * @param counters Drawn quotes counter for each minute of the day
+     */
+    private QuoteRotation(long seed, short[] counters) {
+        this.seed = seed;
+        this.counters = counters;
+    }
+
+    /**
+     * Creates a fresh rotation with a random seed, with nothing drawn yet.
+     *
+     * @return New {@code QuoteRotation}
+     */
+    public static QuoteRotation create() {
+        return create(new Random().nextLong());
+    }
+
+    /**
+     * Creates a fresh rotation with the given seed, with nothing drawn yet. Rotations with the
+     * same seed choose the same quotes, e.g. to reproduce a simulation run.
+     *
+     * @param seed Permutation seed
+     * @return New {@code QuoteRotation}
+     */
+    public static QuoteRotation create(long seed) {
+        return new QuoteRotation(seed, new short[QuoteIndex.MINUTES_PER_DAY]);
+    }
+
+    /**
+     * Get the position of the next quote to show for the given minute, and advance the minute's
+     * rotation by one.
+     *
+     * @param minuteOfDay Minute of the day
+     * @param count Number of quotes available for the minute, must be greater than {@code 0}
+     * @return Position within the minute's quotes, from {@code 0} to {@code count - 1}
+     */
+    public int next(int minuteOfDay, int count) {
+        int drawn = counters[minuteOfDay];
+        // wrap around at a cycle boundary before the counter overflows
+        int advanced = drawn + 1;
+        counters[minuteOfDay] = (short) (advanced < Short.MAX_VALUE - Short.MAX_VALUE % count ? advanced : 0);
+
+        if (count == 1) {
+            return 0;
+        }
+
+        long hash = mix(seed ^ ((long) minuteOfDay << 32) ^ (drawn / count));
+        int offset = (int) ((hash >>> 1) % count);
+        int factor = 1 + (int) ((hash >>> 33) % (count - 1));
+        while (gcd(factor, count) != 1) {
+            factor++;
+        }
+
+        return (int) (((long) factor * (drawn % count) + offset) % count);
+    }
+
+    /**
+     * Restarts the rotation of the given minute, e.g. after its quotes changed.
+     *
+     * @param minuteOfDay Minute of the day
+     */
+    public void reset(int minuteOfDay) {
+        counters[minuteOfDay] = 0;
+    }
+
+    /**
+     * Reads a rotation previously written with {@link #save(File)}.
+     *
+     * @param file Rotation state file
+     * @return The stored {@code QuoteRotation}, or {@code null} if there is none
+     * @throws IOException If the file can't be read or has an unknown format
+     */
+    public static QuoteRotation load(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != FILE_MAGIC) {
+                throw new IOException("Unknown rotation file format");
+            }
+
+            long seed = input.readLong();
+            short[] counters = new short[QuoteIndex.MINUTES_PER_DAY];
+            for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+                counters[minute] = input.readShort();
+            }
+            return new QuoteRotation(seed, counters);
+        }
+    }
+
+    /**
+     * Writes the rotation state to the given file. A previously stored state is only replaced
+     * once the new one is completely written, see {@link AtomicFiles}.
+     *
+     * @param file Rotation state file
+     * @throws IOException If the file can't be written
+     */
+    public void save(File file) throws IOException {
+        File tmpFile = AtomicFiles.getTempFile(file);
+        try (FileOutputStream stream = new FileOutputStream(tmpFile);
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream))) {
+            output.writeInt(FILE_MAGIC);
+            output.writeLong(seed);
+            for (short counter : counters) {
+                output.writeShort(counter);
+            }
+            output.flush();
+            stream.getFD().sync();
+        }
+        AtomicFiles.replace(tmpFile, file);
+    }
+
+    /**
+     * Scrambles the bits of the given value (SplitMix64 finalizer).
+     *
+     * @param value Value to scramble
+     * @return Scrambled value
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * Greatest common divisor of two positive numbers.
+     *
+     * @param a First number
+     * @param b Second number
+     * @return Greatest common divisor of {@code a} and {@code b}
+     */
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
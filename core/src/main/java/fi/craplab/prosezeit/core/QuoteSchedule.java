@@ -0,0 +1,230 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.TimeZone;
+
+/**
+ * The quotes to show for every minute of one day.
+ * <p>
+ * Instead of picking a random quote every time the alarm goes off, the whole day is planned in
+ * one go from the {@link QuoteIndex}, including the minutes without own quotes, which get the
+ * quote of the nearest earlier minute. Each tick is then a single array lookup followed by a
+ * primary key fetch. Which of a minute's quotes is chosen is up to the {@link QuoteRotation}, and
+ * the result is persisted in a compact binary file, so a day's output is stable across process
+ * restarts and can be inspected for debugging.
+ */
+public class QuoteSchedule {
+    /** File format identifier, "PZS" followed by the format version */
+    private static final int FILE_MAGIC = 0x505a5301;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final long MINUTE_MILLIS = 60 * 1000;
+
+    /**
+     * Time zone days and minutes of the day are local to. {@link TimeZone#getDefault()} returns
+     * a new copy every time, so it's only read again when the time zone changed.
+     */
+    private static volatile TimeZone timeZone = TimeZone.getDefault();
+
+    /** Day the schedule is made for, as local days since the epoch */
+    public final int day;
+    /** Quote id to display for each minute of the day */
+    private final int[] quoteIds;
+
+    /**
+     * Creates a new {@code QuoteSchedule} with the given quote ids.
+     *
+     * @param day Local days since epoch the schedule is for
+     * @param quoteIds Quote id for each minute of the day
+     */
+    private QuoteSchedule(int day, int[] quoteIds) {
+        this.day = day;
+        this.quoteIds = quoteIds;
+    }
+
+    /**
+     * Get the day of the given time as number of days since the epoch in the local time zone,
+     * matching the {@link #day} of the schedule to use at that time.
+     *
+     * @param time Time in milliseconds since the epoch
+     * @return Local day of the given time
+     */
+    public static int getDay(long time) {
+        return (int) ((time + timeZone.getOffset(time)) / DAY_MILLIS);
+    }
+
+    /**
+     * Get the minute of the day of the given time in the local time zone.
+     *
+     * @param time Time in milliseconds since the epoch
+     * @return Local minute of the day, from {@code 0} to {@link QuoteIndex#MINUTES_PER_DAY} - 1
+     */
+    public static int getMinuteOfDay(long time) {
+        long localTime = time + timeZone.getOffset(time);
+        return (int) ((localTime % DAY_MILLIS) / MINUTE_MILLIS);
+    }
+
+    /**
+     * Reads the system's default time zone again, after it changed.
+     */
+    public static void updateTimeZone() {
+        timeZone = TimeZone.getDefault();
+    }
+
+    /**
+     * Plans the given day in a single pass over the {@link QuoteIndex}. One quote is chosen for
+     * every minute that has quotes by advancing its {@link QuoteRotation}, and every other minute
+     * re-uses the choice of the minute it resolves to, so gaps keep displaying the same quote
+     * until the next time with own quotes.
+     *
+     * @param index Quote index to plan with
+     * @param rotation Quote rotation to choose each minute's quote from
+     * @param day Local days since epoch to plan for
+     * @return New {@code QuoteSchedule}
+     */
+    public static QuoteSchedule create(QuoteIndex index, QuoteRotation rotation, int day) {
+        int[] quoteIds = new int[QuoteIndex.MINUTES_PER_DAY];
+
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            int count = index.getQuoteCount(minute);
+            quoteIds[minute] = count > 0
+                    ? (int) index.getQuoteId(minute, rotation.next(minute, count))
+                    : (int) QuoteIndex.NO_QUOTE;
+        }
+
+        fillGaps(index, quoteIds);
+        return new QuoteSchedule(day, quoteIds);
+    }
+
+    /**
+     * Plans the given minutes of this schedule's day again after their quotes changed, e.g. by
+     * a {@link QuoteChangeset}. Every other minute with own quotes keeps its choice, the gaps
+     * are filled in again, as they may have moved.
+     *
+     * @param index Quote index with the changed quotes
+     * @param rotation Quote rotation to choose the changed minutes' quotes from
+     * @param changed Flag for each minute of the day, {@code true} if its quotes changed
+     * @return New {@code QuoteSchedule} for the same day
+     */
+    public QuoteSchedule update(QuoteIndex index, QuoteRotation rotation, boolean[] changed) {
+        int[] quoteIds = this.quoteIds.clone();
+
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            if (changed[minute]) {
+                int count = index.getQuoteCount(minute);
+                quoteIds[minute] = count > 0
+                        ? (int) index.getQuoteId(minute, rotation.next(minute, count))
+                        : (int) QuoteIndex.NO_QUOTE;
+            }
+        }
+
+        fillGaps(index, quoteIds);
+        return new QuoteSchedule(day, quoteIds);
+    }
+
+    /**
+     * Sets every minute without own quotes to the choice of the minute it resolves to, so gaps
+     * keep displaying the same quote until the next time with own quotes.
+     *
+     * @param index Quote index the choices were made from
+     * @param quoteIds Chosen quote id for each minute of the day, filled in place
+     */
+    private static void fillGaps(QuoteIndex index, int[] quoteIds) {
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            int resolved = index.resolveMinute(minute);
+            if (resolved != minute) {
+                quoteIds[minute] = resolved != QuoteIndex.NO_MINUTE
+                        ? quoteIds[resolved]
+                        : (int) QuoteIndex.NO_QUOTE;
+            }
+        }
+    }
+
+    /**
+     * Get the id of the quote to display at the given minute of the day.
+     *
+     * @param minuteOfDay Minute of the day
+     * @return Quote id, or {@link QuoteIndex#NO_QUOTE} if there are no quotes at all
+     */
+    public long getQuoteId(int minuteOfDay) {
+        return quoteIds[minuteOfDay];
+    }
+
+    /**
+     * Reads a schedule previously written with {@link #save(File)}.
+     *
+     * @param file Schedule file
+     * @return The stored {@code QuoteSchedule}, or {@code null} if there is none
+     * @throws IOException If the file can't be read or has an unknown format
+     */
+    public static QuoteSchedule load(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != FILE_MAGIC) {
+                throw new IOException("Unknown schedule file format");
+            }
+
+            int day = input.readInt();
+            int[] quoteIds = new int[QuoteIndex.MINUTES_PER_DAY];
+            for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+                quoteIds[minute] = input.readInt();
+            }
+            return new QuoteSchedule(day, quoteIds);
+        }
+    }
+
+    /**
+     * Writes the schedule to the given file. A previously stored schedule is only replaced once
+     * the new one is completely written, see {@link AtomicFiles}.
+     *
+     * @param file Schedule file
+     * @throws IOException If the file can't be written
+     */
+    public void save(File file) throws IOException {
+        File tmpFile = AtomicFiles.getTempFile(file);
+        try (FileOutputStream stream = new FileOutputStream(tmpFile);
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream))) {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(day);
+            for (int quoteId : quoteIds) {
+                output.writeInt(quoteId);
+            }
+            output.flush();
+            stream.getFD().sync();
+        }
+        AtomicFiles.replace(tmpFile, file);
+    }
+}
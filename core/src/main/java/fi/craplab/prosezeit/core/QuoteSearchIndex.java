@@ -0,0 +1,308 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Read-only full-text search over the text, author and book of the quotes, memory-mapped straight
+ * from the APK or a file.
+ * <p>
+ * The index is created by the {@code CompileCorpusTask} build task with its {@code searchIndex}
+ * option set, as an inverted index: a header, the table of all distinct words sorted by their
+ * UTF-8 bytes, the posting lists of each word with the ids of the quotes containing it, and the
+ * length-prefixed UTF-8 words themselves.
+ * Every posting also tells in which of the fields the word appears, so a search can be limited to
+ * authors or books. Words are lower case and without diacritics, split at anything that isn't a
+ * letter or digit, see {@link #getWords(String)}. All values are big-endian.
+ * <p>
+ * Each word of a query matches all indexed words starting with it, so results show up while
+ * typing, and a quote has to match all words of the query. Searching only reads the word table
+ * and the postings, the quotes themselves are fetched by id from the {@link QuoteSource} for the
+ * results actually shown.
+ */
+public class QuoteSearchIndex {
+    /** Search index asset file name */
+    public static final String SEARCH_NAME = "quotes.search";
+
+    /** Search the quote text */
+    public static final int FIELD_TEXT = 1;
+    /** Search the quote author */
+    public static final int FIELD_AUTHOR = 2;
+    /** Search the quote book */
+    public static final int FIELD_BOOK = 4;
+    /** Search all fields */
+    public static final int ALL_FIELDS = FIELD_TEXT | FIELD_AUTHOR | FIELD_BOOK;
+
+    /** File format identifier, "PZQS" */
+    private static final int MAGIC = 0x505a5153;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_MAX_ID = 8;
+    private static final int HEADER_WORD_COUNT = 12;
+    private static final int HEADER_WORDS = 16;
+    private static final int HEADER_POSTINGS = 20;
+
+    /** Size of a single word table entry */
+    private static final int WORD_SIZE = 12;
+    private static final int WORD_STRING = 0;
+    private static final int WORD_POSTINGS = 4;
+    private static final int WORD_POSTING_COUNT = 8;
+
+    /** Number of low bits of a posting holding its fields, the quote id is above them */
+    private static final int FIELD_BITS = 3;
+
+    private final ByteBuffer buffer;
+    private final int maxId;
+    private final int wordCount;
+    private final int wordsPos;
+    private final int postingsPos;
+
+    /**
+     * Result page of a search.
+     */
+    public static class Page {
+        private final long[] ids;
+        private final int totalCount;
+
+        /**
+         * Creates a new {@code Page}.
+         *
+         * @param ids Ids of the quotes on this page
+         * @param totalCount Number of quotes matching the search on all pages
+         */
+        public Page(long[] ids, int totalCount) {
+            this.ids = ids;
+            this.totalCount = totalCount;
+        }
+
+        /**
+         * Get the ids of the quotes on this page, in ascending order.
+         *
+         * @return Quote ids
+         */
+        public long[] getIds() {
+            return ids;
+        }
+
+        /**
+         * Get the number of quotes matching the search, on all pages together.
+         *
+         * @return Total result count
+         */
+        public int getTotalCount() {
+            return totalCount;
+        }
+    }
+
+    /**
+     * Creates a new {@code QuoteSearchIndex} reading from the given buffer.
+     *
+     * @param buffer Buffer holding the whole search index
+     * @throws IOException If the buffer doesn't hold a supported search index
+     */
+    public QuoteSearchIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported search index format");
+        }
+
+        this.buffer = buffer;
+        maxId = buffer.getInt(HEADER_MAX_ID);
+        wordCount = buffer.getInt(HEADER_WORD_COUNT);
+        wordsPos = buffer.getInt(HEADER_WORDS);
+        postingsPos = buffer.getInt(HEADER_POSTINGS);
+    }
+
+    /**
+     * Maps the search index from the given file.
+     *
+     * @param file Search index file
+     * @return Mapped {@code QuoteSearchIndex}
+     * @throws IOException If the file can't be read or isn't a supported search index
+     */
+    public static QuoteSearchIndex map(File file) throws IOException {
+        try (FileInputStream input = new FileInputStream(file)) {
+            FileChannel channel = input.getChannel();
+            return new QuoteSearchIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Get the number of distinct words in the index.
+     *
+     * @return Word count
+     */
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Splits the given text into the words as they're indexed: lower case, with the diacritics
+     * removed, and split at every character that's not a letter or a digit. The build task
+     * splits the quotes the very same way.
+     *
+     * @param text Text to split
+     * @return Words of the text, in order of appearance
+     */
+    public static List<String> getWords(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+
+        for (int i = 0; i <= decomposed.length(); i++) {
+            char c = i < decomposed.length() ? decomposed.charAt(i) : ' ';
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                words.add(word.toString().toLowerCase(Locale.ROOT));
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Searches the given fields of all quotes for the words of the given query, and returns the
+     * requested page of the matching quote ids. Quotes are in ascending id order, so pages stay
+     * the same between calls for the same query.
+     *
+     * @param query Search query, each of its words matches the indexed words starting with it
+     * @param fields Fields to search, any combination of {@link #FIELD_TEXT},
+     *               {@link #FIELD_AUTHOR} and {@link #FIELD_BOOK}
+     * @param offset Number of matching quotes to skip
+     * @param limit Maximum number of quote ids to return
+     * @return Page of matching quote ids, empty if the query has no words
+     */
+    public Page search(String query, int fields, int offset, int limit) {
+        List<String> words = getWords(query);
+        if (words.isEmpty()) {
+            return new Page(new long[0], 0);
+        }
+
+        // number of query words each quote matched so far, a quote missing a word drops out
+        int[] matches = new int[maxId + 1];
+        for (int i = 0; i < words.size(); i++) {
+            byte[] prefix = words.get(i).getBytes(StandardCharsets.UTF_8);
+            int first = findWord(prefix, false);
+            int end = findWord(prefix, true);
+            if (first == end) {
+                return new Page(new long[0], 0);
+            }
+
+            for (int word = first; word < end; word++) {
+                int entry = wordsPos + WORD_SIZE * word;
+                int position = postingsPos + 4 * buffer.getInt(entry + WORD_POSTINGS);
+                int count = buffer.getInt(entry + WORD_POSTING_COUNT);
+                for (int last = position + 4 * count; position < last; position += 4) {
+                    int posting = buffer.getInt(position);
+                    int id = posting >>> FIELD_BITS;
+                    if ((posting & fields) != 0 && matches[id] == i) {
+                        matches[id] = i + 1;
+                    }
+                }
+            }
+        }
+
+        long[] page = new long[Math.max(0, limit)];
+        int pageCount = 0;
+        int total = 0;
+        for (int id = 0; id <= maxId; id++) {
+            if (matches[id] == words.size()) {
+                if (total >= offset && pageCount < page.length) {
+                    page[pageCount++] = id;
+                }
+                total++;
+            }
+        }
+
+        if (pageCount < page.length) {
+            long[] shortPage = new long[pageCount];
+            System.arraycopy(page, 0, shortPage, 0, pageCount);
+            page = shortPage;
+        }
+        return new Page(page, total);
+    }
+
+    /**
+     * Binary search for the given word in the word table.
+     *
+     * @param prefix UTF-8 bytes of the word
+     * @param pastPrefix {@code true} to find the first word past all words starting with the
+     *                   given one, {@code false} to find the first word not smaller than it
+     * @return Word table position
+     */
+    private int findWord(byte[] prefix, boolean pastPrefix) {
+        int low = 0;
+        int high = wordCount;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareWord(middle, prefix, pastPrefix);
+            if (comparison < 0 || (pastPrefix && comparison == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the bytes of the given indexed word to the given bytes, without decoding it.
+     *
+     * @param word Word table position
+     * @param bytes UTF-8 bytes to compare to
+     * @param prefixOnly {@code true} to consider the word equal if it starts with the bytes
+     * @return Negative, zero or positive if the word sorts before, equal to or after the bytes
+     */
+    private int compareWord(int word, byte[] bytes, boolean prefixOnly) {
+        int position = buffer.getInt(wordsPos + WORD_SIZE * word + WORD_STRING);
+        int length = buffer.getInt(position);
+        int common = Math.min(length, bytes.length);
+
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(position + 4 + i) & 0xff) - (bytes[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        if (prefixOnly && length >= bytes.length) {
+            return 0;
+        }
+        return length - bytes.length;
+    }
+}
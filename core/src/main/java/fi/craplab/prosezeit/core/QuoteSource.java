@@ -0,0 +1,58 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+/**
+ * Read-only source of the quote data, independent of where and how the quotes are stored.
+ * <p>
+ * All minute lookup, gap handling and rotation is done on the {@link QuoteIndex} and
+ * {@link QuoteSchedule} built from a source, so a source itself only has to list its quotes once
+ * and fetch single quotes by id afterwards. The quote type is up to the implementation, so the
+ * app can hand out its own quote model while the simulator gets by with plain values.
+ *
+ * @param <Q> Quote type
+ */
+public interface QuoteSource<Q> {
+    /**
+     * Builds the {@link QuoteIndex} of all quotes in this source. Meant to be called once, from a
+     * background thread, as it may have to read through all quotes.
+     *
+     * @return New {@code QuoteIndex}
+     */
+    QuoteIndex buildIndex();
+
+    /**
+     * Get the quote with the given id.
+     *
+     * @param quoteId Quote's primary key id
+     * @return Quote with the given id, or {@code null} if there is no such quote, or it can't be
+     *         read right now without blocking, e.g. while its data is opened in the background
+     */
+    Q getQuote(long quoteId);
+
+    /**
+     * Releases the resources held by the source. The source can't be used anymore afterwards.
+     */
+    void close();
+}
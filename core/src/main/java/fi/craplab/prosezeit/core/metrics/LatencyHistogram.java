@@ -0,0 +1,150 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed power-of-two buckets.
+ * <p>
+ * Bucket {@code 0} counts zero durations, bucket {@code n} the ones from {@code 2^(n-1)} up to
+ * {@code 2^n - 1} microseconds, and the last bucket everything above. That's coarse, but it's
+ * enough to tell a 2ms lookup from a 20ms one, and recording a value is just a few atomic
+ * increments, without any locking or allocation.
+ */
+public class LatencyHistogram {
+    /** Number of buckets, the last one collects everything from about 18 minutes up */
+    public static final int BUCKET_COUNT = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records the given duration. Negative durations are recorded as zero.
+     *
+     * @param micros Duration in microseconds
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+
+        buckets.incrementAndGet(getBucket(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Get the number of recorded durations.
+     *
+     * @return Recorded count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get the average of all recorded durations.
+     *
+     * @return Mean duration in microseconds, {@code 0} if nothing was recorded
+     */
+    public double getMean() {
+        long n = count.get();
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+
+    /**
+     * Get the longest recorded duration.
+     *
+     * @return Maximum duration in microseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the number of durations recorded in the given bucket.
+     *
+     * @param bucket Bucket number, from {@code 0} to {@link #BUCKET_COUNT} - 1
+     * @return Bucket count
+     */
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    /**
+     * Get an estimate of the given percentile, as the upper limit of the bucket it falls into,
+     * but no more than the maximum recorded duration.
+     *
+     * @param percentile Percentile, from {@code 0} to {@code 100}
+     * @return Percentile estimate in microseconds, {@code 0} if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            total += buckets.get(bucket);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= rank) {
+                return Math.min(getBucketLimit(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Get the bucket the given duration is counted in.
+     *
+     * @param micros Non-negative duration in microseconds
+     * @return Bucket number
+     */
+    static int getBucket(long micros) {
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Get the largest duration counted in the given bucket.
+     *
+     * @param bucket Bucket number
+     * @return Upper bucket limit in microseconds
+     */
+    public static long getBucketLimit(int bucket) {
+        return bucket < BUCKET_COUNT - 1 ? (1L << bucket) - 1 : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Preallocated ring buffer of timestamped metric samples.
+ * <p>
+ * Any thread can add samples without locking or allocating: a sample claims the next sequence
+ * number, and its slot is marked as being written until the sample is complete. Once the buffer
+ * is full, the oldest samples are overwritten. A single reader drains the samples added since
+ * its last position, skipping the ones that got overwritten before it got to them, and stopping
+ * at the first one still being written.
+ */
+public class SampleRing {
+    /** Slot sequence of a sample being written */
+    private static final long WRITING = -1;
+
+    /**
+     * Receives the samples drained from the ring.
+     */
+    public interface Reader {
+        /**
+         * Called for each drained sample, oldest first.
+         *
+         * @param time Time the sample was taken, in milliseconds since the epoch
+         * @param metric Metric the sample belongs to
+         * @param value Sample value
+         * @throws IOException If processing the sample failed
+         */
+        void onSample(long time, int metric, long value) throws IOException;
+    }
+
+    private final int mask;
+    /** Sequence number of the sample in each slot */
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray times;
+    private final AtomicIntegerArray metrics;
+    private final AtomicLongArray values;
+    /** Sequence number of the next sample */
+    private final AtomicLong next = new AtomicLong();
+    private long dropped;
+
+    /**
+     * Creates a new {@code SampleRing} with the given capacity.
+     *
+     * @param capacity Number of samples kept, a power of two
+     */
+    public SampleRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity not a power of two: " + capacity);
+        }
+
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        times = new AtomicLongArray(capacity);
+        metrics = new AtomicIntegerArray(capacity);
+        values = new AtomicLongArray(capacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            sequences.set(slot, WRITING);
+        }
+    }
+
+    /**
+     * Adds a sample, overwriting the oldest one if the ring is full.
+     *
+     * @param time Time the sample was taken, in milliseconds since the epoch
+     * @param metric Metric the sample belongs to
+     * @param value Sample value
+     */
+    public void add(long time, int metric, long value) {
+        long sequence = next.getAndIncrement();
+        int slot = (int) sequence & mask;
+
+        sequences.set(slot, WRITING);
+        times.set(slot, time);
+        metrics.set(slot, metric);
+        values.set(slot, value);
+        sequences.set(slot, sequence);
+    }
+
+    /**
+     * Get the number of samples added so far, which is also the position after the last one.
+     *
+     * @return Added sample count
+     */
+    public long getWriteCount() {
+        return next.get();
+    }
+
+    /**
+     * Get the number of samples that were overwritten before they were drained.
+     *
+     * @return Dropped sample count
+     */
+    public synchronized long getDropCount() {
+        return dropped;
+    }
+
+    /**
+     * Passes the samples added since the given position to the given {@link Reader}.
+     *
+     * @param from Position to drain from, as returned by the previous call, or {@code 0}
+     * @param reader Reader to pass the samples to
+     * @return Position to drain from next time
+     * @throws IOException If the reader failed, the samples read so far are lost then
+     */
+    public synchronized long drain(long from, Reader reader) throws IOException {
+        long end = next.get();
+        long sequence = Math.max(from, end - mask - 1);
+        dropped += sequence - from;
+
+        for (; sequence < end; sequence++) {
+            int slot = (int) sequence & mask;
+            long slotSequence = sequences.get(slot);
+            if (slotSequence == WRITING || slotSequence < sequence) {
+                // not complete yet, pick it up next time
+                break;
+            }
+
+            long time = times.get(slot);
+            int metric = metrics.get(slot);
+            long value = values.get(slot);
+            if (slotSequence != sequence || sequences.get(slot) != sequence) {
+                dropped++;
+                continue;
+            }
+            reader.onSample(time, metric, value);
+        }
+        return sequence;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import fi.craplab.prosezeit.core.Clock;
+
+/**
+ * Counters and latency histograms of the minute tick path.
+ * <p>
+ * Every timing is recorded into its {@link LatencyHistogram}, every counted event into its
+ * counter, and both into a {@link SampleRing}, which is appended to a small log file from time to
+ * time, so the individual samples survive the process. Recording is lock-free and allocates
+ * nothing, so it can stay enabled on the tick path. Reports and log lines are only built when
+ * they're asked for.
+ */
+public class TickMetrics {
+    /** Delay of a minute tick after the boundary it was armed for */
+    public static final int ALARM_LATENESS = 0;
+    /** Time to open the quote data, from mapping the pack or installing a corpus shard on */
+    public static final int DB_OPEN = 1;
+    /** Time to look up the scheduled quote for a minute, including fetching it */
+    public static final int LOOKUP = 2;
+    /** Time to work out and build the widget updates */
+    public static final int RENDER_PREPARE = 3;
+    /** Time spent sending the widget updates to the launcher */
+    public static final int IPC = 4;
+    /** Time to draw a quote into a bitmap frame */
+    public static final int FRAME_RENDER = 5;
+    /** Time from a widget update with no quote to show yet until the first quote is shown */
+    public static final int FIRST_QUOTE = 6;
+    private static final String[] TIMER_NAMES = {
+            "alarm_lateness", "db_open", "lookup", "render_prepare", "ipc", "frame_render",
+            "first_quote"
+    };
+
+    /** Minutes without a quote of their own, showing one from an earlier minute */
+    public static final int GAP_FALLBACKS = 0;
+    /** Minute ticks that fired before their boundary */
+    public static final int EARLY_ALARMS = 1;
+    /** Bitmap frames drawn into a pooled bitmap */
+    public static final int FRAME_POOL_REUSES = 2;
+    /** Bitmap frames that needed a new bitmap */
+    public static final int FRAME_POOL_ALLOCATIONS = 3;
+    private static final String[] COUNTER_NAMES = {
+            "gap_fallbacks", "early_alarms", "frame_pool_reuses", "frame_pool_allocations"
+    };
+
+    /** Number of samples kept until they're flushed */
+    private static final int RING_CAPACITY = 1024;
+    /** Number of new samples after which a flush is due */
+    private static final int FLUSH_INTERVAL = RING_CAPACITY / 4;
+    /** Percentiles included in the report */
+    private static final int[] PERCENTILES = {50, 90, 99};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static TickMetrics instance;
+
+    private final Clock clock;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[TIMER_NAMES.length];
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTER_NAMES.length);
+    private final SampleRing samples = new SampleRing(RING_CAPACITY);
+    /** Position in the sample ring up to which the samples were flushed */
+    private long flushed;
+
+    /**
+     * Creates a new {@code TickMetrics} timestamping its samples with the given {@link Clock}.
+     *
+     * @param clock Clock to timestamp samples with
+     */
+    public TickMetrics(Clock clock) {
+        this.clock = clock;
+        for (int timer = 0; timer < histograms.length; timer++) {
+            histograms[timer] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Retrieve the process-wide {@code TickMetrics} instance using the system clock. If no
+     * instance exists yet, it will be created first.
+     *
+     * @return {@code TickMetrics} instance
+     */
+    public static synchronized TickMetrics getInstance() {
+        if (instance == null) {
+            instance = new TickMetrics(Clock.SYSTEM);
+        }
+        return instance;
+    }
+
+    /**
+     * Records a duration of the given timer.
+     *
+     * @param timer Timer, e.g. {@link #LOOKUP}
+     * @param micros Duration in microseconds
+     */
+    public void record(int timer, long micros) {
+        histograms[timer].record(micros);
+        samples.add(clock.currentTimeMillis(), timer, micros);
+    }
+
+    /**
+     * Counts an event of the given counter.
+     *
+     * @param counter Counter, e.g. {@link #GAP_FALLBACKS}
+     */
+    public void increment(int counter) {
+        counters.incrementAndGet(counter);
+        samples.add(clock.currentTimeMillis(), TIMER_NAMES.length + counter, 1);
+    }
+
+    /**
+     * Get the histogram of the given timer.
+     *
+     * @param timer Timer, e.g. {@link #LOOKUP}
+     * @return Timer's latency histogram
+     */
+    public LatencyHistogram getHistogram(int timer) {
+        return histograms[timer];
+    }
+
+    /**
+     * Get the current value of the given counter.
+     *
+     * @param counter Counter, e.g. {@link #GAP_FALLBACKS}
+     * @return Number of counted events
+     */
+    public long getCount(int counter) {
+        return counters.get(counter);
+    }
+
+    /**
+     * Check whether enough new samples were recorded since the last flush to flush them.
+     *
+     * @return {@code true} if a flush is due
+     */
+    public synchronized boolean isFlushDue() {
+        return samples.getWriteCount() - flushed >= FLUSH_INTERVAL;
+    }
+
+    /**
+     * Appends the samples recorded since the last flush to the given log file, one
+     * {@code time metric value} line per sample. If the file grew beyond the given size, it's
+     * moved aside to a {@code .old} file first, replacing the previous one, so at most twice the
+     * size is kept around.
+     *
+     * @param file Log file to append to
+     * @param maxBytes Size at which the log file is moved aside
+     * @return Number of flushed samples
+     * @throws IOException If writing the log file failed
+     */
+    public synchronized int flush(File file, long maxBytes) throws IOException {
+        if (file.length() > maxBytes) {
+            File old = new File(file.getPath() + ".old");
+            if (!file.renameTo(old)) {
+                throw new IOException("Couldn't move " + file + " aside");
+            }
+        }
+
+        final int[] count = new int[1];
+        try (final Writer out = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file, true), UTF_8))) {
+            flushed = samples.drain(flushed, new SampleRing.Reader() {
+                @Override
+                public void onSample(long time, int metric, long value) throws IOException {
+                    out.write(time + " " + getMetricName(metric) + " " + value + "\n");
+                    count[0]++;
+                }
+            });
+        }
+        return count[0];
+    }
+
+    /**
+     * Writes a report of all counters and timers as JSON object.
+     *
+     * @param out Writer to write the report to
+     * @throws IOException If writing the report failed
+     */
+    public void writeReport(Writer out) throws IOException {
+        StringBuilder report = new StringBuilder();
+        report.append("{\n  \"time\": ").append(clock.currentTimeMillis());
+
+        report.append(",\n  \"counters\": {");
+        for (int counter = 0; counter < COUNTER_NAMES.length; counter++) {
+            report.append(counter > 0 ? ",\n" : "\n")
+                    .append("    \"").append(COUNTER_NAMES[counter]).append("\": ")
+                    .append(counters.get(counter));
+        }
+
+        report.append("\n  },\n  \"timers_us\": {");
+        for (int timer = 0; timer < TIMER_NAMES.length; timer++) {
+            LatencyHistogram histogram = histograms[timer];
+            report.append(timer > 0 ? ",\n" : "\n")
+                    .append("    \"").append(TIMER_NAMES[timer]).append("\": {")
+                    .append("\"count\": ").append(histogram.getCount())
+                    .append(", \"mean\": ").append(String.format(Locale.ROOT, "%.1f", histogram.getMean()));
+            for (int percentile : PERCENTILES) {
+                report.append(", \"p").append(percentile).append("\": ")
+                        .append(histogram.getPercentile(percentile));
+            }
+            report.append(", \"max\": ").append(histogram.getMax())
+                    .append(", \"buckets\": [");
+            int last = LatencyHistogram.BUCKET_COUNT - 1;
+            while (last > 0 && histogram.getBucketCount(last) == 0) {
+                last--;
+            }
+            for (int bucket = 0; bucket <= last; bucket++) {
+                report.append(bucket > 0 ? ", " : "").append(histogram.getBucketCount(bucket));
+            }
+            report.append("]}");
+        }
+
+        report.append("\n  },\n  \"samples\": {");
+        synchronized (this) {
+            report.append("\"recorded\": ").append(samples.getWriteCount())
+                    .append(", \"flushed\": ").append(flushed)
+                    .append(", \"dropped\": ").append(samples.getDropCount());
+        }
+        report.append("}\n}\n");
+        out.write(report.toString());
+    }
+
+    /**
+     * Get the name of a metric as stored in the sample ring.
+     *
+     * @param metric Timer, or counter offset by the number of timers
+     * @return Metric name
+     */
+    private static String getMetricName(int metric) {
+        return metric < TIMER_NAMES.length
+                ? TIMER_NAMES[metric]
+                : COUNTER_NAMES[metric - TIMER_NAMES.length];
+    }
+}
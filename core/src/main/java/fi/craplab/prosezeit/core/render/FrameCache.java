@@ -0,0 +1,332 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core.render;
+
+import java.util.Arrays;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+import fi.craplab.prosezeit.core.metrics.TickMetrics;
+
+/**
+ * Bounded LRU cache of rendered widget frames, keyed by quote id, size bucket and display state,
+ * backed by a pool of frame buffers keyed by their size.
+ * <p>
+ * Frames are drawn ahead of time for the upcoming minutes and dropped again once they're shown
+ * and replaced. Rather than allocating a new buffer for every frame, a dropped frame's buffer goes
+ * back to the pool and the next frame of the same size is drawn into it, so in the steady state,
+ * with the widget sizes not changing, no buffers are allocated at all. The frame type is up to the
+ * caller, the app draws into bitmaps, while the simulator gets by with plain arrays.
+ * <p>
+ * A buffer is only handed out by {@link #acquire(int, int)} while it's in neither the cache nor
+ * the pool, so the caller can draw into it without holding any lock. A cached frame may be
+ * dropped any time by another thread though, so it must only be read while synchronized on the
+ * cache.
+ *
+ * @param <F> Frame buffer type
+ */
+public class FrameCache<F> {
+    /** Frame shows a quote of the current minute */
+    public static final int FLAG_FRESH = 1;
+    /** Frame shows the quote's origin */
+    public static final int FLAG_ORIGIN = 2;
+
+    /**
+     * Creates and disposes of frame buffers.
+     *
+     * @param <F> Frame buffer type
+     */
+    public interface Allocator<F> {
+        /**
+         * Creates a new frame buffer of the given size.
+         *
+         * @param width Width in pixels
+         * @param height Height in pixels
+         * @return New frame buffer
+         */
+        F allocate(int width, int height);
+
+        /**
+         * Releases a frame buffer that's neither cached nor pooled anymore.
+         *
+         * @param frame Frame buffer to release
+         */
+        void dispose(F frame);
+    }
+
+    private final Allocator<F> allocator;
+    private final TickMetrics metrics;
+
+    /** Cached quote ids, {@link QuoteIndex#NO_QUOTE} for unused slots */
+    private final long[] quoteIds;
+    private final int[] buckets;
+    private final int[] flags;
+    /** Cached frames, same slot as their key */
+    private final F[] frames;
+    /** Size of each cached frame, width in the upper and height in the lower 16 bits */
+    private final int[] frameSizes;
+    /** Last use of each slot, to find the least recently used one */
+    private final long[] lastUsed;
+    private long useCounter;
+
+    /** Pooled frame buffers, the first {@link #pooledCount} slots are used */
+    private final F[] pool;
+    /** Size of each pooled frame buffer, like {@link #frameSizes} */
+    private final int[] poolSizes;
+    private int pooledCount;
+
+    private int reuses;
+    private int allocations;
+
+    /**
+     * Creates a new, empty {@code FrameCache}.
+     *
+     * @param maxFrames Maximum number of cached frames
+     * @param maxPooled Maximum number of pooled frame buffers
+     * @param allocator Frame buffer allocator
+     * @param metrics Metrics to count the pool reuses and allocations in
+     */
+    @SuppressWarnings("unchecked")
+    public FrameCache(int maxFrames, int maxPooled, Allocator<F> allocator, TickMetrics metrics) {
+        this.allocator = allocator;
+        this.metrics = metrics;
+        quoteIds = new long[maxFrames];
+        buckets = new int[maxFrames];
+        flags = new int[maxFrames];
+        frames = (F[]) new Object[maxFrames];
+        frameSizes = new int[maxFrames];
+        lastUsed = new long[maxFrames];
+        pool = (F[]) new Object[maxPooled];
+        poolSizes = new int[maxPooled];
+        Arrays.fill(quoteIds, QuoteIndex.NO_QUOTE);
+    }
+
+    /**
+     * Get the cached frame of the given quote, size bucket and display state, and mark it as
+     * used. Only use the frame while synchronized on this cache.
+     *
+     * @param quoteId Quote id
+     * @param bucket Size bucket
+     * @param frameFlags Display state, {@link #FLAG_FRESH} and {@link #FLAG_ORIGIN}
+     * @return Cached frame, or {@code null} if it's not cached
+     */
+    public synchronized F get(long quoteId, int bucket, int frameFlags) {
+        int slot = findSlot(quoteId, bucket, frameFlags);
+        if (slot < 0) {
+            return null;
+        }
+        lastUsed[slot] = ++useCounter;
+        return frames[slot];
+    }
+
+    /**
+     * Check whether the frame of the given quote, size bucket and display state is cached, and
+     * mark it as used if it is. A frame drawn ahead of time is checked for until it's shown, so
+     * it stays cached while the frames shown in the meantime are dropped before it.
+     *
+     * @param quoteId Quote id
+     * @param bucket Size bucket
+     * @param frameFlags Display state
+     * @return {@code true} if the frame is cached
+     */
+    public synchronized boolean contains(long quoteId, int bucket, int frameFlags) {
+        int slot = findSlot(quoteId, bucket, frameFlags);
+        if (slot < 0) {
+            return false;
+        }
+        lastUsed[slot] = ++useCounter;
+        return true;
+    }
+
+    /**
+     * Get a frame buffer of the given size to draw into, reusing a pooled one if possible. The
+     * buffer belongs to the caller until it's handed back with {@link #put} or {@link #release}.
+     *
+     * @param width Width in pixels
+     * @param height Height in pixels
+     * @return Frame buffer, with whatever was drawn into it before
+     */
+    public F acquire(int width, int height) {
+        int size = getSize(width, height);
+        synchronized (this) {
+            for (int i = 0; i < pooledCount; i++) {
+                if (poolSizes[i] == size) {
+                    F frame = pool[i];
+                    pooledCount--;
+                    pool[i] = pool[pooledCount];
+                    poolSizes[i] = poolSizes[pooledCount];
+                    pool[pooledCount] = null;
+                    reuses++;
+                    metrics.increment(TickMetrics.FRAME_POOL_REUSES);
+                    return frame;
+                }
+            }
+            allocations++;
+        }
+
+        metrics.increment(TickMetrics.FRAME_POOL_ALLOCATIONS);
+        return allocator.allocate(width, height);
+    }
+
+    /**
+     * Caches the given frame, dropping the least recently used one into the pool if the cache is
+     * full. A frame cached before with the same key is replaced and dropped.
+     *
+     * @param quoteId Quote id
+     * @param bucket Size bucket
+     * @param frameFlags Display state
+     * @param frame Frame buffer from {@link #acquire(int, int)}
+     * @param width Width of the frame in pixels
+     * @param height Height of the frame in pixels
+     */
+    public synchronized void put(long quoteId, int bucket, int frameFlags, F frame, int width, int height) {
+        int slot = findSlot(quoteId, bucket, frameFlags);
+        if (slot < 0) {
+            slot = 0;
+            for (int i = 1; i < frames.length; i++) {
+                if (lastUsed[i] < lastUsed[slot]) {
+                    slot = i;
+                }
+            }
+        }
+
+        if (frames[slot] != null) {
+            recycle(frames[slot], frameSizes[slot]);
+        }
+        quoteIds[slot] = quoteId;
+        buckets[slot] = bucket;
+        flags[slot] = frameFlags;
+        frames[slot] = frame;
+        frameSizes[slot] = getSize(width, height);
+        lastUsed[slot] = ++useCounter;
+    }
+
+    /**
+     * Hands back a frame buffer from {@link #acquire(int, int)} without caching it, e.g. if
+     * drawing it failed.
+     *
+     * @param frame Frame buffer
+     * @param width Width of the frame in pixels
+     * @param height Height of the frame in pixels
+     */
+    public synchronized void release(F frame, int width, int height) {
+        recycle(frame, getSize(width, height));
+    }
+
+    /**
+     * Drops all cached frames, e.g. when the quote ids change their meaning with another corpus,
+     * and optionally releases the pooled buffers as well.
+     *
+     * @param releasePool {@code true} to release the pooled frame buffers too
+     */
+    public synchronized void clear(boolean releasePool) {
+        for (int slot = 0; slot < frames.length; slot++) {
+            if (frames[slot] != null) {
+                recycle(frames[slot], frameSizes[slot]);
+                frames[slot] = null;
+            }
+            quoteIds[slot] = QuoteIndex.NO_QUOTE;
+            lastUsed[slot] = 0;
+        }
+
+        if (releasePool) {
+            for (int i = 0; i < pooledCount; i++) {
+                allocator.dispose(pool[i]);
+                pool[i] = null;
+            }
+            pooledCount = 0;
+        }
+    }
+
+    /**
+     * Get the number of frame buffers taken from the pool.
+     *
+     * @return Pool reuse count
+     */
+    public synchronized int getReuseCount() {
+        return reuses;
+    }
+
+    /**
+     * Get the number of frame buffers that had to be allocated.
+     *
+     * @return Allocation count
+     */
+    public synchronized int getAllocationCount() {
+        return allocations;
+    }
+
+    /**
+     * Puts the given frame buffer into the pool, or releases it if the pool is full.
+     *
+     * @param frame Frame buffer
+     * @param size Frame buffer size
+     */
+    private void recycle(F frame, int size) {
+        if (pooledCount < pool.length) {
+            pool[pooledCount] = frame;
+            poolSizes[pooledCount] = size;
+            pooledCount++;
+        } else {
+            allocator.dispose(frame);
+        }
+    }
+
+    /**
+     * Find the slot holding the given frame.
+     *
+     * @param quoteId Quote id
+     * @param bucket Size bucket
+     * @param frameFlags Display state
+     * @return Slot index, or {@code -1} if the frame isn't cached
+     */
+    private int findSlot(long quoteId, int bucket, int frameFlags) {
+        for (int slot = 0; slot < frames.length; slot++) {
+            if (quoteIds[slot] == quoteId && buckets[slot] == bucket && flags[slot] == frameFlags
+                    && frames[slot] != null) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the pool key of a frame buffer of the given size.
+     *
+     * @param width Width in pixels
+     * @param height Height in pixels
+     * @return Size key
+     */
+    private static int getSize(int width, int height) {
+        return width << 16 | (height & 0xffff);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FrameCache{" +
+                "reuses=" + reuses +
+                ", allocations=" + allocations +
+                ", pooled=" + pooledCount +
+                '}';
+    }
+}
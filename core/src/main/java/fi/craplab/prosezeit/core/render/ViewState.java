@@ -0,0 +1,198 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core.render;
+
+import java.util.Arrays;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+
+/**
+ * Widget content as last pushed to each widget id: the quote, whether it's shown in the fresh
+ * text color, and whether its origin is visible. Rendering new content compares it against what
+ * each widget shows already, and tells per widget what changed, so only that needs to be sent.
+ * <p>
+ * There are only ever a handful of widgets, so the states are kept in plain parallel arrays,
+ * which only grow when a widget shows up that wasn't known before. Rendering content to known
+ * widgets allocates nothing.
+ */
+public class ViewState {
+    /** Nothing changed */
+    public static final int DELTA_NONE = 0;
+    /** Text color changed */
+    public static final int DELTA_COLOR = 1;
+    /** Origin visibility changed */
+    public static final int DELTA_ORIGIN = 2;
+    /** Quote changed, or nothing known about the widget, everything needs to be pushed */
+    public static final int DELTA_FULL = 4;
+
+    /** Initial number of widget states, grown as needed */
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private long[] quoteIds = new long[INITIAL_CAPACITY];
+    private boolean[] fresh = new boolean[INITIAL_CAPACITY];
+    private boolean[] originVisible = new boolean[INITIAL_CAPACITY];
+    private int count;
+
+    /**
+     * Records the given content as pushed to the given widgets, and fills in what changed for
+     * each of them.
+     *
+     * @param widgetIds Widget ids to render to
+     * @param quoteId Id of the quote to show
+     * @param fresh {@code true} if the quote is shown in the fresh text color
+     * @param originVisible {@code true} if the quote's origin is visible
+     * @param deltas Filled with the changes of each widget, at least as long as the widget ids
+     * @return Number of widgets with any change
+     */
+    public int update(int[] widgetIds, long quoteId, boolean fresh, boolean originVisible,
+                      int[] deltas) {
+        int changed = 0;
+        for (int i = 0; i < widgetIds.length; i++) {
+            int slot = indexOf(widgetIds[i]);
+            if (slot < 0) {
+                deltas[i] = DELTA_FULL;
+                slot = add(widgetIds[i]);
+            } else if (quoteIds[slot] != quoteId) {
+                deltas[i] = DELTA_FULL;
+            } else {
+                deltas[i] = (this.fresh[slot] != fresh ? DELTA_COLOR : DELTA_NONE)
+                        | (this.originVisible[slot] != originVisible ? DELTA_ORIGIN : DELTA_NONE);
+            }
+
+            quoteIds[slot] = quoteId;
+            this.fresh[slot] = fresh;
+            this.originVisible[slot] = originVisible;
+            if (deltas[i] != DELTA_NONE) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Records the origin as visible on the given widgets, and fills in which of them didn't show
+     * it yet. Widgets nothing is known about get the origin revealed as well, but stay unknown.
+     *
+     * @param widgetIds Widget ids to reveal the origin on
+     * @param deltas Filled with {@link #DELTA_ORIGIN} for each widget that needs the origin
+     *               revealed, {@link #DELTA_NONE} for the others
+     * @return Number of widgets that need the origin revealed
+     */
+    public int revealOrigin(int[] widgetIds, int[] deltas) {
+        int changed = 0;
+        for (int i = 0; i < widgetIds.length; i++) {
+            int slot = indexOf(widgetIds[i]);
+            deltas[i] = DELTA_NONE;
+            if (slot < 0 || !originVisible[slot]) {
+                deltas[i] = DELTA_ORIGIN;
+                changed++;
+                if (slot >= 0) {
+                    originVisible[slot] = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Check whether all given widgets show the given content already.
+     *
+     * @param widgetIds Widget ids
+     * @param quoteId Id of the quote to show
+     * @param fresh {@code true} if the quote is shown in the fresh text color
+     * @param originVisible {@code true} if the quote's origin is visible
+     * @return {@code true} if nothing needs to be pushed
+     */
+    public boolean isPushed(int[] widgetIds, long quoteId, boolean fresh, boolean originVisible) {
+        for (int id : widgetIds) {
+            int slot = indexOf(id);
+            if (slot < 0 || quoteIds[slot] != quoteId || this.fresh[slot] != fresh
+                    || this.originVisible[slot] != originVisible) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forgets what was pushed to the given widget, so its next render is a full one.
+     *
+     * @param widgetId Widget id to forget
+     */
+    public void forget(int widgetId) {
+        int slot = indexOf(widgetId);
+        if (slot < 0) {
+            return;
+        }
+
+        count--;
+        ids[slot] = ids[count];
+        quoteIds[slot] = quoteIds[count];
+        fresh[slot] = fresh[count];
+        originVisible[slot] = originVisible[count];
+    }
+
+    /**
+     * Forgets what was pushed to all widgets.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Get the slot of the given widget id.
+     *
+     * @param widgetId Widget id
+     * @return Slot of the widget's state, {@code -1} if nothing is known about it
+     */
+    private int indexOf(int widgetId) {
+        for (int slot = 0; slot < count; slot++) {
+            if (ids[slot] == widgetId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a slot for the given widget id, growing the arrays if needed.
+     *
+     * @param widgetId Widget id
+     * @return Slot of the new widget state
+     */
+    private int add(int widgetId) {
+        if (count == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            quoteIds = Arrays.copyOf(quoteIds, capacity);
+            fresh = Arrays.copyOf(fresh, capacity);
+            originVisible = Arrays.copyOf(originVisible, capacity);
+        }
+
+        ids[count] = widgetId;
+        quoteIds[count] = QuoteIndex.NO_QUOTE;
+        return count++;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MinuteTicker}, driven by a fake clock and alarm that deliver each armed tick
+ * with a given delay, like the platform's alarm would.
+ */
+public class MinuteTickerTest {
+    private static final long MINUTE = MinuteTicker.MINUTE_MILLIS;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    /** Some midnight, in UTC */
+    private static final long MIDNIGHT = 1538352000000L;
+
+    private FakeAlarm alarm;
+    private MinuteTicker ticker;
+
+    @Before
+    public void setUp() {
+        alarm = new FakeAlarm();
+        alarm.now = MIDNIGHT - 12345;
+        ticker = new MinuteTicker(alarm, alarm);
+    }
+
+    @Test
+    public void startArmsNextBoundary() {
+        long now = ticker.start();
+
+        assertEquals(alarm.now, now);
+        assertTrue(alarm.armed);
+        assertEquals(MIDNIGHT, alarm.boundary);
+        assertEquals(MIDNIGHT, alarm.triggerAt);
+    }
+
+    @Test
+    public void dayOfTicksHasBoundedLateness() {
+        Random random = new Random(1);
+        long bias = 1500;
+        long jitter = 400;
+        ticker.start();
+
+        long totalLateness = 0;
+        for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+            long expected = MIDNIGHT + minute * MINUTE;
+            assertEquals("tick armed for the wrong boundary", expected, alarm.boundary);
+
+            long tickTime = fire(bias + (long) (random.nextDouble() * jitter));
+            // every boundary ticks once, and an early tick still counts for its boundary
+            assertTrue(tickTime >= expected && tickTime < expected + MINUTE);
+
+            if (minute >= 20) {
+                totalLateness += Math.abs(ticker.getLastLateness());
+            }
+        }
+
+        assertEquals(MINUTES_PER_DAY, ticker.getTickCount());
+        // never worse than without any correction
+        assertTrue(ticker.getMaxLateness() <= bias + jitter);
+        // once the average settled, the constant part of the delay is compensated
+        long averageLateness = totalLateness / (MINUTES_PER_DAY - 20);
+        assertTrue("average lateness " + averageLateness, averageLateness < jitter);
+    }
+
+    @Test
+    public void correctionIsCapped() {
+        long delay = 3 * MinuteTicker.MAX_CORRECTION_MILLIS;
+        ticker.start();
+        for (int minute = 0; minute < 100; minute++) {
+            fire(delay);
+            assertTrue(alarm.boundary - alarm.triggerAt <= MinuteTicker.MAX_CORRECTION_MILLIS);
+        }
+        assertEquals(100, ticker.getTickCount());
+        assertTrue(ticker.getMaxLateness() <= delay);
+    }
+
+    @Test
+    public void lateTickStillArmsTheNextBoundary() {
+        ticker.start();
+        // delivered long after its boundary, e.g. after the device slept through it
+        long tickTime = fire(5 * MINUTE + 42);
+
+        assertEquals(alarm.now, tickTime);
+        assertEquals(0, ticker.getTickCount());
+        assertEquals((alarm.now / MINUTE + 1) * MINUTE, alarm.boundary);
+        assertTrue(alarm.triggerAt > alarm.now);
+    }
+
+    @Test
+    public void stopCancelsTheTick() {
+        ticker.start();
+        ticker.stop();
+
+        assertFalse(alarm.armed);
+    }
+
+    @Test
+    public void suspendArmsTheSuspendedTick() {
+        ticker.start();
+        fire(100);
+        ticker.suspend();
+
+        assertTrue(ticker.isSuspended());
+        assertEquals(1, ticker.getSuspendCount());
+        assertTrue(alarm.armed);
+        long boundary = (alarm.now / MINUTE + MinuteTicker.SUSPENDED_TICK_MINUTES) * MINUTE;
+        assertEquals(boundary, alarm.boundary);
+        assertEquals(boundary, alarm.triggerAt);
+
+        // suspending again, e.g. for a tick delivered anyway, re-arms without counting twice
+        alarm.now += 3 * MINUTE;
+        ticker.suspend();
+        assertEquals(1, ticker.getSuspendCount());
+        assertEquals(boundary + 3 * MINUTE, alarm.boundary);
+    }
+
+    @Test
+    public void resumeArmsTheNextMinute() {
+        ticker.start();
+        ticker.suspend();
+        alarm.now += 7 * MINUTE + 30000;
+
+        long now = ticker.resume();
+
+        assertEquals(alarm.now, now);
+        assertFalse(ticker.isSuspended());
+        assertTrue(alarm.armed);
+        assertEquals((alarm.now / MINUTE + 1) * MINUTE, alarm.boundary);
+    }
+
+    @Test
+    public void suspendedTickResumes() {
+        ticker.start();
+        ticker.suspend();
+        long boundary = alarm.boundary;
+
+        long tickTime = fire(0);
+
+        assertEquals(boundary, tickTime);
+        assertFalse(ticker.isSuspended());
+        assertEquals(boundary + MINUTE, alarm.boundary);
+    }
+
+    @Test
+    public void suspendAfterRestartWithScreenOff() {
+        // the process was restarted for a pending tick while the screen is off, so the new
+        // ticker sees a suspend before anything started it
+        ticker.suspend();
+
+        assertTrue(ticker.isSuspended());
+        assertTrue(alarm.armed);
+        assertEquals((alarm.now / MINUTE + MinuteTicker.SUSPENDED_TICK_MINUTES) * MINUTE,
+                alarm.boundary);
+
+        // nobody turns the screen on, the suspended tick resumes the minute ticks by itself
+        long boundary = alarm.boundary;
+        assertEquals(boundary + 250, fire(250));
+        assertFalse(ticker.isSuspended());
+        assertEquals(boundary + MINUTE, alarm.boundary);
+        fire(250);
+        assertEquals(boundary + 2 * MINUTE, alarm.boundary);
+    }
+
+    @Test
+    public void screenOnResumesAfterRestartWithScreenOff() {
+        ticker.suspend();
+        alarm.now += 4 * MINUTE;
+
+        // the screen receiver only resumes a suspended ticker
+        assertTrue(ticker.isSuspended());
+        ticker.resume();
+
+        assertFalse(ticker.isSuspended());
+        assertEquals((alarm.now / MINUTE + 1) * MINUTE, alarm.boundary);
+    }
+
+    /**
+     * Delivers the pending tick the given time after it was armed for.
+     *
+     * @param delay Delivery delay in milliseconds
+     * @return Time the tick represents, as returned by {@link MinuteTicker#onTick(long)}
+     */
+    private long fire(long delay) {
+        assertTrue("no tick armed", alarm.armed);
+        alarm.armed = false;
+        alarm.now = alarm.triggerAt + delay;
+        return ticker.onTick(alarm.boundary);
+    }
+
+    /**
+     * Fake wall clock and alarm in one. Time stands still until the test delivers the pending
+     * tick by moving the clock forward to it.
+     */
+    static final class FakeAlarm implements Clock, TickScheduler {
+        long now;
+        long triggerAt;
+        long boundary;
+        boolean armed;
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        public void schedule(long triggerAtMillis, long boundary) {
+            triggerAt = triggerAtMillis;
+            this.boundary = boundary;
+            armed = true;
+        }
+
+        @Override
+        public void cancel() {
+            armed = false;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link QuoteChangeset} and {@link QuoteSchedule#update}, catching up a stored
+ * schedule with the quotes changed across corpus versions. The build writes a changeset from
+ * every released version straight to the current one, but a device may just as well have gone
+ * through the versions in between along the way, so both paths must mark the changed minutes.
+ */
+public class QuoteChangesetTest {
+    private static final long SEED = 42;
+    private static final int DAY = 17800;
+
+    /** Version 1 of the corpus */
+    private static final Row[] V1 = {
+            new Row(1, 60, "one o'clock", "A", "Book A"),
+            new Row(2, 60, "also one o'clock", "B", "Book B"),
+            new Row(3, 125, "five past two", "C", "Book C"),
+            new Row(4, 720, "noon", "D", "Book D"),
+            new Row(5, 721, "a minute past noon", "E", "Book E"),
+            new Row(6, 1080, "six in the evening", "F", "Book F"),
+    };
+
+    /** Version 2: inserts into a gap, fixes a text, moves a quote and deletes one */
+    private static final Row[] V2 = {
+            new Row(1, 60, "one o'clock", "A", "Book A"),
+            new Row(2, 60, "also one o'clock", "B", "Book B"),
+            new Row(3, 125, "five past two, fixed", "C", "Book C"),
+            new Row(4, 720, "noon", "D", "Book D"),
+            new Row(6, 1081, "a minute past six", "F", "Book F"),
+            new Row(7, 300, "five o'clock", "G", "Book G"),
+    };
+
+    /** Version 3: moves a quote again, adds to an existing minute and deletes a version 2 quote */
+    private static final Row[] V3 = {
+            new Row(1, 60, "one o'clock", "A", "Book A"),
+            new Row(2, 60, "also one o'clock", "B", "Book B"),
+            new Row(3, 125, "five past two, fixed", "C", "Book C"),
+            new Row(4, 720, "noon", "D", "Book D"),
+            new Row(6, 1082, "two minutes past six", "F", "Book F"),
+            new Row(8, 720, "high noon", "H", "Book H"),
+    };
+
+    @Test
+    public void deletingAQuoteOnlyChangesThatQuote() throws IOException {
+        Row[] deleted = {V1[0], V1[1], V1[3], V1[4], V1[5]};
+        QuoteChangeset changeset = changeset(1, 2, V1, deleted);
+
+        // the quotes after the deleted one keep their ids, so they don't show up as changed
+        assertEquals(1, changeset.getChangeCount());
+        assertEquals(QuoteChangeset.DELETE, changeset.getOperation(0));
+        assertEquals(3, changeset.getId(0));
+        assertEquals(QuoteIndex.NO_MINUTE, changeset.getMinute(0));
+
+        boolean[] changed = new boolean[QuoteIndex.MINUTES_PER_DAY];
+        changeset.markChangedMinutes(changed);
+        assertChanged(changed, 125);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownVersion() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0x505a5143);
+        output.writeInt(1);
+        output.writeInt(1);
+        output.writeInt(2);
+        output.writeInt(0);
+        output.flush();
+
+        QuoteChangeset.read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    public void marksOldAndNewMinutes() throws IOException {
+        boolean[] changed = new boolean[QuoteIndex.MINUTES_PER_DAY];
+        changeset(1, 2, V1, V2).markChangedMinutes(changed);
+
+        // updated, moved from 1080 to 1081, inserted and deleted
+        assertChanged(changed, 125, 1080, 1081, 300, 721);
+    }
+
+    @Test
+    public void directAndStepwiseUpgradeMarkSameMinutes() throws IOException {
+        boolean[] direct = new boolean[QuoteIndex.MINUTES_PER_DAY];
+        changeset(1, 3, V1, V3).markChangedMinutes(direct);
+
+        boolean[] stepwise = new boolean[QuoteIndex.MINUTES_PER_DAY];
+        changeset(1, 2, V1, V2).markChangedMinutes(stepwise);
+        changeset(2, 3, V2, V3).markChangedMinutes(stepwise);
+
+        // the stepwise path may mark more, e.g. the minute 1081 the quote only passed through
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            assertTrue("minute " + minute + " not marked stepwise",
+                    !direct[minute] || stepwise[minute]);
+        }
+        assertTrue(stepwise[1081]);
+        assertFalse(direct[1081]);
+    }
+
+    @Test
+    public void updatedSchedulesOnlyShowCurrentQuotes() throws IOException {
+        QuoteIndex v1 = index(V1);
+        QuoteIndex v2 = index(V2);
+        QuoteIndex v3 = index(V3);
+        QuoteSchedule stored = QuoteSchedule.create(v1, QuoteRotation.create(SEED), DAY);
+
+        // straight to version 3, like a device that skipped version 2
+        boolean[] changed = new boolean[QuoteIndex.MINUTES_PER_DAY];
+        changeset(1, 3, V1, V3).markChangedMinutes(changed);
+        QuoteRotation directRotation = reset(QuoteRotation.create(SEED), changed);
+        QuoteSchedule direct = stored.update(v3, directRotation, changed);
+
+        // through version 2, one update per version
+        boolean[] changed12 = new boolean[QuoteIndex.MINUTES_PER_DAY];
+        changeset(1, 2, V1, V2).markChangedMinutes(changed12);
+        QuoteRotation rotation = reset(QuoteRotation.create(SEED), changed12);
+        QuoteSchedule step = stored.update(v2, rotation, changed12);
+        assertValid(step, V2);
+
+        boolean[] changed23 = new boolean[QuoteIndex.MINUTES_PER_DAY];
+        changeset(2, 3, V2, V3).markChangedMinutes(changed23);
+        QuoteSchedule stepwise = step.update(v3, reset(rotation, changed23), changed23);
+
+        assertEquals(DAY, direct.day);
+        assertEquals(DAY, stepwise.day);
+        assertValid(direct, V3);
+        assertValid(stepwise, V3);
+
+        // minutes no changeset touched keep their choice on both paths
+        assertEquals(stored.getQuoteId(60), direct.getQuoteId(60));
+        assertEquals(stored.getQuoteId(60), stepwise.getQuoteId(60));
+        // and both paths show the same quotes wherever a minute has a single choice
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            int resolved = v3.resolveMinute(minute);
+            if (v3.getQuoteCount(resolved) == 1) {
+                assertEquals("minute " + minute,
+                        direct.getQuoteId(minute), stepwise.getQuoteId(minute));
+            }
+        }
+    }
+
+    @Test
+    public void updateMatchesPlanningWithSameChoices() throws IOException {
+        QuoteIndex v3 = index(V3);
+        QuoteSchedule stored = QuoteSchedule.create(index(V1), QuoteRotation.create(SEED), DAY);
+
+        // with every minute marked, an update plans the whole day from the rotation anew
+        boolean[] all = new boolean[QuoteIndex.MINUTES_PER_DAY];
+        Arrays.fill(all, true);
+        QuoteSchedule updated = stored.update(v3, QuoteRotation.create(SEED), all);
+        QuoteSchedule planned = QuoteSchedule.create(v3, QuoteRotation.create(SEED), DAY);
+
+        long[] updatedIds = new long[QuoteIndex.MINUTES_PER_DAY];
+        long[] plannedIds = new long[QuoteIndex.MINUTES_PER_DAY];
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            updatedIds[minute] = updated.getQuoteId(minute);
+            plannedIds[minute] = planned.getQuoteId(minute);
+        }
+        assertArrayEquals(plannedIds, updatedIds);
+    }
+
+    /**
+     * Checks that every minute of the schedule shows one of the quotes of the minute it resolves
+     * to in the given corpus version.
+     *
+     * @param schedule Schedule to check
+     * @param rows Quotes of the corpus version
+     */
+    private static void assertValid(QuoteSchedule schedule, Row[] rows) {
+        QuoteIndex index = index(rows);
+        Map<Integer, Row> table = table(rows);
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            long quoteId = schedule.getQuoteId(minute);
+            Row row = table.get((int) quoteId);
+            assertTrue("minute " + minute + " shows removed quote " + quoteId, row != null);
+            assertEquals("minute " + minute, index.resolveMinute(minute), row.minute);
+        }
+    }
+
+    /**
+     * Checks that exactly the given minutes are marked as changed.
+     *
+     * @param changed Changed flag of each minute
+     * @param minutes Expected changed minutes
+     */
+    private static void assertChanged(boolean[] changed, int... minutes) {
+        boolean[] expected = new boolean[QuoteIndex.MINUTES_PER_DAY];
+        for (int minute : minutes) {
+            expected[minute] = true;
+        }
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            assertEquals("minute " + minute, expected[minute], changed[minute]);
+        }
+    }
+
+    /**
+     * Restarts the rotation of the changed minutes, like an app update does.
+     *
+     * @param rotation Rotation to reset
+     * @param changed Changed flag of each minute
+     * @return The given rotation
+     */
+    private static QuoteRotation reset(QuoteRotation rotation, boolean[] changed) {
+        for (int minute = 0; minute < QuoteIndex.MINUTES_PER_DAY; minute++) {
+            if (changed[minute]) {
+                rotation.reset(minute);
+            }
+        }
+        return rotation;
+    }
+
+    /**
+     * Builds the quote index of the given corpus version.
+     *
+     * @param rows Quotes of the corpus version
+     * @return Quote index
+     */
+    private static QuoteIndex index(Row[] rows) {
+        Row[] sorted = rows.clone();
+        Arrays.sort(sorted, new Comparator<Row>() {
+            @Override
+            public int compare(Row a, Row b) {
+                return a.minute != b.minute ? a.minute - b.minute : a.id - b.id;
+            }
+        });
+
+        int[] minutes = new int[sorted.length];
+        int[] ids = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            minutes[i] = sorted[i].minute;
+            ids[i] = sorted[i].id;
+        }
+        return QuoteIndex.build(minutes, ids, sorted.length);
+    }
+
+    /**
+     * Get the given corpus version as a table keyed by quote id.
+     *
+     * @param rows Quotes of the corpus version
+     * @return Quote table
+     */
+    private static Map<Integer, Row> table(Row[] rows) {
+        Map<Integer, Row> table = new TreeMap<>();
+        for (Row row : rows) {
+            table.put(row.id, row);
+        }
+        return table;
+    }
+
+    /**
+     * Writes the changeset between the given corpus versions in the format the build task
+     * writes it, and reads it back.
+     *
+     * @param from Old corpus version number
+     * @param to New corpus version number
+     * @param oldRows Quotes of the old version
+     * @param newRows Quotes of the new version
+     * @return Changeset leading from the old to the new version
+     * @throws IOException If reading the changeset failed
+     */
+    private static QuoteChangeset changeset(int from, int to, Row[] oldRows, Row[] newRows)
+            throws IOException {
+        Map<Integer, Row> oldTable = table(oldRows);
+        Map<Integer, Row> newTable = table(newRows);
+        List<Object[]> changes = new ArrayList<>();
+        for (Row row : newRows) {
+            Row old = oldTable.get(row.id);
+            if (old == null) {
+                changes.add(new Object[] {QuoteChangeset.INSERT, row, QuoteIndex.NO_MINUTE});
+            } else if (!old.equals(row)) {
+                changes.add(new Object[] {QuoteChangeset.UPDATE, row, old.minute});
+            }
+        }
+        for (Row old : oldRows) {
+            if (!newTable.containsKey(old.id)) {
+                changes.add(new Object[] {QuoteChangeset.DELETE, old, old.minute});
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0x505a5143);
+        output.writeInt(2);
+        output.writeInt(from);
+        output.writeInt(to);
+        output.writeInt(changes.size());
+        for (Object[] change : changes) {
+            int operation = (Integer) change[0];
+            Row row = (Row) change[1];
+            output.writeByte(operation);
+            output.writeInt(row.id);
+            output.writeShort((Integer) change[2]);
+            output.writeShort(operation == QuoteChangeset.DELETE
+                    ? QuoteIndex.NO_MINUTE : row.minute);
+        }
+        output.flush();
+
+        QuoteChangeset changeset =
+                QuoteChangeset.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(from, changeset.fromVersion);
+        assertEquals(to, changeset.toVersion);
+        assertEquals(changes.size(), changeset.getChangeCount());
+        return changeset;
+    }
+
+    /**
+     * A row of the quote table.
+     */
+    private static final class Row {
+        final int id;
+        final int minute;
+        final String text;
+        final String author;
+        final String book;
+
+        Row(int id, int minute, String text, String author, String book) {
+            this.id = id;
+            this.minute = minute;
+            this.text = text;
+            this.author = author;
+            this.book = book;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Row)) {
+                return false;
+            }
+            Row row = (Row) other;
+            return id == row.id && minute == row.minute && text.equals(row.text)
+                    && author.equals(row.author) && book.equals(row.book);
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return id + "@" + minute + " " + text;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link QuoteRotation}.
+ */
+public class QuoteRotationTest {
+    private static final long SEED = 0x5eedL;
+    /** Quote counts per minute to check, including primes, powers of two and a single quote */
+    private static final int[] COUNTS = {1, 2, 3, 4, 7, 12, 16, 31, 100, 257};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void showsEveryQuoteOnceBeforeRepeating() {
+        QuoteRotation rotation = QuoteRotation.create(SEED);
+        for (int i = 0; i < COUNTS.length; i++) {
+            int minute = i * 97;
+            for (int cycle = 0; cycle < 3; cycle++) {
+                assertFullCycle(rotation, minute, COUNTS[i]);
+            }
+        }
+    }
+
+    @Test
+    public void minutesRotateIndependently() {
+        QuoteRotation rotation = QuoteRotation.create(SEED);
+        boolean[] seenA = new boolean[5];
+        boolean[] seenB = new boolean[9];
+        // interleave two minutes, neither one disturbs the other's cycle
+        for (int k = 0; k < 9; k++) {
+            if (k < 5) {
+                markSeen(seenA, rotation.next(10, 5));
+            }
+            markSeen(seenB, rotation.next(11, 9));
+        }
+        assertAllSeen(seenA);
+        assertAllSeen(seenB);
+    }
+
+    @Test
+    public void cyclesRunInDifferentOrders() {
+        QuoteRotation rotation = QuoteRotation.create(SEED);
+        int count = 50;
+        int[] first = drawCycle(rotation, 600, count);
+        int[] second = drawCycle(rotation, 600, count);
+        boolean differs = false;
+        for (int k = 0; k < count; k++) {
+            differs |= first[k] != second[k];
+        }
+        assertTrue(differs);
+    }
+
+    @Test
+    public void sameSeedChoosesSameQuotes() {
+        QuoteRotation a = QuoteRotation.create(SEED);
+        QuoteRotation b = QuoteRotation.create(SEED);
+        for (int k = 0; k < 100; k++) {
+            assertEquals(a.next(720, 13), b.next(720, 13));
+        }
+    }
+
+    @Test
+    public void saveAndLoadKeepsTheCycle() throws IOException {
+        File file = folder.newFile("quotes.rotation");
+        int count = 23;
+        int minute = 1439;
+
+        QuoteRotation reference = QuoteRotation.create(SEED);
+        int[] expected = new int[2 * count];
+        for (int k = 0; k < expected.length; k++) {
+            expected[k] = reference.next(minute, count);
+        }
+
+        // draw the same sequence, but with a save and load round-trip after every quote
+        QuoteRotation rotation = QuoteRotation.create(SEED);
+        boolean[] seen = new boolean[count];
+        for (int k = 0; k < expected.length; k++) {
+            int position = rotation.next(minute, count);
+            assertEquals(expected[k], position);
+            if (k < count) {
+                markSeen(seen, position);
+            }
+
+            rotation.save(file);
+            rotation = QuoteRotation.load(file);
+        }
+        assertAllSeen(seen);
+    }
+
+    @Test
+    public void failedSaveKeepsStoredState() throws IOException {
+        File file = folder.newFile("quotes.rotation");
+        QuoteRotation stored = QuoteRotation.create(SEED);
+        stored.next(60, 7);
+        stored.save(file);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        // the write can't even start, like a crash right before renaming the finished file
+        assertTrue(new File(file.getPath() + ".tmp").mkdir());
+        QuoteRotation changed = QuoteRotation.create(SEED + 1);
+        try {
+            changed.save(file);
+            fail("saved without a temporary file");
+        } catch (IOException e) {
+            // expected
+        }
+
+        QuoteRotation loaded = QuoteRotation.load(file);
+        assertEquals(stored.next(60, 7), loaded.next(60, 7));
+    }
+
+    @Test
+    public void loadWithoutFileReturnsNull() throws IOException {
+        assertNull(QuoteRotation.load(new File(folder.getRoot(), "missing")));
+    }
+
+    @Test(expected = IOException.class)
+    public void loadRejectsUnknownFormat() throws IOException {
+        File file = folder.newFile("garbage");
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[] {'P', 'Z', 'Q', 'P', 0, 0, 0, 0});
+        }
+        QuoteRotation.load(file);
+    }
+
+    @Test
+    public void resetRestartsTheCycle() {
+        QuoteRotation rotation = QuoteRotation.create(SEED);
+        int[] first = drawCycle(rotation, 42, 8);
+
+        rotation.next(42, 8);
+        rotation.next(42, 8);
+        rotation.reset(42);
+
+        int[] again = drawCycle(rotation, 42, 8);
+        for (int k = 0; k < first.length; k++) {
+            assertEquals(first[k], again[k]);
+        }
+    }
+
+    @Test
+    public void counterWrapsAtCycleBoundary() {
+        QuoteRotation rotation = QuoteRotation.create(SEED);
+        int count = 1000;
+        // run the counter past the point where it would overflow a short
+        for (int cycle = 0; cycle < Short.MAX_VALUE / count + 2; cycle++) {
+            assertFullCycle(rotation, 5, count);
+        }
+    }
+
+    /**
+     * Draws one full cycle of the given minute and checks that it hits every quote once.
+     *
+     * @param rotation Rotation to draw from
+     * @param minute Minute of the day
+     * @param count Number of quotes of the minute
+     */
+    private static void assertFullCycle(QuoteRotation rotation, int minute, int count) {
+        boolean[] seen = new boolean[count];
+        for (int k = 0; k < count; k++) {
+            markSeen(seen, rotation.next(minute, count));
+        }
+        assertAllSeen(seen);
+    }
+
+    /**
+     * Draws one full cycle of the given minute.
+     *
+     * @param rotation Rotation to draw from
+     * @param minute Minute of the day
+     * @param count Number of quotes of the minute
+     * @return Drawn positions, in order
+     */
+    private static int[] drawCycle(QuoteRotation rotation, int minute, int count) {
+        int[] positions = new int[count];
+        for (int k = 0; k < count; k++) {
+            positions[k] = rotation.next(minute, count);
+        }
+        return positions;
+    }
+
+    /**
+     * Marks the given position as shown, failing if it was shown already.
+     *
+     * @param seen Shown flags of the cycle
+     * @param position Drawn position
+     */
+    private static void markSeen(boolean[] seen, int position) {
+        assertTrue("position " + position + " out of range", position >= 0 && position < seen.length);
+        assertFalse("position " + position + " repeated within a cycle", seen[position]);
+        seen[position] = true;
+    }
+
+    /**
+     * Checks that every position of the cycle was shown.
+     *
+     * @param seen Shown flags of the cycle
+     */
+    private static void assertAllSeen(boolean[] seen) {
+        for (int position = 0; position < seen.length; position++) {
+            assertTrue("position " + position + " never shown", seen[position]);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.core.render;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ViewState}.
+ */
+public class ViewStateTest {
+    private static final int[] IDS = {7, 11};
+
+    private ViewState state;
+    private int[] deltas;
+
+    @Before
+    public void setUp() {
+        state = new ViewState();
+        deltas = new int[IDS.length];
+    }
+
+    @Test
+    public void unknownWidgetsGetFullUpdate() {
+        assertEquals(2, state.update(IDS, 100, true, false, deltas));
+        assertEquals(ViewState.DELTA_FULL, deltas[0]);
+        assertEquals(ViewState.DELTA_FULL, deltas[1]);
+    }
+
+    @Test
+    public void unchangedContentIsSkipped() {
+        state.update(IDS, 100, true, false, deltas);
+
+        assertTrue(state.isPushed(IDS, 100, true, false));
+        assertEquals(0, state.update(IDS, 100, true, false, deltas));
+        assertEquals(ViewState.DELTA_NONE, deltas[0]);
+        assertEquals(ViewState.DELTA_NONE, deltas[1]);
+    }
+
+    @Test
+    public void propertyChangesArePartial() {
+        state.update(IDS, 100, true, false, deltas);
+
+        assertFalse(state.isPushed(IDS, 100, false, true));
+        assertEquals(2, state.update(IDS, 100, false, true, deltas));
+        assertEquals(ViewState.DELTA_COLOR | ViewState.DELTA_ORIGIN, deltas[0]);
+
+        assertEquals(2, state.update(IDS, 200, false, true, deltas));
+        assertEquals(ViewState.DELTA_FULL, deltas[1]);
+    }
+
+    @Test
+    public void revealOriginOnlyOnce() {
+        state.update(IDS, 100, true, false, deltas);
+
+        assertEquals(2, state.revealOrigin(IDS, deltas));
+        assertEquals(ViewState.DELTA_ORIGIN, deltas[0]);
+        assertEquals(0, state.revealOrigin(IDS, deltas));
+        assertTrue(state.isPushed(IDS, 100, true, true));
+    }
+
+    @Test
+    public void forgottenWidgetGetsFullUpdate() {
+        state.update(IDS, 100, true, false, deltas);
+        state.forget(IDS[0]);
+
+        assertEquals(1, state.update(IDS, 100, true, false, deltas));
+        assertEquals(ViewState.DELTA_FULL, deltas[0]);
+        assertEquals(ViewState.DELTA_NONE, deltas[1]);
+
+        state.clear();
+        assertFalse(state.isPushed(IDS, 100, true, false));
+    }
+
+    @Test
+    public void growsWithTheWidgets() {
+        int[] ids = new int[10];
+        int[] manyDeltas = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1000 + i;
+        }
+
+        assertEquals(ids.length, state.update(ids, 100, true, false, manyDeltas));
+        assertTrue(state.isPushed(ids, 100, true, false));
+    }
+}
@@ -0,0 +1,818 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.simulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import fi.craplab.prosezeit.core.Clock;
+import fi.craplab.prosezeit.core.MinuteTicker;
+import fi.craplab.prosezeit.core.PackQuoteSource;
+import fi.craplab.prosezeit.core.QuoteIndex;
+import fi.craplab.prosezeit.core.QuotePack;
+import fi.craplab.prosezeit.core.QuoteRotation;
+import fi.craplab.prosezeit.core.QuoteSchedule;
+import fi.craplab.prosezeit.core.QuoteSource;
+import fi.craplab.prosezeit.core.TickScheduler;
+import fi.craplab.prosezeit.core.metrics.TickMetrics;
+import fi.craplab.prosezeit.core.render.FrameCache;
+import fi.craplab.prosezeit.core.render.ViewState;
+
+/**
+ * Command line simulator replaying minute ticks against a quote pack at full speed.
+ * <p>
+ * Every tick goes through the same steps the widget takes when its alarm fires: the
+ * {@link MinuteTicker} measures and re-arms the tick, the tick time is mapped to its day's
+ * {@link QuoteSchedule}, planning a new one whenever the day changes, the scheduled quote is
+ * fetched from the {@link QuoteSource} unless it's the one already shown, and it's rendered into
+ * the {@link ViewState} of two widgets, to find what would be pushed to them. Time is simulated,
+ * so a year of ticks runs in well under a second, with each tick delivered a random delay after
+ * the time it was armed for, like an alarm would be.
+ * <p>
+ * With an allocation budget given, the bytes allocated by every tick are measured as well, and
+ * the simulator fails if the steady-state ticks, the ones that neither plan a new schedule nor
+ * fetch a new quote, allocate more than the budget on average. The ticks changing the quote are
+ * reported separately. The average rather than the
+ * maximum is checked, as the JVM itself occasionally allocates on a tick's thread, e.g. while
+ * compiling.
+ * <p>
+ * The alarm lateness and lookup times are recorded into {@link TickMetrics} just like the widget
+ * records them, so the allocation budget covers the recording as well, and the metrics report
+ * can be written to a file at the end.
+ * <p>
+ * With a screen cycle given, the same days are replayed once more with the screen turning on and
+ * off in that cycle, once ticking every minute regardless, and once suspending the ticks while
+ * the screen is off like the widget does, and the receiver invocations and quote lookups of both
+ * are compared.
+ * <p>
+ * With frame sizes given, the same days are replayed once more in bitmap render mode, with a
+ * {@link FrameCache} sized like the app's, drawing the frames of the upcoming quotes ahead of time
+ * for every widget size and reporting how many new quotes found their frames ready, how often
+ * the pool provided the frame buffer, and how long filling a frame took.
+ * <p>
+ * Usage: {@code TickSimulator --pack <file> [--days n] [--warmup-days n] [--max-delay ms]
+ * [--seed n] [--alloc-budget bytes] [--metrics file] [--screen on/off]
+ * [--frames WxH[,WxH...]]}
+ */
+public class TickSimulator {
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    /** Percentiles of the tick latency to report */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9"};
+    /** Exit code if the allocation budget is exceeded */
+    private static final int EXIT_OVER_BUDGET = 1;
+    private static final int EXIT_USAGE = 2;
+    /** Frame cache and pool sizes, and minutes to draw ahead, as in the app's bitmap renderer */
+    private static final int MAX_FRAMES = 16;
+    private static final int MAX_POOLED_FRAMES = 4;
+    private static final int PREFETCH_MINUTES = 5;
+    /** Widget ids the quotes are rendered to, like two widgets placed on the home screen */
+    private static final int[] WIDGET_IDS = {1, 2};
+
+    /**
+     * Simulated quote, holding the decoded strings just like the app's quote model does.
+     */
+    static final class SimulatedQuote {
+        final long id;
+        final int minute;
+        final String text;
+        final String author;
+        final String book;
+
+        /**
+         * Creates a new {@code SimulatedQuote} from the given {@link QuotePack} record.
+         *
+         * @param pack Quote pack to read from
+         * @param record Record number of the quote within the pack
+         */
+        SimulatedQuote(QuotePack pack, int record) {
+            id = pack.getId(record);
+            minute = pack.getMinute(record);
+            text = pack.getText(record);
+            author = pack.getAuthor(record);
+            book = pack.getBook(record);
+        }
+    }
+
+    /**
+     * Simulated wall clock and alarm in one. Time stands still until the simulation delivers the
+     * pending tick by moving the clock forward to it.
+     */
+    private static final class SimulatedAlarm implements Clock, TickScheduler {
+        long now;
+        long triggerAt;
+        long boundary;
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        public void schedule(long triggerAtMillis, long boundary) {
+            this.triggerAt = triggerAtMillis;
+            this.boundary = boundary;
+        }
+
+        @Override
+        public void cancel() {
+            triggerAt = 0;
+        }
+    }
+
+    /**
+     * Result of a single simulation run.
+     */
+    static final class Result {
+        /** Time each tick took to process, in nanoseconds */
+        final long[] latencies;
+        long elapsedNanos;
+        long maxLateness;
+        int schedules;
+        int fetches;
+        long checksum;
+        /** Bytes allocated by all ticks, {@code -1} if not measured */
+        long allocatedBytes = -1;
+        /** Bytes allocated by the steady-state ticks */
+        long steadyAllocatedBytes;
+        int steadyTicks;
+        /** Bytes allocated by the ticks changing the quote, without planning a new schedule */
+        long changeAllocatedBytes;
+        int changeTicks;
+        /** Widget updates the ticks needed, full or partial */
+        int updates;
+        final TickMetrics metrics;
+
+        /**
+         * Creates a new {@code Result} for the given number of ticks.
+         *
+         * @param ticks Number of simulated ticks
+         * @param clock Clock to timestamp the metrics samples with
+         */
+        Result(int ticks, Clock clock) {
+            latencies = new long[ticks];
+            metrics = new TickMetrics(clock);
+        }
+
+        /**
+         * Get the average number of bytes allocated by a steady-state tick.
+         *
+         * @return Average steady-state allocation in bytes
+         */
+        double getSteadyAllocation() {
+            return steadyTicks > 0 ? (double) steadyAllocatedBytes / steadyTicks : 0;
+        }
+
+        /**
+         * Get the average number of bytes allocated by a tick changing the quote.
+         *
+         * @return Average quote change allocation in bytes
+         */
+        double getChangeAllocation() {
+            return changeTicks > 0 ? (double) changeAllocatedBytes / changeTicks : 0;
+        }
+    }
+
+    /**
+     * Result of a simulation run with the screen turning on and off.
+     */
+    static final class ScreenResult {
+        /** Broadcasts received, alarms and screen state changes */
+        int invocations;
+        /** Quote lookups, each one followed by a render */
+        int lookups;
+        int fetches;
+        /** Renders catching up on the current minute when the screen turned on */
+        int catchUps;
+        /** Minutes with the screen on that didn't get their quote rendered */
+        int missedMinutes;
+    }
+
+    /**
+     * Result of a simulation run in bitmap render mode.
+     */
+    private static final class FrameResult {
+        /** Quote changes, each one needing a frame for every widget size */
+        int quoteChanges;
+        /** Frames found ready at a quote change */
+        int readyFrames;
+        /** Frames drawn in place at a quote change */
+        int missingFrames;
+        /** Frames drawn ahead of time */
+        int prefetchedFrames;
+        long frameNanos;
+        long maxFrameNanos;
+        int reuses;
+        int allocations;
+    }
+
+    private final QuoteSource<SimulatedQuote> source;
+    private final QuoteIndex index;
+    private final long maxDelay;
+    private final long seed;
+    /** Per-thread allocation counter, {@code null} if allocations aren't measured */
+    private final com.sun.management.ThreadMXBean threads;
+    /** Bytes allocated by reading the allocation counter itself */
+    private long allocationOverhead;
+
+    /**
+     * Creates a new {@code TickSimulator} for the given quote source.
+     *
+     * @param source Quote source to fetch the scheduled quotes from
+     * @param maxDelay Maximum delay of a tick after the time it was armed for, in milliseconds
+     * @param seed Seed for the quote rotation and the tick delays
+     * @param measureAllocations {@code true} to measure the bytes allocated by every tick
+     */
+    TickSimulator(QuoteSource<SimulatedQuote> source, long maxDelay, long seed,
+                  boolean measureAllocations) {
+        this.source = source;
+        this.index = source.buildIndex();
+        this.maxDelay = maxDelay;
+        this.seed = seed;
+
+        if (measureAllocations) {
+            threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            threads.setThreadAllocatedMemoryEnabled(true);
+            allocationOverhead = Long.MAX_VALUE;
+            for (int i = 0; i < 16; i++) {
+                allocationOverhead = Math.min(allocationOverhead, getAllocatedBytes() - getAllocatedBytes());
+            }
+            allocationOverhead = -allocationOverhead;
+        } else {
+            threads = null;
+        }
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread so far.
+     *
+     * @return Allocated bytes, {@code 0} if allocations aren't measured
+     */
+    private long getAllocatedBytes() {
+        return threads != null ? threads.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    /**
+     * Replays the given number of ticks, starting at the given time.
+     *
+     * @param start Simulated start time in milliseconds since the epoch
+     * @param ticks Number of ticks to replay
+     * @return Simulation result
+     */
+    Result run(long start, int ticks) {
+        SimulatedAlarm alarm = new SimulatedAlarm();
+        Result result = new Result(ticks, alarm);
+        TickMetrics metrics = result.metrics;
+        Random random = new Random(seed);
+        QuoteRotation rotation = QuoteRotation.create(seed);
+        MinuteTicker ticker = new MinuteTicker(alarm, alarm);
+        ViewState views = new ViewState();
+        int[] deltas = new int[WIDGET_IDS.length];
+
+        alarm.now = start;
+        ticker.start();
+
+        QuoteSchedule schedule = null;
+        SimulatedQuote lastShownQuote = null;
+        long allocatedBytes = 0;
+        long steadyAllocatedBytes = 0;
+        long changeAllocatedBytes = 0;
+        long runStart = System.nanoTime();
+
+        for (int tick = 0; tick < ticks; tick++) {
+            alarm.now = alarm.triggerAt + (maxDelay > 0 ? (long) (random.nextDouble() * maxDelay) : 0);
+
+            boolean steady = true;
+            boolean planned = false;
+            long tickAllocationStart = getAllocatedBytes();
+            long tickStart = System.nanoTime();
+            long lateness = alarm.now - alarm.boundary;
+            if (lateness < 0) {
+                metrics.increment(TickMetrics.EARLY_ALARMS);
+            } else {
+                metrics.record(TickMetrics.ALARM_LATENESS, lateness * 1000);
+            }
+
+            long time = ticker.onTick(alarm.boundary);
+            long lookupStart = System.nanoTime();
+            int day = QuoteSchedule.getDay(time);
+            if (schedule == null || schedule.day != day) {
+                schedule = QuoteSchedule.create(index, rotation, day);
+                result.schedules++;
+                steady = false;
+                planned = true;
+            }
+
+            int minuteOfDay = QuoteSchedule.getMinuteOfDay(time);
+            long quoteId = schedule.getQuoteId(minuteOfDay);
+            if (quoteId != QuoteIndex.NO_QUOTE
+                    && (lastShownQuote == null || lastShownQuote.id != quoteId)) {
+                lastShownQuote = source.getQuote(quoteId);
+                result.fetches++;
+                steady = false;
+            }
+            if (lastShownQuote != null) {
+                // off-minute quotes are shown in the old color, with their origin revealed
+                boolean fresh = lastShownQuote.minute == minuteOfDay;
+                result.updates += views.update(WIDGET_IDS, lastShownQuote.id, fresh, !fresh, deltas);
+            }
+            long tickEnd = System.nanoTime();
+            metrics.record(TickMetrics.LOOKUP, (tickEnd - lookupStart) / 1000);
+            result.latencies[tick] = tickEnd - tickStart;
+
+            if (threads != null) {
+                long tickAllocation = getAllocatedBytes() - tickAllocationStart - allocationOverhead;
+                allocatedBytes += tickAllocation;
+                if (steady) {
+                    steadyAllocatedBytes += tickAllocation;
+                    result.steadyTicks++;
+                } else if (!planned) {
+                    changeAllocatedBytes += tickAllocation;
+                    result.changeTicks++;
+                }
+            }
+
+            // keep the fetched quote alive, so the decoding can't be optimized away
+            if (lastShownQuote != null) {
+                result.checksum += lastShownQuote.text.length() + lastShownQuote.author.length()
+                        + lastShownQuote.book.length();
+            }
+        }
+
+        result.elapsedNanos = System.nanoTime() - runStart;
+        if (threads != null) {
+            result.allocatedBytes = allocatedBytes;
+            result.steadyAllocatedBytes = steadyAllocatedBytes;
+            result.changeAllocatedBytes = changeAllocatedBytes;
+        }
+        result.maxLateness = ticker.getMaxLateness();
+        return result;
+    }
+
+    /**
+     * Replays the given number of minutes with the screen turning on and off in the given cycle,
+     * starting with the screen on. Every alarm and, if the ticks are suspended, every screen state
+     * change is a broadcast, and every tick while the screen is on, as well as every catch-up on
+     * turning it on, looks up and renders the current minute's quote.
+     *
+     * @param start Simulated start time in milliseconds since the epoch
+     * @param minutes Number of minutes to replay
+     * @param onMinutes Minutes the screen is on in each cycle
+     * @param offMinutes Minutes the screen is off in each cycle
+     * @param suspend {@code true} to suspend the ticks while the screen is off
+     * @return Simulation result
+     */
+    ScreenResult runScreenCycle(long start, int minutes, int onMinutes, int offMinutes,
+                                boolean suspend) {
+        SimulatedAlarm alarm = new SimulatedAlarm();
+        ScreenResult result = new ScreenResult();
+        Random random = new Random(seed);
+        QuoteRotation rotation = QuoteRotation.create(seed);
+        MinuteTicker ticker = new MinuteTicker(alarm, alarm);
+        boolean[] rendered = new boolean[minutes];
+        long end = start + minutes * MinuteTicker.MINUTE_MILLIS;
+        boolean screenOn = true;
+        long screenChange = start + onMinutes * MinuteTicker.MINUTE_MILLIS;
+        QuoteSchedule[] schedule = new QuoteSchedule[1];
+        long[] shownQuoteId = {QuoteIndex.NO_QUOTE};
+
+        alarm.now = start;
+        lookup(ticker.start(), start, rotation, schedule, shownQuoteId, rendered, result);
+
+        while (true) {
+            long alarmAt = alarm.triggerAt + (maxDelay > 0 ? (long) (random.nextDouble() * maxDelay) : 0);
+            if (Math.min(alarmAt, screenChange) >= end) {
+                break;
+            }
+
+            if (screenChange <= alarmAt) {
+                alarm.now = screenChange;
+                screenOn = !screenOn;
+                screenChange += (screenOn ? onMinutes : offMinutes) * MinuteTicker.MINUTE_MILLIS;
+                if (!suspend) {
+                    continue;
+                }
+
+                result.invocations++;
+                if (!screenOn) {
+                    ticker.suspend();
+                } else if (ticker.isSuspended()) {
+                    result.catchUps++;
+                    lookup(ticker.resume(), start, rotation, schedule, shownQuoteId, rendered, result);
+                }
+            } else {
+                alarm.now = alarmAt;
+                result.invocations++;
+                if (suspend && !screenOn) {
+                    ticker.suspend();
+                } else {
+                    lookup(ticker.onTick(alarm.boundary), start, rotation, schedule, shownQuoteId,
+                            rendered, result);
+                }
+            }
+        }
+
+        for (int minute = 0; minute < minutes; minute++) {
+            if (minute % (onMinutes + offMinutes) < onMinutes && !rendered[minute]) {
+                result.missedMinutes++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replays the given number of minutes in bitmap render mode, for widgets of the given sizes.
+     * Every new quote needs its frame for each size, drawn in place if it's not ready, and every
+     * minute, the frames of the quotes of the next minutes are drawn ahead of time. Frames are plain
+     * pixel arrays here, so the frame time is the time to clear a frame buffer, not to lay out
+     * and draw a quote into it.
+     *
+     * @param start Simulated start time in milliseconds since the epoch
+     * @param minutes Number of minutes to replay
+     * @param sizes Widget sizes, width and height in pixels
+     * @return Simulation result
+     */
+    private FrameResult runFrames(long start, int minutes, int[][] sizes) {
+        FrameResult result = new FrameResult();
+        QuoteRotation rotation = QuoteRotation.create(seed);
+        TickMetrics metrics = new TickMetrics(new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return 0;
+            }
+        });
+        FrameCache<int[]> frames = new FrameCache<>(MAX_FRAMES, MAX_POOLED_FRAMES,
+                new FrameCache.Allocator<int[]>() {
+                    @Override
+                    public int[] allocate(int width, int height) {
+                        return new int[width * height];
+                    }
+
+                    @Override
+                    public void dispose(int[] frame) {
+                    }
+                }, metrics);
+        QuoteSchedule schedule = null;
+        long shownQuoteId = QuoteIndex.NO_QUOTE;
+
+        for (int minute = 0; minute < minutes; minute++) {
+            long time = start + minute * MinuteTicker.MINUTE_MILLIS;
+            int day = QuoteSchedule.getDay(time);
+            if (schedule == null || schedule.day != day) {
+                schedule = QuoteSchedule.create(index, rotation, day);
+            }
+
+            int minuteOfDay = QuoteSchedule.getMinuteOfDay(time);
+            long quoteId = schedule.getQuoteId(minuteOfDay);
+            if (quoteId != QuoteIndex.NO_QUOTE && quoteId != shownQuoteId) {
+                shownQuoteId = quoteId;
+                result.quoteChanges++;
+                for (int bucket = 0; bucket < sizes.length; bucket++) {
+                    if (frames.get(quoteId, bucket, FrameCache.FLAG_FRESH) != null) {
+                        result.readyFrames++;
+                    } else {
+                        drawFrame(frames, quoteId, bucket, sizes[bucket], result);
+                        result.missingFrames++;
+                    }
+                }
+            }
+
+            int last = Math.min(minuteOfDay + PREFETCH_MINUTES, QuoteIndex.MINUTES_PER_DAY - 1);
+            for (int next = minuteOfDay + 1; next <= last; next++) {
+                long nextQuoteId = schedule.getQuoteId(next);
+                for (int bucket = 0; bucket < sizes.length && nextQuoteId != QuoteIndex.NO_QUOTE; bucket++) {
+                    if (!frames.contains(nextQuoteId, bucket, FrameCache.FLAG_FRESH)) {
+                        drawFrame(frames, nextQuoteId, bucket, sizes[bucket], result);
+                        result.prefetchedFrames++;
+                    }
+                }
+            }
+        }
+
+        result.reuses = frames.getReuseCount();
+        result.allocations = frames.getAllocationCount();
+        return result;
+    }
+
+    /**
+     * Fills a frame for the given quote and widget size, and caches it.
+     *
+     * @param frames Frame cache
+     * @param quoteId Quote id
+     * @param bucket Widget size index
+     * @param size Widget width and height in pixels
+     * @param result Result to add the frame time to
+     */
+    private static void drawFrame(FrameCache<int[]> frames, long quoteId, int bucket, int[] size,
+                                  FrameResult result) {
+        long frameStart = System.nanoTime();
+        int[] frame = frames.acquire(size[0], size[1]);
+        Arrays.fill(frame, (int) quoteId);
+        frames.put(quoteId, bucket, FrameCache.FLAG_FRESH, frame, size[0], size[1]);
+        long frameNanos = System.nanoTime() - frameStart;
+        result.frameNanos += frameNanos;
+        result.maxFrameNanos = Math.max(result.maxFrameNanos, frameNanos);
+    }
+
+    /**
+     * Prints the report of the given bitmap render mode run.
+     *
+     * @param result Simulation result
+     * @param sizes Number of widget sizes
+     */
+    private static void reportFrames(FrameResult result, int sizes) {
+        int drawn = result.missingFrames + result.prefetchedFrames;
+        System.out.printf(Locale.ROOT, "Frames for %d quote changes in %d widget sizes:%n",
+                result.quoteChanges, sizes);
+        System.out.printf(Locale.ROOT, "  ready ahead of time: %d of %d (%.1f%%)%n",
+                result.readyFrames, result.readyFrames + result.missingFrames,
+                100.0 * result.readyFrames / Math.max(1, result.readyFrames + result.missingFrames));
+        System.out.printf(Locale.ROOT, "  frames drawn: %d, %d ahead of time%n",
+                drawn, result.prefetchedFrames);
+        System.out.printf(Locale.ROOT, "  frame buffers: %d reused, %d allocated (%.1f%% reuse)%n",
+                result.reuses, result.allocations,
+                100.0 * result.reuses / Math.max(1, result.reuses + result.allocations));
+        System.out.printf(Locale.ROOT, "  frame fill time (us): avg %.1f max %.1f%n",
+                result.frameNanos / 1e3 / Math.max(1, drawn), result.maxFrameNanos / 1e3);
+    }
+
+    /**
+     * Looks up the quote of the given time like the widget does before rendering it, fetching it
+     * only if it's not the one already shown.
+     *
+     * @param time Time to look up
+     * @param start Simulated start time
+     * @param rotation Quote rotation to plan the schedules with
+     * @param schedule Current schedule, replaced when the day changes
+     * @param shownQuoteId Id of the quote shown, replaced by the one looked up
+     * @param rendered Minutes since the start with their quote rendered
+     * @param result Result to count the lookup in
+     */
+    private void lookup(long time, long start, QuoteRotation rotation, QuoteSchedule[] schedule,
+                        long[] shownQuoteId, boolean[] rendered, ScreenResult result) {
+        result.lookups++;
+        int day = QuoteSchedule.getDay(time);
+        if (schedule[0] == null || schedule[0].day != day) {
+            schedule[0] = QuoteSchedule.create(index, rotation, day);
+        }
+
+        long quoteId = schedule[0].getQuoteId(QuoteSchedule.getMinuteOfDay(time));
+        if (quoteId != QuoteIndex.NO_QUOTE && quoteId != shownQuoteId[0]) {
+            source.getQuote(quoteId);
+            shownQuoteId[0] = quoteId;
+            result.fetches++;
+        }
+
+        int minute = (int) ((time - start) / MinuteTicker.MINUTE_MILLIS);
+        if (minute >= 0 && minute < rendered.length) {
+            rendered[minute] = true;
+        }
+    }
+
+    /**
+     * Prints the comparison of ticking every minute and suspending the ticks while the screen is
+     * off.
+     *
+     * @param always Result of ticking every minute
+     * @param suspended Result of suspending the ticks
+     * @param onMinutes Minutes the screen is on in each cycle
+     * @param offMinutes Minutes the screen is off in each cycle
+     */
+    private static void reportScreenCycle(ScreenResult always, ScreenResult suspended,
+                                          int onMinutes, int offMinutes) {
+        System.out.printf(Locale.ROOT, "Screen on %d of every %d minutes:%n",
+                onMinutes, onMinutes + offMinutes);
+        System.out.printf(Locale.ROOT, "  receiver invocations: %d ticking always, %d suspended (%.1f%% fewer)%n",
+                always.invocations, suspended.invocations,
+                100.0 * (always.invocations - suspended.invocations) / always.invocations);
+        System.out.printf(Locale.ROOT, "  quote lookups: %d ticking always, %d suspended (%.1f%% fewer), %d catch-ups%n",
+                always.lookups, suspended.lookups,
+                100.0 * (always.lookups - suspended.lookups) / always.lookups, suspended.catchUps);
+        System.out.printf(Locale.ROOT, "  quotes fetched: %d ticking always, %d suspended%n",
+                always.fetches, suspended.fetches);
+        System.out.printf(Locale.ROOT, "  minutes missed with the screen on: %d ticking always, %d suspended%n",
+                always.missedMinutes, suspended.missedMinutes);
+    }
+
+    /**
+     * Maps the given quote pack as source of {@link SimulatedQuote}s.
+     *
+     * @param packFile Quote pack file
+     * @return Quote source reading from the pack
+     * @throws IOException If the quote pack can't be read
+     */
+    static QuoteSource<SimulatedQuote> openPack(File packFile) throws IOException {
+        return new PackQuoteSource<>(QuotePack.map(packFile),
+                new PackQuoteSource.QuoteFactory<SimulatedQuote>() {
+                    @Override
+                    public SimulatedQuote createQuote(QuotePack pack, int record) {
+                        return new SimulatedQuote(pack, record);
+                    }
+                });
+    }
+
+    /**
+     * Prints the report of the given simulation run.
+     *
+     * @param result Simulation result
+     * @param days Number of simulated days
+     */
+    private static void report(Result result, int days) {
+        int ticks = result.latencies.length;
+        long[] sorted = result.latencies.clone();
+        Arrays.sort(sorted);
+
+        System.out.printf(Locale.ROOT, "Replayed %d ticks (%d days) in %.1f ms%n",
+                ticks, days, result.elapsedNanos / 1e6);
+        System.out.printf(Locale.ROOT, "Throughput: %.0f ticks/s%n",
+                ticks / (result.elapsedNanos / 1e9));
+        System.out.printf(Locale.ROOT, "Schedules planned: %d, quotes fetched: %d, widget updates: %d%n",
+                result.schedules, result.fetches, result.updates);
+
+        StringBuilder latencies = new StringBuilder("Tick latency (us):");
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            latencies.append(String.format(Locale.ROOT, " %s %.1f",
+                    PERCENTILE_NAMES[i], getPercentile(sorted, PERCENTILES[i]) / 1e3));
+        }
+        latencies.append(String.format(Locale.ROOT, " max %.1f", sorted[ticks - 1] / 1e3));
+        System.out.println(latencies);
+        System.out.printf(Locale.ROOT, "Max tick lateness: %d ms%n", result.maxLateness);
+
+        if (result.allocatedBytes >= 0) {
+            System.out.printf(Locale.ROOT, "Allocated: %.1f bytes/tick, %.2f bytes/steady-state tick,"
+                    + " %.1f bytes/quote change tick%n", (double) result.allocatedBytes / ticks,
+                    result.getSteadyAllocation(), result.getChangeAllocation());
+        }
+    }
+
+    /**
+     * Get the given percentile of the sorted values, using the nearest-rank method.
+     *
+     * @param sorted Values in ascending order
+     * @param percentile Percentile, from {@code 0} to {@code 100}
+     * @return Percentile value
+     */
+    private static long getPercentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * Prints the usage and exits.
+     */
+    private static void usage() {
+        System.err.println("Usage: TickSimulator --pack <file> [--days n] [--warmup-days n]"
+                + " [--max-delay ms] [--seed n] [--alloc-budget bytes] [--metrics file]"
+                + " [--screen on/off] [--frames WxH[,WxH...]]");
+        System.exit(EXIT_USAGE);
+    }
+
+    /**
+     * Runs the simulator.
+     *
+     * @param args Command line arguments
+     * @throws IOException If the quote pack can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        File packFile = null;
+        int days = 1;
+        int warmupDays = 1;
+        long maxDelay = 500;
+        long seed = System.nanoTime();
+        long allocationBudget = -1;
+        File metricsFile = null;
+        int screenOnMinutes = 0;
+        int screenOffMinutes = 0;
+        int[][] frameSizes = null;
+
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    usage();
+                }
+                switch (args[i]) {
+                    case "--pack":
+                        packFile = new File(args[i + 1]);
+                        break;
+                    case "--days":
+                        days = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--warmup-days":
+                        warmupDays = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--max-delay":
+                        maxDelay = Long.parseLong(args[i + 1]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[i + 1]);
+                        break;
+                    case "--alloc-budget":
+                        allocationBudget = Long.parseLong(args[i + 1]);
+                        break;
+                    case "--metrics":
+                        metricsFile = new File(args[i + 1]);
+                        break;
+                    case "--screen":
+                        String[] cycle = args[i + 1].split("/");
+                        if (cycle.length != 2) {
+                            usage();
+                        }
+                        screenOnMinutes = Integer.parseInt(cycle[0]);
+                        screenOffMinutes = Integer.parseInt(cycle[1]);
+                        break;
+                    case "--frames":
+                        String[] sizes = args[i + 1].split(",");
+                        frameSizes = new int[sizes.length][];
+                        for (int j = 0; j < sizes.length; j++) {
+                            String[] size = sizes[j].split("x");
+                            if (size.length != 2) {
+                                usage();
+                            }
+                            frameSizes[j] = new int[] {Integer.parseInt(size[0]), Integer.parseInt(size[1])};
+                            if (frameSizes[j][0] < 1 || frameSizes[j][1] < 1) {
+                                usage();
+                            }
+                        }
+                        break;
+                    default:
+                        usage();
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+
+        if (packFile == null || days < 1 || warmupDays < 0 || maxDelay < 0
+                || screenOnMinutes < 0 || screenOffMinutes < 0
+                || (screenOnMinutes == 0) != (screenOffMinutes == 0)) {
+            usage();
+        }
+
+        QuoteSource<SimulatedQuote> source = openPack(packFile);
+
+        TickSimulator simulator = new TickSimulator(source, maxDelay, seed, allocationBudget >= 0);
+        long start = System.currentTimeMillis() / DAY_MILLIS * DAY_MILLIS;
+        System.out.println("Simulating " + packFile + ", seed " + seed);
+
+        if (warmupDays > 0) {
+            simulator.run(start, warmupDays * QuoteIndex.MINUTES_PER_DAY);
+        }
+        Result result = simulator.run(start, days * QuoteIndex.MINUTES_PER_DAY);
+        report(result, days);
+        if (screenOnMinutes > 0) {
+            int minutes = days * QuoteIndex.MINUTES_PER_DAY;
+            reportScreenCycle(
+                    simulator.runScreenCycle(start, minutes, screenOnMinutes, screenOffMinutes, false),
+                    simulator.runScreenCycle(start, minutes, screenOnMinutes, screenOffMinutes, true),
+                    screenOnMinutes, screenOffMinutes);
+        }
+        if (frameSizes != null) {
+            reportFrames(simulator.runFrames(start, days * QuoteIndex.MINUTES_PER_DAY, frameSizes),
+                    frameSizes.length);
+        }
+        source.close();
+
+        if (metricsFile != null) {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(metricsFile),
+                    Charset.forName("UTF-8"))) {
+                result.metrics.writeReport(out);
+            }
+            System.out.println("Metrics written to " + metricsFile);
+        }
+
+        if (allocationBudget >= 0 && result.getSteadyAllocation() > allocationBudget) {
+            System.err.printf(Locale.ROOT, "Steady-state ticks allocated %.2f bytes on average,"
+                    + " over the budget of %d bytes%n", result.getSteadyAllocation(), allocationBudget);
+            System.exit(EXIT_OVER_BUDGET);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.simulator;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import fi.craplab.prosezeit.core.MinuteTicker;
+import fi.craplab.prosezeit.core.QuoteIndex;
+import fi.craplab.prosezeit.core.QuoteSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Receiver invocations and quote lookups of a simulated day with the screen turning on and off,
+ * replayed by the {@link TickSimulator} against the compiled quote pack, once ticking every
+ * minute and once suspending the ticks while the screen is off.
+ * <p>
+ * With the ticks suspended, the screen-off minutes cost one invocation per suspended tick
+ * instead of one per minute, and no lookups at all, while every minute with the screen on still
+ * gets its quote, the first one through the catch-up when the screen turns on.
+ */
+public class ScreenSuspendTest {
+    /** System property with the path of the compiled quote pack */
+    private static final String PACK_PROPERTY = "prosezeit.pack";
+    private static final long SEED = 1;
+    private static final long MAX_DELAY = 500;
+    /** Some midnight, in UTC */
+    private static final long START = 1538352000000L;
+    private static final int ON_MINUTES = 30;
+    private static final int OFF_MINUTES = 90;
+    private static final int CYCLES = QuoteIndex.MINUTES_PER_DAY / (ON_MINUTES + OFF_MINUTES);
+
+    private static QuoteSource<TickSimulator.SimulatedQuote> source;
+    private static TickSimulator.ScreenResult always;
+    private static TickSimulator.ScreenResult suspended;
+
+    @BeforeClass
+    public static void replayDay() throws IOException {
+        String pack = System.getProperty(PACK_PROPERTY);
+        assertNotNull("quote pack not set in " + PACK_PROPERTY, pack);
+
+        source = TickSimulator.openPack(new File(pack));
+        TickSimulator simulator = new TickSimulator(source, MAX_DELAY, SEED, false);
+        always = simulator.runScreenCycle(START, QuoteIndex.MINUTES_PER_DAY, ON_MINUTES,
+                OFF_MINUTES, false);
+        suspended = simulator.runScreenCycle(START, QuoteIndex.MINUTES_PER_DAY, ON_MINUTES,
+                OFF_MINUTES, true);
+    }
+
+    @AfterClass
+    public static void closeSource() {
+        if (source != null) {
+            source.close();
+        }
+    }
+
+    @Test
+    public void tickingAlwaysRunsEveryMinute() {
+        // the first minute is rendered by the start, not by a broadcast
+        assertTrue(always.invocations >= QuoteIndex.MINUTES_PER_DAY - 1);
+        assertEquals(always.invocations + 1, always.lookups);
+    }
+
+    @Test
+    public void suspendingCutsInvocations() {
+        int onMinutes = CYCLES * ON_MINUTES;
+        // a tick per minute on, a suspended tick per quarter hour off, two screen changes a cycle
+        int expected = onMinutes + CYCLES * (OFF_MINUTES / MinuteTicker.SUSPENDED_TICK_MINUTES + 2);
+        assertTrue("suspended invocations " + suspended.invocations + ", expected at most "
+                + expected, suspended.invocations <= expected);
+        assertTrue(suspended.invocations < always.invocations / 2);
+    }
+
+    @Test
+    public void suspendingSkipsLookupsWithScreenOff() {
+        // the start and a tick per minute on, plus at most one tick per cycle armed early enough
+        // by the lateness correction to fire right before the screen turns off
+        int expected = 1 + CYCLES * (ON_MINUTES + 1);
+        assertTrue("suspended lookups " + suspended.lookups + ", expected at most " + expected,
+                suspended.lookups <= expected);
+        assertTrue(suspended.lookups < always.lookups / 2);
+        assertTrue(suspended.fetches <= always.fetches);
+    }
+
+    @Test
+    public void screenOnCatchesUp() {
+        // the screen turns on at the end of every cycle but the last
+        assertEquals(CYCLES - 1, suspended.catchUps);
+        assertEquals(0, always.missedMinutes);
+        assertEquals(0, suspended.missedMinutes);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * ProseZeit - Literary Clock Widget for Android
+ *
+ * Copyright (C) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.prosezeit.simulator;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import fi.craplab.prosezeit.core.QuoteIndex;
+import fi.craplab.prosezeit.core.QuoteSource;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocation budgets of the tick path, from the minute tick over the quote lookup to the widget
+ * view state, replayed by the {@link TickSimulator} against the compiled quote pack.
+ * <p>
+ * A steady-state tick, one that neither plans a new schedule nor changes the quote, must not
+ * allocate anything beyond the occasional bytes the JVM itself allocates on the thread, while a
+ * tick changing the quote may allocate the new quote and its texts, but nothing in proportion to
+ * the quote collection. Averages rather than maximums are checked, as a single tick may get the
+ * JVM's allocations, e.g. while compiling.
+ */
+public class TickAllocationTest {
+    /** System property with the path of the compiled quote pack */
+    private static final String PACK_PROPERTY = "prosezeit.pack";
+    /** Average bytes a steady-state tick may allocate */
+    private static final double STEADY_BUDGET = 8;
+    /** Average bytes a quote change tick may allocate */
+    private static final double CHANGE_BUDGET = 1024;
+    private static final int DAYS = 7;
+    private static final long SEED = 1;
+    private static final long MAX_DELAY = 500;
+    /** Some midnight, in UTC */
+    private static final long START = 1538352000000L;
+
+    private static QuoteSource<TickSimulator.SimulatedQuote> source;
+    private static TickSimulator.Result result;
+
+    @BeforeClass
+    public static void replayWeek() throws IOException {
+        String pack = System.getProperty(PACK_PROPERTY);
+        assertNotNull("quote pack not set in " + PACK_PROPERTY, pack);
+
+        source = TickSimulator.openPack(new File(pack));
+        TickSimulator simulator = new TickSimulator(source, MAX_DELAY, SEED, true);
+        // warm up first, so the measured ticks don't pay for class loading
+        simulator.run(START, QuoteIndex.MINUTES_PER_DAY);
+        result = simulator.run(START, DAYS * QuoteIndex.MINUTES_PER_DAY);
+    }
+
+    @AfterClass
+    public static void closeSource() {
+        if (source != null) {
+            source.close();
+        }
+    }
+
+    @Test
+    public void steadyTicksStayWithinBudget() {
+        assertTrue("no steady-state ticks", result.steadyTicks > 0);
+        assertTrue("steady-state ticks allocated " + result.getSteadyAllocation()
+                        + " bytes on average, over the budget of " + STEADY_BUDGET,
+                result.getSteadyAllocation() <= STEADY_BUDGET);
+    }
+
+    @Test
+    public void quoteChangeTicksStayWithinBudget() {
+        assertTrue("no quote change ticks", result.changeTicks > 0);
+        assertTrue("quote change ticks allocated " + result.getChangeAllocation()
+                        + " bytes on average, over the budget of " + CHANGE_BUDGET,
+                result.getChangeAllocation() <= CHANGE_BUDGET);
+    }
+
+    @Test
+    public void quoteChangesReachTheViewState() {
+        assertTrue(result.updates >= result.fetches);
+    }
+}